@@ -0,0 +1,216 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Renders a morph between two rule sets as a numbered sequence of images, one per interpolation step.
+ * <p>
+ * The frames are split into contiguous chunks that render at the same time, their walkers sharing one fork-join
+ * pool. Within a chunk every frame starts from where the walkers of the previous frame stopped: they are already on
+ * an attractor close to the new one, so a short burn-in replaces the long one a cold start needs. The output
+ * therefore depends on the number of chunks as well as on the seed.
+ */
+class AnimationRender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AnimationRender.class);
+
+    /**
+     * Points each walker discards before plotting, starting from the middle of the output.
+     */
+    static final int COLD_BURN_IN = 4096;
+
+    /**
+     * Points each walker discards before plotting, starting from the attractor of the previous frame.
+     */
+    static final int WARM_BURN_IN = 64;
+
+    private static final int MIN_ROUND_SIZE = 1 << 16;
+
+    private final CompiledRuleSet from;
+    private final CompiledRuleSet to;
+    private final int frames;
+    private final int width;
+    private final int height;
+    private final long iterations;
+    private final RandomAlgorithm randomAlgorithm;
+    private final long seed;
+    private final int walkers;
+
+    private Viewport viewport = Viewport.IDENTITY;
+    private int concurrentFrames = RenderScheduler.DEFAULT_CONCURRENT_JOBS;
+
+    /**
+     * @param from       the rule set of the first frame, in the pixel coordinates of the output
+     * @param to         the rule set of the last frame, with as many vertices as {@code from}
+     * @param iterations points plotted per frame
+     * @param walkers    walkers per frame
+     */
+    AnimationRender(CompiledRuleSet from, CompiledRuleSet to, int frames, int width, int height, long iterations,
+                    RandomAlgorithm randomAlgorithm, long seed, int walkers) {
+        if(frames < 1 || walkers < 1) {
+            throw new IllegalArgumentException("An animation needs at least one frame and one walker");
+        }
+        if(width < 1 || height < 1) {
+            throw new IllegalArgumentException("Output dimensions must be positive");
+        }
+        if(OffscreenRender.needsMappedHistogram(width, height)) {
+            throw new IllegalArgumentException(width + "x" + height + " is too large for animation frames");
+        }
+        if(from.getVertexCount() != to.getVertexCount()) {
+            throw new IllegalArgumentException("Cannot morph between " + from.getVertexCount() + " and "
+                    + to.getVertexCount() + " vertices");
+        }
+        this.from = from;
+        this.to = to;
+        this.frames = frames;
+        this.width = width;
+        this.height = height;
+        this.iterations = iterations;
+        this.randomAlgorithm = randomAlgorithm;
+        this.seed = seed;
+        this.walkers = walkers;
+    }
+
+    void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    /**
+     * Sets how many frames render at once. Fewer means more frames get a warm start; more keeps the processors
+     * busy while frames are merged and exported.
+     */
+    void setConcurrentFrames(int concurrentFrames) {
+        this.concurrentFrames = Math.max(1, Math.min(frames, concurrentFrames));
+    }
+
+    CompiledRuleSet frameRuleSet(int frame) {
+        return CompiledRuleSet.interpolate(from, to, frames == 1 ? 0.0 : (double) frame / (frames - 1));
+    }
+
+    /**
+     * Renders and exports every frame, stopping at the first failure.
+     *
+     * @param outputs gives the file of each frame
+     */
+    void run(ForkJoinPool pool, ToneMapper toneMapper, ExportFormat format, IntFunction<Path> outputs,
+             RenderStats stats) throws IOException, InterruptedException {
+        AtomicInteger framesDone = new AtomicInteger();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService chunkThreads = Executors.newFixedThreadPool(concurrentFrames, runnable -> {
+            Thread thread = new Thread(runnable, "animation-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(chunkThreads);
+        List<Future<Void>> chunks = new ArrayList<>(concurrentFrames);
+        RenderEvents.RenderRun event = new RenderEvents.RenderRun("animation", width, height,
+                walkers * concurrentFrames, iterations * frames);
+        event.begin();
+        stats.start();
+        try {
+            for(int chunk = 0; chunk < concurrentFrames; chunk++) {
+                int first = (int) ((long) frames * chunk / concurrentFrames);
+                int end = (int) ((long) frames * (chunk + 1) / concurrentFrames);
+                chunks.add(completion.submit(() -> {
+                    renderChunk(first, end, pool, toneMapper, format, outputs, stats, framesDone);
+                    return null;
+                }));
+            }
+            for(int i = 0; i < chunks.size(); i++) {
+                completion.take().get();
+            }
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if(cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Animation frame failed", cause);
+        } finally {
+            chunkThreads.shutdownNow();
+            chunkThreads.awaitTermination(1, TimeUnit.MINUTES);
+            stats.finish();
+            event.pointsComputed = stats.getPointsComputed();
+            event.commit();
+        }
+    }
+
+    private void renderChunk(int first, int end, ForkJoinPool pool, ToneMapper toneMapper, ExportFormat format,
+                             IntFunction<Path> outputs, RenderStats stats, AtomicInteger framesDone)
+            throws IOException, InterruptedException {
+        WalkerState[] walkerStates = WalkerState.initial(width / 2.0, height / 2.0, randomAlgorithm, seed, walkers);
+        for(int frame = first; frame < end; frame++) {
+            CompiledRuleSet ruleSet = frameRuleSet(frame);
+            DensityHistogram histogram = new DensityHistogram(width, height);
+            try(ParallelChaosGame game = new ParallelChaosGame(ruleSet, randomAlgorithm, walkerStates, iterations,
+                    width, height, stats, pool)) {
+                if(!viewport.isIdentity()) {
+                    game.setOutputMap(OrbitPrefix.forViewport(ruleSet, viewport, width, height));
+                }
+                game.burnIn(frame == first ? COLD_BURN_IN : WARM_BURN_IN);
+                while(!game.isFinished()) {
+                    game.runRound(Math.max(MIN_ROUND_SIZE, width * height / walkers));
+                    game.mergeInto(histogram);
+                }
+                walkerStates = game.snapshotWalkers();
+            }
+            for(int i = 0; i < walkerStates.length; i++) {
+                walkerStates[i] = walkerStates[i].withPointsDone(0L);
+            }
+
+            Path output = outputs.apply(frame);
+            Map<String, String> description = describe(frame);
+            description.put("Tone", toneMapper.describe());
+            HistogramExporter.export(histogram, toneMapper, format, output, description, null);
+            LOG.info("Wrote {} ({} of {} frames)", output, framesDone.incrementAndGet(), frames);
+        }
+    }
+
+    /**
+     * Describes the parameters of one frame, e.g. for image metadata.
+     */
+    Map<String, String> describe(int frame) {
+        Map<String, String> description = new LinkedHashMap<>();
+        description.put("Frame", (frame + 1) + "/" + frames);
+        description.put("Iterations", String.valueOf(iterations));
+        description.put("Seed", String.valueOf(seed));
+        description.put("Generator", randomAlgorithm.getDisplayName());
+        description.put("Threads", String.valueOf(walkers));
+        description.put("Concurrent Frames", String.valueOf(concurrentFrames));
+        description.put("Size", width + "x" + height);
+        if(!viewport.isIdentity()) {
+            description.put("View", viewport.toString());
+        }
+        return description;
+    }
+
+    int getFrames() {
+        return frames;
+    }
+
+    long getIterations() {
+        return iterations;
+    }
+}
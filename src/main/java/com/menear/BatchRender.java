@@ -0,0 +1,646 @@
+package com.menear;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Command-line entry point that renders a rule set to a PNG without touching the JavaFX toolkit.
+ */
+public class BatchRender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchRender.class);
+
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30_000L;
+
+    private static final int DEFAULT_PORT = 47310;
+    private static final int DEFAULT_POINT_PRECISION = 8;
+    private static final int DEFAULT_THUMBNAIL_SIZE = 256;
+    private static final long DEFAULT_CACHE_MEGABYTES = RenderCache.DEFAULT_MAX_BYTES >> 20;
+
+    private static final Set<String> VALUE_OPTIONS = Set.of("rules", "vertices", "output", "rule", "iterations",
+            "seed", "generator", "width", "height", "threads", "zoom", "center", "histogram-file", "format",
+            "thumbnail", "thumbnail-size", "tone", "gamma", "palette", "cache", "cache-size", "checkpoint",
+            "checkpoint-interval", "resume", "workers", "listen", "spawn-local", "sweep", "jobs", "animate",
+            "to-rules", "to-ratio", "from-ratio", "points", "point-precision", "metrics", "jfr");
+    private static final Set<String> FLAGS = Set.of("help", "interleave", "until-converged");
+
+    private static volatile boolean shutdownRequested;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: BatchRender (--rules <file.json> | --vertices x,y;x,y;...) --output <file.png> [options]",
+            "       BatchRender --resume <file.ckpt> --output <file.png> [--iterations <n>] [options]",
+            "  --rule <name>          vertex selection rule override, e.g. DIFFERENT_THAN_PREVIOUS",
+            "  --iterations <n>       number of points to compute (default 1000000)",
+            "  --until-converged      stop once the image no longer changes; --iterations becomes a limit, by",
+            "                         default " + ConvergenceMonitor.MAX_POINTS_PER_PIXEL + " points per pixel",
+            "  --seed <n>             random seed (default random)",
+            "  --generator <name>     XOSHIRO256 or SPLITMIX64 (default XOSHIRO256)",
+            "  --width <px>           output width (default 800)",
+            "  --height <px>          output height (default 600)",
+            "  --threads <n>          worker threads (default all processors)",
+            "  --interleave           run two walkers per thread in one interleaved loop (xoshiro256** only); the",
+            "                         image matches a render with twice as many --threads",
+            "  --zoom <factor>        magnification of the view (default 1)",
+            "  --center <x,y>         view centre in unzoomed output pixels (default the middle of the output)",
+            "  --histogram-file <f>   keep hit counts in a memory-mapped file (automatic for very large outputs)",
+            "  --format <name>        PNG, PNG16 or RAW (default from the output extension, otherwise PNG)",
+            "  --thumbnail <file>     also write a small PNG, gathered while the output is written",
+            "  --thumbnail-size <px>  largest side of the thumbnail (default " + DEFAULT_THUMBNAIL_SIZE + ")",
+            "  --tone <name>          LINEAR, LOG, GAMMA or EQUALIZED (default LOG)",
+            "  --gamma <g>            exponent of the GAMMA tone curve (default 2.2)",
+            "  --palette <name>       LIME, GRAYSCALE, FIRE, ICE, SPECTRAL or BY_VERTEX (default LIME)",
+            "  --cache <dir>          reuse finished renders kept in dir, and continue the longest shorter one",
+            "  --cache-size <MB>      disk space the cache may use (default " + DEFAULT_CACHE_MEGABYTES + ")",
+            "  --checkpoint <f>       periodically save a checkpoint that --resume can continue from",
+            "  --checkpoint-interval <s>  seconds between checkpoints (default 300)",
+            "  --resume <f>           continue a checkpointed render; --iterations may raise its target",
+            "  --workers <n>          split the render across n RenderWorker processes that connect to --listen",
+            "  --listen <port>        port workers connect to (default " + DEFAULT_PORT + ")",
+            "  --spawn-local <n>      start n workers on this machine (implies --workers n unless given)",
+            "  --sweep <spec>         render a series, e.g. ratio=0.3:0.7:9 or vertices=3:8; the output name gets",
+            "                         each variant's label in place of {} or before the extension",
+            "  --jobs <n>             sweep variants or animation frames rendered at once, sharing --threads",
+            "                         processors (default " + RenderScheduler.DEFAULT_CONCURRENT_JOBS + ")",
+            "  --animate <frames>     render a morph as numbered frames; the output name gets the frame number",
+            "                         in place of {} or before the extension",
+            "  --to-rules <file>      rule set of the last frame, with as many vertices as the first",
+            "  --to-ratio <r>         contraction ratio of the last frame, instead of --to-rules",
+            "  --from-ratio <r>       contraction ratio of the first frame (default that of the rule set)",
+            "  --points <file>        also stream every plotted point to a compact point cloud file",
+            "  --point-precision <b>  fraction bits kept of each point's pixel coordinates, 0 to "
+                    + PointCloudWriter.MAX_FRACTION_BITS + " (default " + DEFAULT_POINT_PRECISION + ")",
+            "  --metrics <file>       write render pipeline metrics as JSON when done",
+            "  --jfr <file>           record a Flight Recorder file with the render events");
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        Map<String, String> options;
+        try {
+            options = parseArguments(args, VALUE_OPTIONS, FLAGS);
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if(options.containsKey("help")) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        try {
+            render(options);
+        } catch(IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch(IOException e) {
+            LOG.error("Batch render failed!", e);
+            exit(1);
+        } catch(InterruptedException e) {
+            LOG.warn("Interrupted!");
+            Thread.currentThread().interrupt();
+            exit(1);
+        }
+    }
+
+    private static void exit(int status) {
+        // Exiting from inside the shutdown sequence would block until the shutdown hook gives up waiting
+        if(!shutdownRequested) {
+            System.exit(status);
+        }
+    }
+
+    static void render(Map<String, String> options) throws IOException, InterruptedException {
+        Recording recording = options.containsKey("jfr") ? startRecording(Paths.get(required(options, "jfr"))) : null;
+        try {
+            renderImages(options);
+        } finally {
+            if(recording != null) {
+                recording.stop();
+                recording.close();
+                LOG.info("Wrote flight recording {}", options.get("jfr"));
+            }
+            if(options.containsKey("metrics")) {
+                RenderMetrics.write(Paths.get(required(options, "metrics")));
+                LOG.info("Wrote metrics {}", options.get("metrics"));
+            }
+        }
+    }
+
+    /**
+     * Starts recording the default JVM events along with {@link RenderEvents}, to be written to {@code file} when
+     * the recording stops.
+     */
+    private static Recording startRecording(Path file) throws IOException {
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration("default");
+        } catch(ParseException e) {
+            throw new IOException("Unable to read the default recording settings", e);
+        }
+        Recording recording = new Recording(configuration);
+        recording.setName("BatchRender");
+        recording.setDestination(file);
+        recording.start();
+        return recording;
+    }
+
+    private static void renderImages(Map<String, String> options) throws IOException, InterruptedException {
+        String output = required(options, "output");
+        ToneMapper toneMapper = new ToneMapper(
+                ToneCurve.valueOf(options.getOrDefault("tone", ToneCurve.LOG.name()).toUpperCase(Locale.ROOT)),
+                doubleOption(options, "gamma", ToneMapper.DEFAULT_GAMMA),
+                Palette.valueOf(options.getOrDefault("palette", Palette.LIME.name()).toUpperCase(Locale.ROOT)));
+        if(options.containsKey("sweep")) {
+            renderSweep(options, output, toneMapper);
+            return;
+        }
+        if(options.containsKey("animate")) {
+            renderAnimation(options, output, toneMapper);
+            return;
+        }
+        OffscreenRender render;
+        Path histogramFile = null;
+        if(options.containsKey("resume")) {
+            if(options.containsKey("cache")) {
+                throw new IllegalArgumentException("Cached renders do not support --resume");
+            }
+            Checkpoint checkpoint = Checkpoint.read(Paths.get(required(options, "resume")));
+            render = OffscreenRender.resume(checkpoint, longOption(options, "iterations", 0L));
+            LOG.info("Resuming {} of {} points at {}x{} with {} thread(s), {} seed {}", checkpoint.getPointsDone(),
+                    render.getIterations(), render.getWidth(), render.getHeight(), checkpoint.getWorkerCount(),
+                    checkpoint.getRandomAlgorithm().getDisplayName(), checkpoint.getSeed());
+        } else {
+            int width = intOption(options, "width", 800);
+            int height = intOption(options, "height", 600);
+            long iterations = iterationsOption(options, width, height);
+            int threads = intOption(options, "threads", Runtime.getRuntime().availableProcessors());
+            long seed = options.containsKey("seed") ? longOption(options, "seed", 0L) : System.nanoTime();
+            RandomAlgorithm algorithm = RandomAlgorithm.valueOf(
+                    options.getOrDefault("generator", RandomAlgorithm.XOSHIRO256.name()).toUpperCase(Locale.ROOT));
+
+            CompiledRuleSet ruleSet = loadRuleSet(options).compile(width, height);
+            if(options.containsKey("rule")) {
+                ruleSet = ruleSet.withSelectionRule(
+                        VertexSelectionRule.valueOf(options.get("rule").toUpperCase(Locale.ROOT)));
+            }
+            if(options.containsKey("histogram-file")) {
+                histogramFile = Paths.get(required(options, "histogram-file"));
+            } else if(OffscreenRender.needsMappedHistogram(width, height)) {
+                histogramFile = Paths.get(output + ".hist");
+            }
+
+            LOG.info("Rendering {} points at {}x{} with {} thread(s), {} seed {}", iterations, width, height, threads,
+                    algorithm.getDisplayName(), seed);
+            render = new OffscreenRender(ruleSet, width, height, iterations, algorithm, seed,
+                    options.containsKey("interleave") ? 2 * threads : threads);
+            render.setCache(cacheOption(options, width, height));
+            if(options.containsKey("zoom") || options.containsKey("center")) {
+                double[] center = options.containsKey("center") ? parsePoint(required(options, "center"))
+                        : new double[] { width / 2.0, height / 2.0 };
+                render.setViewport(Viewport.centredOn(center[0], center[1], doubleOption(options, "zoom", 1.0),
+                        width, height));
+            }
+        }
+        render.setInterleaved(options.containsKey("interleave"));
+        render.setUntilConverged(options.containsKey("until-converged"));
+        if(options.containsKey("checkpoint")) {
+            render.setCheckpointFile(Paths.get(required(options, "checkpoint")),
+                    longOption(options, "checkpoint-interval", 300L));
+        }
+        if(options.containsKey("points")) {
+            if(options.containsKey("resume")) {
+                throw new IllegalArgumentException("Resumed renders do not support --points");
+            }
+            render.setPointCloud(Paths.get(required(options, "points")),
+                    intOption(options, "point-precision", DEFAULT_POINT_PRECISION));
+        }
+
+        RenderStats stats = new RenderStats();
+        HitBuffer histogram;
+        Map<String, String> description;
+        if(options.containsKey("workers") || options.containsKey("spawn-local")) {
+            DensityHistogram target = new DensityHistogram(render.getWidth(), render.getHeight());
+            try(RenderCoordinator coordinator = distributedRender(options, render)) {
+                int spawned = intOption(options, "spawn-local", 0);
+                coordinator.spawnLocalWorkers(spawned);
+                int workers = intOption(options, "workers", spawned);
+                histogram = runInterruptibly(() -> {
+                    coordinator.run(workers, target, stats);
+                    return target;
+                });
+                description = coordinator.describe();
+            }
+        } else {
+            Path mappedFile = histogramFile;
+            histogram = runInterruptibly(() -> render.run(mappedFile, stats));
+            description = render.describe();
+        }
+        LOG.info("Computed {} points in {} ms", stats.getPointsComputed(), stats.getElapsedNanos() / 1_000_000L);
+
+        description.put("Tone", toneMapper.describe());
+        HistogramPyramid thumbnails = null;
+        int thumbnailLevel = 0;
+        if(options.containsKey("thumbnail")) {
+            thumbnailLevel = HistogramPyramid.levelFor(histogram.getWidth(), histogram.getHeight(),
+                    intOption(options, "thumbnail-size", DEFAULT_THUMBNAIL_SIZE));
+            thumbnails = new HistogramPyramid(histogram.getWidth(), histogram.getHeight(), thumbnailLevel,
+                    thumbnailLevel);
+        }
+        try {
+            HistogramExporter.export(histogram, toneMapper, exportFormat(options, output), Paths.get(output),
+                    description, null, thumbnails);
+            LOG.info("Wrote {}", output);
+            if(thumbnails != null) {
+                String thumbnail = required(options, "thumbnail");
+                HistogramExporter.export(thumbnails.asHitBuffer(thumbnailLevel, histogram.getTotalPoints()),
+                        toneMapper, ExportFormat.PNG, Paths.get(thumbnail), description, null);
+                LOG.info("Wrote {}", thumbnail);
+            }
+        } finally {
+            if(histogram instanceof MappedHistogram) {
+                ((MappedHistogram) histogram).close();
+            }
+        }
+    }
+
+    /**
+     * Renders every variant of a parameter sweep as a job of its own. All jobs share one pool of --threads
+     * threads, and each is split into that many walkers so that its result does not depend on the others.
+     */
+    private static void renderSweep(Map<String, String> options, String output, ToneMapper toneMapper)
+            throws IOException, InterruptedException {
+        for(String unsupported : new String[] {"resume", "checkpoint", "histogram-file", "workers", "spawn-local",
+                "points", "thumbnail"}) {
+            if(options.containsKey(unsupported)) {
+                throw new IllegalArgumentException("Sweeps do not support --" + unsupported);
+            }
+        }
+        ParameterSweep sweep = ParameterSweep.parse(required(options, "sweep"));
+        int width = intOption(options, "width", 800);
+        int height = intOption(options, "height", 600);
+        long iterations = iterationsOption(options, width, height);
+        int threads = intOption(options, "threads", Runtime.getRuntime().availableProcessors());
+        long seed = options.containsKey("seed") ? longOption(options, "seed", 0L) : System.nanoTime();
+        RandomAlgorithm algorithm = RandomAlgorithm.valueOf(
+                options.getOrDefault("generator", RandomAlgorithm.XOSHIRO256.name()).toUpperCase(Locale.ROOT));
+        CompiledRuleSet base = options.containsKey("rules") || options.containsKey("vertices")
+                ? loadRuleSet(options).compile(width, height)
+                : CompiledRuleSet.regularPolygon(3, width, height, RuleSet.DEFAULT_RATIO,
+                VertexSelectionRule.NO_RESTRICTION);
+        if(options.containsKey("rule")) {
+            base = base.withSelectionRule(VertexSelectionRule.valueOf(options.get("rule").toUpperCase(Locale.ROOT)));
+        }
+        Viewport viewport = null;
+        if(options.containsKey("zoom") || options.containsKey("center")) {
+            double[] center = options.containsKey("center") ? parsePoint(required(options, "center"))
+                    : new double[] { width / 2.0, height / 2.0 };
+            viewport = Viewport.centredOn(center[0], center[1], doubleOption(options, "zoom", 1.0), width, height);
+        }
+        ExportFormat format = exportFormat(options, output);
+        RenderCache cache = cacheOption(options, width, height);
+
+        List<RenderJob> jobs = new ArrayList<>();
+        for(int step = 0; step < sweep.size(); step++) {
+            OffscreenRender render = new OffscreenRender(sweep.apply(base, step, width, height), width, height,
+                    iterations, algorithm, seed, threads);
+            if(viewport != null) {
+                render.setViewport(viewport);
+            }
+            render.setUntilConverged(options.containsKey("until-converged"));
+            render.setCache(cache);
+            jobs.add(new RenderJob(sweep.label(step), render, toneMapper, format,
+                    Paths.get(sweepOutput(output, sweep.label(step))), 0));
+        }
+
+        LOG.info("Rendering {} variant(s) of {} points at {}x{}, {} at a time on {} thread(s)", jobs.size(),
+                iterations, width, height, intOption(options, "jobs", RenderScheduler.DEFAULT_CONCURRENT_JOBS),
+                threads);
+        try(RenderScheduler scheduler = new RenderScheduler(threads,
+                intOption(options, "jobs", RenderScheduler.DEFAULT_CONCURRENT_JOBS))) {
+            runInterruptibly(() -> {
+                try {
+                    jobs.forEach(scheduler::submit);
+                    scheduler.awaitIdle();
+                } catch(InterruptedException e) {
+                    scheduler.cancelAll();
+                    scheduler.awaitIdle();
+                    throw e;
+                }
+                return null;
+            });
+        }
+        long failed = jobs.stream().filter(job -> job.getStatus() != RenderJob.Status.FINISHED).count();
+        for(RenderJob job : jobs) {
+            LOG.info("{}: {} {}", job.getName(), job.getStatus(), job.getMessage());
+        }
+        if(failed > 0) {
+            throw new IOException(failed + " of " + jobs.size() + " sweep variant(s) failed");
+        }
+    }
+
+    /**
+     * Renders a morph from the loaded rule set to --to-rules, or between two contraction ratios, as numbered frames.
+     */
+    private static void renderAnimation(Map<String, String> options, String output, ToneMapper toneMapper)
+            throws IOException, InterruptedException {
+        for(String unsupported : new String[] {"resume", "checkpoint", "histogram-file", "workers", "spawn-local",
+                "sweep", "points", "until-converged", "thumbnail", "cache"}) {
+            if(options.containsKey(unsupported)) {
+                throw new IllegalArgumentException("Animations do not support --" + unsupported);
+            }
+        }
+        int frames = intOption(options, "animate", 1);
+        int width = intOption(options, "width", 800);
+        int height = intOption(options, "height", 600);
+        long iterations = longOption(options, "iterations", 1_000_000L);
+        int threads = intOption(options, "threads", Runtime.getRuntime().availableProcessors());
+        int jobs = Math.max(1, Math.min(frames, intOption(options, "jobs", RenderScheduler.DEFAULT_CONCURRENT_JOBS)));
+        long seed = options.containsKey("seed") ? longOption(options, "seed", 0L) : System.nanoTime();
+        RandomAlgorithm algorithm = RandomAlgorithm.valueOf(
+                options.getOrDefault("generator", RandomAlgorithm.XOSHIRO256.name()).toUpperCase(Locale.ROOT));
+        CompiledRuleSet start = options.containsKey("rules") || options.containsKey("vertices")
+                ? loadRuleSet(options).compile(width, height)
+                : CompiledRuleSet.regularPolygon(3, width, height, RuleSet.DEFAULT_RATIO,
+                VertexSelectionRule.NO_RESTRICTION);
+        if(options.containsKey("rule")) {
+            start = start.withSelectionRule(VertexSelectionRule.valueOf(options.get("rule").toUpperCase(Locale.ROOT)));
+        }
+        if(options.containsKey("from-ratio")) {
+            start = start.withRatio(doubleOption(options, "from-ratio", RuleSet.DEFAULT_RATIO));
+        }
+        CompiledRuleSet end;
+        if(options.containsKey("to-rules")) {
+            end = RuleSet.read(Paths.get(required(options, "to-rules"))).compile(width, height);
+        } else if(options.containsKey("to-ratio")) {
+            end = start.withRatio(doubleOption(options, "to-ratio", RuleSet.DEFAULT_RATIO));
+        } else {
+            throw new IllegalArgumentException("Animations need --to-rules or --to-ratio");
+        }
+
+        // Each frame keeps its share of the processors, so frames rendered together do not slow each other down
+        AnimationRender animation = new AnimationRender(start, end, frames, width, height, iterations, algorithm,
+                seed, Math.max(1, threads / jobs));
+        animation.setConcurrentFrames(jobs);
+        if(options.containsKey("zoom") || options.containsKey("center")) {
+            double[] center = options.containsKey("center") ? parsePoint(required(options, "center"))
+                    : new double[] { width / 2.0, height / 2.0 };
+            animation.setViewport(Viewport.centredOn(center[0], center[1], doubleOption(options, "zoom", 1.0),
+                    width, height));
+        }
+        ExportFormat format = exportFormat(options, output);
+        String digits = "%0" + Math.max(4, String.valueOf(frames).length()) + "d";
+
+        LOG.info("Rendering {} frame(s) of {} points at {}x{}, {} at a time on {} thread(s)", frames, iterations,
+                width, height, jobs, threads);
+        RenderStats stats = new RenderStats();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            runInterruptibly(() -> {
+                animation.run(pool, toneMapper, format,
+                        frame -> Paths.get(sweepOutput(output, String.format(Locale.ROOT, digits, frame))), stats);
+                return null;
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        LOG.info("Computed {} points in {} ms", stats.getPointsComputed(), stats.getElapsedNanos() / 1_000_000L);
+    }
+
+    /**
+     * Opens the --cache directory, or returns null without one.
+     */
+    private static RenderCache cacheOption(Map<String, String> options, int width, int height) throws IOException {
+        if(!options.containsKey("cache")) {
+            return null;
+        }
+        for(String unsupported : new String[] {"resume", "checkpoint", "histogram-file", "workers", "spawn-local",
+                "points", "until-converged"}) {
+            if(options.containsKey(unsupported)) {
+                throw new IllegalArgumentException("Cached renders do not support --" + unsupported);
+            }
+        }
+        if(OffscreenRender.needsMappedHistogram(width, height)) {
+            throw new IllegalArgumentException("Cached renders must have at most " + OffscreenRender.HEAP_PIXEL_LIMIT
+                    + " pixels");
+        }
+        long megabytes = longOption(options, "cache-size", DEFAULT_CACHE_MEGABYTES);
+        return new RenderCache(Paths.get(required(options, "cache")), Math.min(megabytes, Long.MAX_VALUE >> 20) << 20);
+    }
+
+    /**
+     * Puts {@code label} in place of {} in {@code output}, or before its extension.
+     */
+    static String sweepOutput(String output, String label) {
+        if(output.contains("{}")) {
+            return output.replace("{}", label);
+        }
+        int dot = output.lastIndexOf('.');
+        int separator = Math.max(output.lastIndexOf('/'), output.lastIndexOf('\\'));
+        if(dot <= separator) {
+            return output + "-" + label;
+        }
+        return output.substring(0, dot) + "-" + label + output.substring(dot);
+    }
+
+    private static RenderCoordinator distributedRender(Map<String, String> options, OffscreenRender render)
+            throws IOException {
+        if(options.containsKey("resume") || options.containsKey("checkpoint")
+                || options.containsKey("histogram-file")) {
+            throw new IllegalArgumentException("Distributed renders do not support checkpoints or histogram files");
+        }
+        if(options.containsKey("points") || options.containsKey("until-converged")) {
+            throw new IllegalArgumentException("Distributed renders do not support --points or --until-converged");
+        }
+        if(intOption(options, "workers", 1) < 1) {
+            throw new IllegalArgumentException("Option --workers must be positive");
+        }
+        RenderCoordinator coordinator = render.distribute(intOption(options, "listen", DEFAULT_PORT));
+        if(options.containsKey("threads")) {
+            coordinator.setTotalWalkers(intOption(options, "threads", 1));
+        }
+        return coordinator;
+    }
+
+    private interface Render {
+        HitBuffer run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Runs the render so that Ctrl+C interrupts it instead of killing the JVM outright, which gives a render with
+     * a checkpoint file the chance to save its final state before exiting.
+     */
+    private static HitBuffer runInterruptibly(Render render) throws IOException, InterruptedException {
+        Thread renderThread = Thread.currentThread();
+        AtomicBoolean finished = new AtomicBoolean();
+        Thread shutdownHook = new Thread(() -> {
+            if(!finished.get()) {
+                shutdownRequested = true;
+                LOG.warn("Stopping render...");
+                renderThread.interrupt();
+                try {
+                    renderThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "batch-render-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        try {
+            return render.run();
+        } finally {
+            finished.set(true);
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch(IllegalStateException e) {
+                // Already shutting down; the hook is waiting for this thread
+            }
+        }
+    }
+
+    private static ExportFormat exportFormat(Map<String, String> options, String output) {
+        if(options.containsKey("format")) {
+            return ExportFormat.valueOf(required(options, "format").toUpperCase(Locale.ROOT));
+        }
+        return output.toLowerCase(Locale.ROOT).endsWith(".raw") ? ExportFormat.RAW : ExportFormat.PNG;
+    }
+
+    private static RuleSet loadRuleSet(Map<String, String> options) throws IOException {
+        if(options.containsKey("rules")) {
+            return RuleSet.read(Paths.get(options.get("rules")));
+        }
+        String vertices = required(options, "vertices");
+        String[] points = vertices.split(";");
+        double[][] coordinates = new double[points.length][];
+        for(int i = 0; i < points.length; i++) {
+            coordinates[i] = parsePoint(points[i]);
+        }
+        return RuleSet.fromVertices(coordinates);
+    }
+
+    /**
+     * Parses {@code --name value}, {@code --name=value} and, for {@code flags}, a bare {@code --name}. Anything
+     * else, such as a misspelt option, is rejected rather than ignored, so that a job never runs with defaults the
+     * caller did not ask for.
+     */
+    static Map<String, String> parseArguments(String[] args, Set<String> valueOptions, Set<String> flags) {
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if(!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String key = arg.substring(2);
+            String value = null;
+            int equals = key.indexOf('=');
+            if(equals >= 0) {
+                value = key.substring(equals + 1);
+                key = key.substring(0, equals);
+            }
+            if(flags.contains(key)) {
+                if(value != null) {
+                    throw new IllegalArgumentException("--" + key + " does not take a value");
+                }
+                options.put(key, "");
+            } else if(valueOptions.contains(key)) {
+                if(value == null && i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    value = args[++i];
+                }
+                if(value == null || value.isEmpty()) {
+                    throw new IllegalArgumentException("--" + key + " needs a value");
+                }
+                options.put(key, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Returns --iterations, which defaults to a limit that convergence should stop well short of when rendering
+     * --until-converged.
+     */
+    private static long iterationsOption(Map<String, String> options, int width, int height) {
+        long fallback = options.containsKey("until-converged") ? ConvergenceMonitor.iterationLimit(width, height)
+                : 1_000_000L;
+        return longOption(options, "iterations", fallback);
+    }
+
+    static String required(Map<String, String> options, String key) {
+        String value = options.get(key);
+        if(value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing required option --" + key);
+        }
+        return value;
+    }
+
+    static int intOption(Map<String, String> options, String key, int defaultValue) {
+        long value = longOption(options, key, defaultValue);
+        if(value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Option --" + key + " is too large");
+        }
+        return (int) value;
+    }
+
+    static long longOption(Map<String, String> options, String key, long defaultValue) {
+        String value = options.get(key);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if(parsed < 0 && !"seed".equals(key)) {
+                throw new IllegalArgumentException("Option --" + key + " must not be negative");
+            }
+            return parsed;
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + key + " is not a valid number: " + value);
+        }
+    }
+
+    static double doubleOption(Map<String, String> options, String key, double defaultValue) {
+        String value = options.get(key);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            if(!(parsed > 0.0) || Double.isInfinite(parsed)) {
+                throw new IllegalArgumentException("Option --" + key + " must be positive");
+            }
+            return parsed;
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + key + " is not a valid number: " + value);
+        }
+    }
+
+    static double[] parsePoint(String value) {
+        String[] parts = value.split(",");
+        if(parts.length != 2) {
+            throw new IllegalArgumentException("Expected a point as x,y but got: " + value);
+        }
+        try {
+            return new double[] { Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()) };
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a point as x,y but got: " + value);
+        }
+    }
+}
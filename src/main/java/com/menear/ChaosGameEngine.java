@@ -0,0 +1,213 @@
+package com.menear;
+
+class ChaosGameEngine {
+
+    private final double[] mapA;
+    private final double[] mapB;
+    private final double[] mapC;
+    private final double[] mapD;
+    private final double[] mapE;
+    private final double[] mapF;
+    private final SelectionTable selectionTable;
+    private final RandomSource random;
+    private OrbitPrefix outputMap;
+
+    private double x;
+    private double y;
+    private int previousVertex = -1;
+    private int secondPreviousVertex = -1;
+    private long randomDraws;
+
+    ChaosGameEngine(CompiledRuleSet ruleSet, RandomSource random, double startX, double startY) {
+        if(ruleSet.getVertexCount() < 2) {
+            throw new IllegalArgumentException("At least two vertices are required");
+        }
+        this.mapA = ruleSet.getMapA();
+        this.mapB = ruleSet.getMapB();
+        this.mapC = ruleSet.getMapC();
+        this.mapD = ruleSet.getMapD();
+        this.mapE = ruleSet.getMapE();
+        this.mapF = ruleSet.getMapF();
+        this.selectionTable = ruleSet.getSelectionTable();
+        this.random = random;
+        this.x = startX;
+        this.y = startY;
+    }
+
+    /**
+     * Recreates a walker from a snapshot taken by {@link #snapshot(long)} on the same rule set.
+     */
+    static ChaosGameEngine restore(CompiledRuleSet ruleSet, RandomAlgorithm algorithm, WalkerState state) {
+        int vertices = ruleSet.getVertexCount();
+        if(state.getPreviousVertex() >= vertices || state.getSecondPreviousVertex() >= vertices) {
+            throw new IllegalArgumentException("Walker history does not match the rule set");
+        }
+        ChaosGameEngine engine = new ChaosGameEngine(ruleSet, algorithm.fromState(state.getRandomState()),
+                state.getX(), state.getY());
+        engine.previousVertex = state.getPreviousVertex();
+        engine.secondPreviousVertex = state.getSecondPreviousVertex();
+        return engine;
+    }
+
+    WalkerState snapshot(long pointsDone) {
+        return new WalkerState(x, y, previousVertex, secondPreviousVertex, pointsDone, random.getState());
+    }
+
+    /**
+     * Sets the map applied to every point written by {@link #next}, e.g. to show a viewport, or null for none.
+     * The walker itself keeps moving in the rule set's own coordinates.
+     */
+    void setOutputMap(OrbitPrefix outputMap) {
+        this.outputMap = outputMap;
+    }
+
+    /**
+     * Advances the walker by {@code count} steps, writing each visited point and the vertex that produced it into
+     * the supplied arrays. No allocation happens here so callers can reuse the same batch arrays for the whole run.
+     */
+    int next(double[] xs, double[] ys, byte[] vertices, int count) {
+        SelectionTable table = selectionTable;
+        int lag = table.getLag();
+        double cx = x;
+        double cy = y;
+        int prev = previousVertex;
+        int prev2 = secondPreviousVertex;
+        for(int i = 0; i < count; i++) {
+            int vertex = table.next(random, table.rowFor(lag == 2 ? prev2 : prev));
+            double nx = mapA[vertex] * cx + mapB[vertex] * cy + mapE[vertex];
+            cy = mapC[vertex] * cx + mapD[vertex] * cy + mapF[vertex];
+            cx = nx;
+            xs[i] = cx;
+            ys[i] = cy;
+            vertices[i] = (byte) vertex;
+            prev2 = prev;
+            prev = vertex;
+        }
+        x = cx;
+        y = cy;
+        previousVertex = prev;
+        secondPreviousVertex = prev2;
+        randomDraws += count;
+        if(outputMap != null) {
+            outputMap.apply(random, xs, ys, vertices, count);
+            randomDraws += (long) outputMap.getDrawsPerPoint() * count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns how many random numbers this walker has drawn so far.
+     */
+    long getRandomDraws() {
+        return randomDraws;
+    }
+
+    double getX() {
+        return x;
+    }
+
+    double getY() {
+        return y;
+    }
+
+    /**
+     * Returns whether {@link #nextPair} can advance these two walkers together: they must share a rule set and
+     * both draw from xoshiro256**.
+     */
+    static boolean canPair(ChaosGameEngine first, ChaosGameEngine second) {
+        return first.mapA == second.mapA && first.selectionTable == second.selectionTable
+                && first.random instanceof Xoshiro256Random && second.random instanceof Xoshiro256Random;
+    }
+
+    /**
+     * Advances two walkers by {@code count} steps each in one interleaved loop, with their generator states, positions
+     * and vertex histories held in locals. The two dependency chains then overlap in the processor's pipeline
+     * instead of running back to back. Each walker visits exactly the points {@link #next} would give it.
+     */
+    static void nextPair(ChaosGameEngine first, ChaosGameEngine second, double[] xs0, double[] ys0,
+                         byte[] vertices0, double[] xs1, double[] ys1, byte[] vertices1, int count) {
+        SelectionTable table = first.selectionTable;
+        int lag = table.getLag();
+        double[] mapA = first.mapA;
+        double[] mapB = first.mapB;
+        double[] mapC = first.mapC;
+        double[] mapD = first.mapD;
+        double[] mapE = first.mapE;
+        double[] mapF = first.mapF;
+        Xoshiro256Random random0 = (Xoshiro256Random) first.random;
+        Xoshiro256Random random1 = (Xoshiro256Random) second.random;
+        long[] state0 = random0.getState();
+        long[] state1 = random1.getState();
+        long a0 = state0[0];
+        long a1 = state0[1];
+        long a2 = state0[2];
+        long a3 = state0[3];
+        long b0 = state1[0];
+        long b1 = state1[1];
+        long b2 = state1[2];
+        long b3 = state1[3];
+        double x0 = first.x;
+        double y0 = first.y;
+        double x1 = second.x;
+        double y1 = second.y;
+        int prev0 = first.previousVertex;
+        int prevPrev0 = first.secondPreviousVertex;
+        int prev1 = second.previousVertex;
+        int prevPrev1 = second.secondPreviousVertex;
+        for(int i = 0; i < count; i++) {
+            // Two steps of xoshiro256**, as in Xoshiro256Random.nextLong
+            long bits0 = Long.rotateLeft(a1 * 5, 7) * 9;
+            long t0 = a1 << 17;
+            a2 ^= a0;
+            a3 ^= a1;
+            a1 ^= a2;
+            a0 ^= a3;
+            a2 ^= t0;
+            a3 = Long.rotateLeft(a3, 45);
+            long bits1 = Long.rotateLeft(b1 * 5, 7) * 9;
+            long t1 = b1 << 17;
+            b2 ^= b0;
+            b3 ^= b1;
+            b1 ^= b2;
+            b0 ^= b3;
+            b2 ^= t1;
+            b3 = Long.rotateLeft(b3, 45);
+
+            int v0 = table.pick((bits0 >>> 11) * 0x1.0p-53, table.rowFor(lag == 2 ? prevPrev0 : prev0));
+            int v1 = table.pick((bits1 >>> 11) * 0x1.0p-53, table.rowFor(lag == 2 ? prevPrev1 : prev1));
+            double nx0 = mapA[v0] * x0 + mapB[v0] * y0 + mapE[v0];
+            y0 = mapC[v0] * x0 + mapD[v0] * y0 + mapF[v0];
+            x0 = nx0;
+            double nx1 = mapA[v1] * x1 + mapB[v1] * y1 + mapE[v1];
+            y1 = mapC[v1] * x1 + mapD[v1] * y1 + mapF[v1];
+            x1 = nx1;
+            xs0[i] = x0;
+            ys0[i] = y0;
+            vertices0[i] = (byte) v0;
+            xs1[i] = x1;
+            ys1[i] = y1;
+            vertices1[i] = (byte) v1;
+            prevPrev0 = prev0;
+            prev0 = v0;
+            prevPrev1 = prev1;
+            prev1 = v1;
+        }
+        random0.setState(a0, a1, a2, a3);
+        random1.setState(b0, b1, b2, b3);
+        first.finishPair(x0, y0, prev0, prevPrev0, xs0, ys0, vertices0, count);
+        second.finishPair(x1, y1, prev1, prevPrev1, xs1, ys1, vertices1, count);
+    }
+
+    private void finishPair(double x, double y, int prev, int prevPrev, double[] xs, double[] ys, byte[] vertices,
+                            int count) {
+        this.x = x;
+        this.y = y;
+        previousVertex = prev;
+        secondPreviousVertex = prevPrev;
+        randomDraws += count;
+        if(outputMap != null) {
+            outputMap.apply(random, xs, ys, vertices, count);
+            randomDraws += (long) outputMap.getDrawsPerPoint() * count;
+        }
+    }
+}
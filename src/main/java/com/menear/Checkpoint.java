@@ -0,0 +1,306 @@
+package com.menear;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Everything needed to continue a chaos game render exactly where it stopped: the rule set, the walkers, and the
+ * hit counts plotted so far. On-heap counts are stored inside the checkpoint together with the vertex each pixel
+ * was last hit from; a {@link MappedHistogram} is flushed and referenced by path instead, since copying it would cost
+ * as much as the render itself.
+ * <p>
+ * Checkpoints are written to a temporary file first and moved into place, so a crash while saving leaves the
+ * previous checkpoint intact.
+ */
+final class Checkpoint {
+
+    private static final long MAGIC = 0x465241434B505431L; // "FRACKPT1"
+    private static final int VERSION = 3;
+
+    private final CompiledRuleSet ruleSet;
+    private final int width;
+    private final int height;
+    private final long iterations;
+    private final long seed;
+    private final RandomAlgorithm randomAlgorithm;
+    private final Viewport viewport;
+    private final WalkerState[] walkers;
+    private final long totalPoints;
+    private final int[] counts;
+    private final byte[] vertices;
+    private final Path histogramFile;
+
+    private Checkpoint(CompiledRuleSet ruleSet, int width, int height, long iterations, long seed,
+                       RandomAlgorithm randomAlgorithm, Viewport viewport, WalkerState[] walkers, long totalPoints,
+                       int[] counts, byte[] vertices, Path histogramFile) {
+        this.ruleSet = ruleSet;
+        this.width = width;
+        this.height = height;
+        this.iterations = iterations;
+        this.seed = seed;
+        this.randomAlgorithm = randomAlgorithm;
+        this.viewport = viewport;
+        this.walkers = walkers;
+        this.totalPoints = totalPoints;
+        this.counts = counts;
+        this.vertices = vertices;
+        this.histogramFile = histogramFile;
+    }
+
+    /**
+     * Captures a render between rounds, after the walkers' buffers have been merged into {@code histogram}.
+     *
+     * @param viewport      the view {@code histogram} shows, in the coordinates of {@code ruleSet}
+     * @param histogramFile the file backing {@code histogram} if it is a {@link MappedHistogram}, otherwise null
+     */
+    static Checkpoint capture(ParallelChaosGame game, CompiledRuleSet ruleSet, long seed,
+                              RandomAlgorithm randomAlgorithm, Viewport viewport, HitBuffer histogram,
+                              Path histogramFile) {
+        int[] counts = null;
+        byte[] vertices = null;
+        if(histogram instanceof MappedHistogram) {
+            if(histogramFile == null) {
+                throw new IllegalArgumentException("A mapped histogram needs its file to be checkpointed");
+            }
+            ((MappedHistogram) histogram).flush();
+        } else if(histogram instanceof DensityHistogram) {
+            counts = ((DensityHistogram) histogram).copyCounts();
+            vertices = ((DensityHistogram) histogram).copyVertices();
+            histogramFile = null;
+        } else {
+            throw new IllegalArgumentException("Cannot checkpoint " + histogram.getClass().getSimpleName());
+        }
+        return new Checkpoint(ruleSet, histogram.getWidth(), histogram.getHeight(), game.getIterations(), seed,
+                randomAlgorithm, viewport, game.snapshotWalkers(), histogram.getTotalPoints(), counts,
+                vertices, histogramFile != null ? histogramFile.toAbsolutePath() : null);
+    }
+
+    void write(Path path) throws IOException {
+        Path target = path.toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try(OutputStream file = Files.newOutputStream(temp)) {
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeLong(MAGIC);
+            header.writeInt(VERSION);
+            header.flush();
+
+            DeflaterOutputStream deflated = new DeflaterOutputStream(file, deflater, 1 << 16);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(deflated, 1 << 16));
+            writeString(out, RuleSet.fromCompiled(null, ruleSet, width, height).toJson());
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeLong(iterations);
+            out.writeLong(seed);
+            out.writeUTF(randomAlgorithm.name());
+            out.writeDouble(viewport.getScale());
+            out.writeDouble(viewport.getOriginX());
+            out.writeDouble(viewport.getOriginY());
+            out.writeInt(walkers.length);
+            for(WalkerState walker : walkers) {
+                walker.write(out);
+            }
+            out.writeLong(totalPoints);
+            if(counts != null) {
+                out.writeBoolean(false);
+                for(int count : counts) {
+                    out.writeInt(count);
+                }
+                out.write(vertices);
+            } else {
+                out.writeBoolean(true);
+                writeString(out, relativeHistogramPath(target));
+            }
+            out.flush();
+            deflated.finish();
+        } catch(IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static Checkpoint read(Path path) throws IOException {
+        try(InputStream file = new BufferedInputStream(Files.newInputStream(path))) {
+            DataInputStream header = new DataInputStream(file);
+            if(header.readLong() != MAGIC) {
+                throw new IOException("Not a checkpoint file: " + path);
+            }
+            int version = header.readInt();
+            if(version < 1 || version > VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + path);
+            }
+
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(file),
+                    1 << 16))) {
+                RuleSet ruleSetJson = RuleSet.fromJson(readString(in));
+                int width = in.readInt();
+                int height = in.readInt();
+                if(width < 1 || height < 1) {
+                    throw new IOException("Invalid checkpoint dimensions " + width + "x" + height);
+                }
+                long iterations = in.readLong();
+                long seed = in.readLong();
+                RandomAlgorithm randomAlgorithm = RandomAlgorithm.valueOf(in.readUTF());
+                Viewport viewport = version >= 2 ? new Viewport(in.readDouble(), in.readDouble(), in.readDouble())
+                        : Viewport.IDENTITY;
+                int walkerCount = in.readInt();
+                if(walkerCount < 1 || walkerCount > 1 << 16) {
+                    throw new IOException("Invalid walker count " + walkerCount);
+                }
+                WalkerState[] walkers = new WalkerState[walkerCount];
+                for(int i = 0; i < walkerCount; i++) {
+                    walkers[i] = WalkerState.read(in);
+                }
+                long totalPoints = in.readLong();
+
+                int[] counts = null;
+                byte[] vertices = null;
+                Path histogramFile = null;
+                if(in.readBoolean()) {
+                    histogramFile = path.toAbsolutePath().resolveSibling(readString(in));
+                } else {
+                    if(version < 3) {
+                        throw new IOException("Checkpoint version " + version + " does not store the vertex of each "
+                                + "pixel and cannot be resumed; start the render again: " + path);
+                    }
+                    if(OffscreenRender.needsMappedHistogram(width, height)) {
+                        throw new IOException("Checkpoint histogram is too large: " + width + "x" + height);
+                    }
+                    counts = new int[width * height];
+                    for(int i = 0; i < counts.length; i++) {
+                        counts[i] = in.readInt();
+                    }
+                    vertices = new byte[width * height];
+                    in.readFully(vertices);
+                }
+
+                CompiledRuleSet ruleSet;
+                try {
+                    ruleSet = ruleSetJson.compile(width, height);
+                } catch(IllegalArgumentException e) {
+                    throw new IOException("Invalid rule set in checkpoint: " + e.getMessage(), e);
+                }
+                return new Checkpoint(ruleSet, width, height, iterations, seed, randomAlgorithm, viewport, walkers,
+                        totalPoints, counts, vertices, histogramFile);
+            }
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Invalid checkpoint file " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stores the histogram file relative to the checkpoint when possible, so the pair can be moved together.
+     */
+    private String relativeHistogramPath(Path checkpointFile) {
+        Path directory = checkpointFile.getParent();
+        if(directory != null && histogramFile.startsWith(directory)) {
+            return directory.relativize(histogramFile).toString();
+        }
+        return histogramFile.toString();
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if(length < 0 || length > 1 << 26) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    CompiledRuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    long getIterations() {
+        return iterations;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    RandomAlgorithm getRandomAlgorithm() {
+        return randomAlgorithm;
+    }
+
+    Viewport getViewport() {
+        return viewport;
+    }
+
+    WalkerState[] getWalkers() {
+        return walkers.clone();
+    }
+
+    int getWorkerCount() {
+        return walkers.length;
+    }
+
+    long getTotalPoints() {
+        return totalPoints;
+    }
+
+    /**
+     * Returns the saved hit counts, or null if they live in {@link #getHistogramFile()}.
+     */
+    int[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * Returns the vertex each pixel was last hit from, or null if the counts live in {@link #getHistogramFile()}.
+     */
+    byte[] getVertices() {
+        return vertices;
+    }
+
+    Path getHistogramFile() {
+        return histogramFile;
+    }
+
+    long getPointsDone() {
+        long done = 0;
+        for(WalkerState walker : walkers) {
+            done += walker.getPointsDone();
+        }
+        return done;
+    }
+}
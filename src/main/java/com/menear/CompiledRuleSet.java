@@ -0,0 +1,280 @@
+package com.menear;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, flat-array form of a rule set: one affine map (x, y) -> (ax + by + e, cx + dy + f) per vertex plus
+ * the compiled vertex selection table.
+ */
+final class CompiledRuleSet {
+
+    /**
+     * Histograms record the vertex that last hit each pixel in a byte, so more vertices could not be told apart.
+     */
+    static final int MAX_VERTICES = 256;
+
+    private final double[] vertexX;
+    private final double[] vertexY;
+    private final double[] mapA;
+    private final double[] mapB;
+    private final double[] mapC;
+    private final double[] mapD;
+    private final double[] mapE;
+    private final double[] mapF;
+    private final double[] weights;
+    private final VertexSelectionRule selectionRule;
+    private final double[][] transitions;
+    private final SelectionTable selectionTable;
+
+    CompiledRuleSet(double[] vertexX, double[] vertexY, double[][] matrices, double[] weights,
+                    VertexSelectionRule selectionRule, double[][] transitions) {
+        int n = vertexX.length;
+        if(vertexY.length != n || matrices.length != n) {
+            throw new IllegalArgumentException("Vertices and maps must have the same length");
+        }
+        if(n > MAX_VERTICES) {
+            throw new IllegalArgumentException("A rule set can have at most " + MAX_VERTICES + " vertices");
+        }
+        this.vertexX = vertexX.clone();
+        this.vertexY = vertexY.clone();
+        mapA = new double[n];
+        mapB = new double[n];
+        mapC = new double[n];
+        mapD = new double[n];
+        mapE = new double[n];
+        mapF = new double[n];
+        for(int i = 0; i < n; i++) {
+            mapA[i] = matrices[i][0];
+            mapB[i] = matrices[i][1];
+            mapC[i] = matrices[i][2];
+            mapD[i] = matrices[i][3];
+            mapE[i] = matrices[i][4];
+            mapF[i] = matrices[i][5];
+        }
+        this.weights = weights != null ? weights.clone() : null;
+        this.selectionRule = selectionRule;
+        this.transitions = transitions != null ? copy(transitions) : null;
+
+        double[] tableWeights = weights;
+        if(tableWeights == null) {
+            tableWeights = new double[n];
+            Arrays.fill(tableWeights, 1.0);
+        }
+        this.selectionTable = SelectionTable.compile(selectionRule, tableWeights, this.transitions);
+    }
+
+    /**
+     * The classic chaos game: every vertex moves the walker {@link RuleSet#DEFAULT_RATIO} of the way to it.
+     */
+    static CompiledRuleSet midpoint(double[] vertexX, double[] vertexY, VertexSelectionRule selectionRule) {
+        double[][] matrices = new double[vertexX.length][];
+        for(int i = 0; i < vertexX.length; i++) {
+            matrices[i] = contraction(vertexX[i], vertexY[i], RuleSet.DEFAULT_RATIO, 0.0, 0.0, 0.0);
+        }
+        return new CompiledRuleSet(vertexX, vertexY, matrices, null, selectionRule, null);
+    }
+
+    /**
+     * A regular polygon with {@code vertices} corners inscribed in a {@code width} x {@code height} raster, every
+     * vertex contracting by {@code ratio}.
+     */
+    static CompiledRuleSet regularPolygon(int vertices, double width, double height, double ratio,
+                                          VertexSelectionRule selectionRule) {
+        if(vertices < 3) {
+            throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+        }
+        double radius = 0.45 * Math.min(width, height);
+        double[] vertexX = new double[vertices];
+        double[] vertexY = new double[vertices];
+        double[][] matrices = new double[vertices][];
+        for(int i = 0; i < vertices; i++) {
+            // Start at the top so that odd polygons stand on a side
+            double angle = -Math.PI / 2.0 + 2.0 * Math.PI * i / vertices;
+            vertexX[i] = width / 2.0 + radius * Math.cos(angle);
+            vertexY[i] = height / 2.0 + radius * Math.sin(angle);
+            matrices[i] = contraction(vertexX[i], vertexY[i], ratio, 0.0, 0.0, 0.0);
+        }
+        return new CompiledRuleSet(vertexX, vertexY, matrices, null, selectionRule, null);
+    }
+
+    /**
+     * Blends two rule sets with the same number of vertices: {@code t} = 0 gives {@code from}, 1 gives {@code to}.
+     * Vertices, map coefficients and weights are interpolated linearly; the selection rule is that of {@code from}.
+     */
+    static CompiledRuleSet interpolate(CompiledRuleSet from, CompiledRuleSet to, double t) {
+        int n = from.getVertexCount();
+        if(to.getVertexCount() != n) {
+            throw new IllegalArgumentException("Cannot interpolate between " + n + " and " + to.getVertexCount()
+                    + " vertices");
+        }
+        double[] vertexX = new double[n];
+        double[] vertexY = new double[n];
+        double[][] matrices = new double[n][6];
+        for(int i = 0; i < n; i++) {
+            vertexX[i] = lerp(from.vertexX[i], to.vertexX[i], t);
+            vertexY[i] = lerp(from.vertexY[i], to.vertexY[i], t);
+            double[] a = from.getMatrix(i);
+            double[] b = to.getMatrix(i);
+            for(int j = 0; j < 6; j++) {
+                matrices[i][j] = lerp(a[j], b[j], t);
+            }
+        }
+        double[] weights = null;
+        if(from.weights != null || to.weights != null) {
+            weights = new double[n];
+            for(int i = 0; i < n; i++) {
+                weights[i] = lerp(from.weights != null ? from.weights[i] : 1.0,
+                        to.weights != null ? to.weights[i] : 1.0, t);
+            }
+        }
+        double[][] transitions = from.transitions;
+        if(transitions != null && to.transitions != null) {
+            transitions = new double[n][n];
+            for(int i = 0; i < n; i++) {
+                for(int j = 0; j < n; j++) {
+                    transitions[i][j] = lerp(from.transitions[i][j], to.transitions[i][j], t);
+                }
+            }
+        }
+        return new CompiledRuleSet(vertexX, vertexY, matrices, weights, from.selectionRule, transitions);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    /**
+     * Returns the map p -> v + ratio * R(rotation) * (p - v) + t as a matrix [a, b, c, d, e, f].
+     */
+    static double[] contraction(double vx, double vy, double ratio, double rotation, double tx, double ty) {
+        double cos = Math.cos(rotation) * ratio;
+        double sin = Math.sin(rotation) * ratio;
+        return new double[] {
+                cos, -sin, sin, cos,
+                vx - (cos * vx - sin * vy) + tx,
+                vy - (sin * vx + cos * vy) + ty
+        };
+    }
+
+    static double[] fixedPoint(double[] m) {
+        double det = (1.0 - m[0]) * (1.0 - m[3]) - m[1] * m[2];
+        if(Math.abs(det) < 1e-12) {
+            return new double[] {m[4], m[5]};
+        }
+        return new double[] {
+                ((1.0 - m[3]) * m[4] + m[1] * m[5]) / det,
+                (m[2] * m[4] + (1.0 - m[0]) * m[5]) / det
+        };
+    }
+
+    /**
+     * Returns this rule set expressed in the coordinates q = (sx * x + ox, sy * y + oy). Each map is conjugated
+     * by that transform so the attractor is mapped exactly.
+     */
+    CompiledRuleSet transformed(double sx, double sy, double ox, double oy) {
+        int n = vertexX.length;
+        double[] newX = new double[n];
+        double[] newY = new double[n];
+        double[][] matrices = new double[n][];
+        for(int i = 0; i < n; i++) {
+            newX[i] = sx * vertexX[i] + ox;
+            newY[i] = sy * vertexY[i] + oy;
+            double a = mapA[i];
+            double b = mapB[i] * sx / sy;
+            double c = mapC[i] * sy / sx;
+            double d = mapD[i];
+            matrices[i] = new double[] {
+                    a, b, c, d,
+                    sx * mapE[i] + ox - a * ox - b * oy,
+                    sy * mapF[i] + oy - c * ox - d * oy
+            };
+        }
+        return new CompiledRuleSet(newX, newY, matrices, weights, selectionRule, transitions);
+    }
+
+    /**
+     * Returns this rule set with every map replaced by a plain contraction towards its vertex by {@code ratio}.
+     */
+    CompiledRuleSet withRatio(double ratio) {
+        double[][] matrices = new double[vertexX.length][];
+        for(int i = 0; i < vertexX.length; i++) {
+            matrices[i] = contraction(vertexX[i], vertexY[i], ratio, 0.0, 0.0, 0.0);
+        }
+        return new CompiledRuleSet(vertexX, vertexY, matrices, weights, selectionRule, transitions);
+    }
+
+    CompiledRuleSet withSelectionRule(VertexSelectionRule rule) {
+        if(rule == selectionRule) {
+            return this;
+        }
+        double[][] matrices = new double[vertexX.length][];
+        for(int i = 0; i < vertexX.length; i++) {
+            matrices[i] = getMatrix(i);
+        }
+        return new CompiledRuleSet(vertexX, vertexY, matrices, weights, rule, transitions);
+    }
+
+    int getVertexCount() {
+        return vertexX.length;
+    }
+
+    double getVertexX(int i) {
+        return vertexX[i];
+    }
+
+    double getVertexY(int i) {
+        return vertexY[i];
+    }
+
+    double[] getMatrix(int i) {
+        return new double[] {mapA[i], mapB[i], mapC[i], mapD[i], mapE[i], mapF[i]};
+    }
+
+    double[] getMapA() {
+        return mapA;
+    }
+
+    double[] getMapB() {
+        return mapB;
+    }
+
+    double[] getMapC() {
+        return mapC;
+    }
+
+    double[] getMapD() {
+        return mapD;
+    }
+
+    double[] getMapE() {
+        return mapE;
+    }
+
+    double[] getMapF() {
+        return mapF;
+    }
+
+    double[] getProbabilities() {
+        return weights != null ? weights.clone() : null;
+    }
+
+    VertexSelectionRule getSelectionRule() {
+        return selectionRule;
+    }
+
+    double[][] getTransitions() {
+        return transitions != null ? copy(transitions) : null;
+    }
+
+    SelectionTable getSelectionTable() {
+        return selectionTable;
+    }
+
+    private static double[][] copy(double[][] values) {
+        double[][] result = new double[values.length][];
+        for(int i = 0; i < values.length; i++) {
+            result[i] = values[i].clone();
+        }
+        return result;
+    }
+}
@@ -1,7 +1,6 @@
 package com.menear;
 
 import javafx.beans.property.ReadOnlyIntegerProperty;
-import javafx.beans.property.SimpleDoubleProperty;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -13,31 +12,72 @@ import javafx.scene.layout.VBox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.SplittableRandom;
+
 
 class ControlPanel extends VBox {
 
     private static final Logger LOG = LoggerFactory.getLogger(ControlPanel.class);
 
+    /**
+     * The speed slider runs from 10^0 to 10^7 points per second.
+     */
+    private static final double MAX_SPEED_EXPONENT = 7.0;
+
     private Button btnAction = new Button();
 
     private Label lblIterations = new Label("Iterations: ");
     private TextField txtIterations = new TextField("20000");
-    private HBox hbIterations = new HBox(lblIterations, txtIterations);
-    private int iterations = 20000;
-
-    private Label lblDelay = new Label("Delay (ms): ");
-    private Slider sldrDelay = new Slider(0.0, 10.0, 1.0);
-    private HBox hbDelay = new HBox(lblDelay, sldrDelay);
-    private SimpleDoubleProperty delayValue = new SimpleDoubleProperty();
+    private CheckBox chkUntilConverged = new CheckBox("Until converged");
+    private HBox hbIterations = new HBox(lblIterations, txtIterations, chkUntilConverged);
+    private long iterations = 20000;
+
+    private Label lblSpeed = new Label("Speed: ");
+    private Slider sldrSpeed = new Slider(0.0, MAX_SPEED_EXPONENT, 4.0);
+    private Label lblSpeedValue = new Label();
+    private CheckBox chkMaxSpeed = new CheckBox("Max");
+    private HBox hbSpeed = new HBox(lblSpeed, sldrSpeed, lblSpeedValue, chkMaxSpeed);
+    private volatile double pointsPerSecond;
+
+    private Label lblWorkers = new Label("Threads: ");
+    private Spinner<Integer> spnWorkers = new Spinner<>(1, Math.max(64, Runtime.getRuntime().availableProcessors()),
+            Runtime.getRuntime().availableProcessors());
+    private HBox hbWorkers = new HBox(lblWorkers, spnWorkers);
 
     private HBox hbMainControls = new HBox(btnAction, new Separator(Orientation.VERTICAL), hbIterations,
-            new Separator(Orientation.VERTICAL), hbDelay);
+            new Separator(Orientation.VERTICAL), hbSpeed, new Separator(Orientation.VERTICAL), hbWorkers);
 
     private Label lblVertexRule = new Label("Vertex Selection Restriction:");
     private ComboBox<String> cmbVertexRule = new ComboBox<>();
     private ReadOnlyIntegerProperty selectedVertexRule = cmbVertexRule.getSelectionModel().selectedIndexProperty();
 
-    private HBox hbVertexRule = new HBox(lblVertexRule, cmbVertexRule);
+    private Label lblSeed = new Label("Seed: ");
+    private TextField txtSeed = new TextField();
+    private Label lblSeedUsed = new Label();
+    private long seed;
+
+    private Label lblRandomAlgorithm = new Label("Generator: ");
+    private ComboBox<String> cmbRandomAlgorithm = new ComboBox<>();
+
+    private Label lblEngine = new Label("Engine: ");
+    private ComboBox<String> cmbEngine = new ComboBox<>();
+
+    private HBox hbVertexRule = new HBox(lblVertexRule, cmbVertexRule, new Separator(Orientation.VERTICAL), lblEngine,
+            cmbEngine);
+
+    private HBox hbRandom = new HBox(lblSeed, txtSeed, lblSeedUsed, new Separator(Orientation.VERTICAL),
+            lblRandomAlgorithm, cmbRandomAlgorithm);
+
+    private Label lblToneCurve = new Label("Tone: ");
+    private ComboBox<String> cmbToneCurve = new ComboBox<>();
+    private Label lblGamma = new Label("Gamma: ");
+    private Slider sldrGamma = new Slider(0.5, 4.0, ToneMapper.DEFAULT_GAMMA);
+    private Label lblGammaValue = new Label();
+    private Label lblPalette = new Label("Palette: ");
+    private ComboBox<String> cmbPalette = new ComboBox<>();
+
+    private HBox hbToneMapping = new HBox(lblToneCurve, cmbToneCurve, new Separator(Orientation.VERTICAL), lblGamma,
+            sldrGamma, lblGammaValue, new Separator(Orientation.VERTICAL), lblPalette, cmbPalette);
 
     private EventHandler<ActionEvent> handleStart = event -> {
         if(parseNumericFields()) {
@@ -45,7 +85,11 @@ class ControlPanel extends VBox {
             setActionButtonDisabled(true);
             setIterationControlsDisabled(true);
             Fractals.getMainMenu().disableCanvasSizeSelection();
-            Fractals.getFractalCanvas().beginStartPointSelection();
+            if(getRenderEngine() == RenderEngine.RECURSIVE) {
+                Fractals.getFractalCanvas().drawRecursive();
+            } else {
+                Fractals.getFractalCanvas().beginStartPointSelection();
+            }
         }
     };
 
@@ -58,22 +102,35 @@ class ControlPanel extends VBox {
     };
 
     private EventHandler<ActionEvent> handleSelectVertexRule = event -> {
-        LOG.info(String.valueOf(cmbVertexRule.getSelectionModel().getSelectedIndex()));
+        LOG.debug("Vertex selection rule set to " + getVertexSelectionRule());
+        if(Fractals.getFractalCanvas() != null) {
+            Fractals.getFractalCanvas().updatePreview();
+        }
     };
 
+    private EventHandler<ActionEvent> handleToneMapping = event -> updateToneMapping();
+
     ControlPanel() {
         hbIterations.setSpacing(3.0);
         hbIterations.setAlignment(Pos.CENTER);
         txtIterations.setPrefColumnCount(4);
-
-        hbDelay.setSpacing(3.0);
-        hbDelay.setAlignment(Pos.CENTER);
-        sldrDelay.setShowTickMarks(true);
-        sldrDelay.setShowTickLabels(true);
-        sldrDelay.setSnapToTicks(true);
-        sldrDelay.setMajorTickUnit(1.0);
-        sldrDelay.setMinorTickCount(0);
-        delayValue.bind(sldrDelay.valueProperty());
+        chkUntilConverged.setOnAction(event -> txtIterations.setDisable(chkUntilConverged.isSelected()));
+
+        hbSpeed.setSpacing(3.0);
+        hbSpeed.setAlignment(Pos.CENTER);
+        sldrSpeed.setShowTickMarks(true);
+        sldrSpeed.setMajorTickUnit(1.0);
+        sldrSpeed.setMinorTickCount(0);
+        sldrSpeed.setPrefWidth(120.0);
+        lblSpeedValue.setMinWidth(70.0);
+        chkMaxSpeed.setSelected(false);
+        sldrSpeed.valueProperty().addListener((observable, oldValue, newValue) -> updateSpeed());
+        chkMaxSpeed.setOnAction(event -> updateSpeed());
+        updateSpeed();
+
+        hbWorkers.setSpacing(3.0);
+        hbWorkers.setAlignment(Pos.CENTER);
+        spnWorkers.setPrefWidth(70.0);
 
         hbMainControls.setSpacing(3.0);
         hbMainControls.setAlignment(Pos.CENTER);
@@ -81,38 +138,154 @@ class ControlPanel extends VBox {
         cmbVertexRule.setOnAction(handleSelectVertexRule);
         cmbVertexRule.getItems().add("Any vertex can be chosen");
         cmbVertexRule.getItems().add("Previous vertex cannot be chosen");
+        cmbVertexRule.getItems().add("Neighbors of previous vertex cannot be chosen");
+        cmbVertexRule.getItems().add("Vertex chosen two steps back cannot be chosen");
+        cmbVertexRule.getItems().add("Custom transition matrix (from rule set)");
         cmbVertexRule.getSelectionModel().select(0);
 
+        txtSeed.setPromptText("random");
+        txtSeed.setPrefColumnCount(8);
+        for(RandomAlgorithm algorithm : RandomAlgorithm.values()) {
+            cmbRandomAlgorithm.getItems().add(algorithm.getDisplayName());
+        }
+        cmbRandomAlgorithm.getSelectionModel().select(0);
+        for(RenderEngine engine : RenderEngine.values()) {
+            cmbEngine.getItems().add(engine.getDisplayName());
+        }
+        cmbEngine.getSelectionModel().select(0);
+
         hbVertexRule.setSpacing(3.0);
         hbVertexRule.setAlignment(Pos.CENTER);
 
+        hbRandom.setSpacing(3.0);
+        hbRandom.setAlignment(Pos.CENTER);
+
+        for(ToneCurve curve : ToneCurve.values()) {
+            cmbToneCurve.getItems().add(curve.getDisplayName());
+        }
+        cmbToneCurve.getSelectionModel().select(ToneCurve.LOG.ordinal());
+        for(Palette palette : Palette.values()) {
+            cmbPalette.getItems().add(palette.getDisplayName());
+        }
+        cmbPalette.getSelectionModel().select(0);
+        sldrGamma.setPrefWidth(120.0);
+        updateGammaControls();
+        // Registered after the initial selection, since the canvas does not exist yet
+        cmbToneCurve.setOnAction(handleToneMapping);
+        cmbPalette.setOnAction(handleToneMapping);
+        sldrGamma.valueProperty().addListener((observable, oldValue, newValue) -> updateToneMapping());
+
+        hbToneMapping.setSpacing(3.0);
+        hbToneMapping.setAlignment(Pos.CENTER);
+
         setPadding(new Insets(5.0, 10.0, 5.0, 10.0));
         setSpacing(8.0);
         setAlignment(Pos.CENTER);
-        getChildren().addAll(hbMainControls, hbVertexRule);
+        getChildren().addAll(hbMainControls, hbVertexRule, hbRandom, hbToneMapping);
 
         actionButtonStart();
     }
 
-    int getIterations() {
+    long getIterations() {
         return iterations;
     }
 
-    int getDelay() {
-        return (int) delayValue.get();
+    /**
+     * Returns whether to draw until the image converges rather than for a fixed number of iterations.
+     */
+    boolean isUntilConverged() {
+        return chkUntilConverged.isSelected();
     }
 
-    VertexSelectionRule getVertexSelectionRule() {
-        switch(selectedVertexRule.get()) {
-            case 1:
-                return VertexSelectionRule.DIFFERENT_THAN_PREVIOUS;
-            default:
-                return VertexSelectionRule.NO_RESTRICTION;
+    /**
+     * Returns the target drawing speed, or 0 to draw as fast as possible. Safe to call from any thread.
+     */
+    double getPointsPerSecond() {
+        return pointsPerSecond;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    RandomAlgorithm getRandomAlgorithm() {
+        return RandomAlgorithm.values()[Math.max(0, cmbRandomAlgorithm.getSelectionModel().getSelectedIndex())];
+    }
+
+    RenderEngine getRenderEngine() {
+        return RenderEngine.values()[Math.max(0, cmbEngine.getSelectionModel().getSelectedIndex())];
+    }
+
+    int getWorkerCount() {
+        return spnWorkers.getValue();
+    }
+
+    ToneMapper getToneMapper() {
+        return new ToneMapper(getToneCurve(), sldrGamma.getValue(),
+                Palette.values()[Math.max(0, cmbPalette.getSelectionModel().getSelectedIndex())]);
+    }
+
+    private ToneCurve getToneCurve() {
+        return ToneCurve.values()[Math.max(0, cmbToneCurve.getSelectionModel().getSelectedIndex())];
+    }
+
+    private void updateToneMapping() {
+        updateGammaControls();
+        Fractals.getFractalCanvas().setToneMapper(getToneMapper());
+    }
+
+    private void updateSpeed() {
+        double speed = Math.pow(10.0, sldrSpeed.getValue());
+        sldrSpeed.setDisable(chkMaxSpeed.isSelected());
+        lblSpeedValue.setText(speed >= 1e6 ? String.format("%.1fM pts/s", speed / 1e6)
+                : speed >= 1e3 ? String.format("%.1fk pts/s", speed / 1e3) : String.format("%.0f pts/s", speed));
+        pointsPerSecond = chkMaxSpeed.isSelected() ? 0.0 : speed;
+    }
+
+    private void updateGammaControls() {
+        lblGammaValue.setText(String.format("%.2f", sldrGamma.getValue()));
+        sldrGamma.setDisable(getToneCurve() != ToneCurve.GAMMA);
+    }
+
+    /**
+     * Takes the seed, generator and thread count from {@code checkpoint} and continues it on the canvas. A higher
+     * iteration count in the text field extends the run.
+     */
+    void resumeFrom(Checkpoint checkpoint) {
+        if(!parseNumericFields()) {
+            return;
         }
+        iterations = Math.max(iterations, checkpoint.getIterations() + 1);
+        txtIterations.setText(String.valueOf(iterations));
+        seed = checkpoint.getSeed();
+        txtSeed.setText(String.valueOf(seed));
+        lblSeedUsed.setText("(" + seed + ")");
+        cmbRandomAlgorithm.getSelectionModel().select(checkpoint.getRandomAlgorithm().ordinal());
+        cmbEngine.getSelectionModel().select(RenderEngine.CHAOS_GAME.ordinal());
+        spnWorkers.getValueFactory().setValue(checkpoint.getWorkerCount());
+        setVertexSelectionRule(checkpoint.getRuleSet().getSelectionRule());
+
+        Fractals.getFractalCanvas().resumeFrom(checkpoint);
+        setIterationControlsDisabled(true);
+        Fractals.getMainMenu().disableCanvasSizeSelection();
+    }
+
+    VertexSelectionRule getVertexSelectionRule() {
+        // Combo box entries are listed in the same order as the enum constants
+        return VertexSelectionRule.values()[Math.max(0, selectedVertexRule.get())];
+    }
+
+    void setVertexSelectionRule(VertexSelectionRule rule) {
+        cmbVertexRule.getSelectionModel().select(rule.ordinal());
     }
 
     void setIterationControlsDisabled(boolean val) {
-        txtIterations.setDisable(val);
+        txtIterations.setDisable(val || chkUntilConverged.isSelected());
+        chkUntilConverged.setDisable(val);
+        spnWorkers.setDisable(val);
+        txtSeed.setDisable(val);
+        cmbRandomAlgorithm.setDisable(val);
+        cmbEngine.setDisable(val);
     }
 
     void setActionButtonDisabled(boolean val) {
@@ -142,13 +315,29 @@ class ControlPanel extends VBox {
 
     private boolean parseNumericFields() {
         try {
-            iterations = Integer.parseInt(txtIterations.getText());
+            iterations = Long.parseLong(txtIterations.getText().trim());
+            if(iterations < 1) {
+                throw new NumberFormatException("Iterations must be positive");
+            }
             txtIterations.setText(String.valueOf(iterations));
         } catch(NumberFormatException e) {
             showInvalidNumberMessage(txtIterations.getText());
             return false;
         }
 
+        String seedText = txtSeed.getText().trim();
+        if(seedText.isEmpty()) {
+            seed = new SplittableRandom().nextLong();
+        } else {
+            try {
+                seed = Long.parseLong(seedText);
+            } catch(NumberFormatException e) {
+                showInvalidNumberMessage(seedText);
+                return false;
+            }
+        }
+        lblSeedUsed.setText("(" + seed + ")");
+
         return true;
     }
 
@@ -0,0 +1,162 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when a render has stopped changing. At checkpoints spaced geometrically in the number of points plotted,
+ * it reads the histogram once and compares it with the previous checkpoint: how many pixels lit up for the first
+ * time, relative to the lit area, and how far the density moved, as the L1 distance between the normalized counts
+ * of a coarse grid of cells. Once both fall below their thresholds the render is converged.
+ * <p>
+ * Reading the histogram costs about as much as plotting one point per pixel. The first checkpoint comes after at
+ * least one point per pixel and each later one after twice as many points, so checking adds little to a render.
+ */
+final class ConvergenceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConvergenceMonitor.class);
+
+    static final double DEFAULT_COVERAGE_THRESHOLD = 0.002;
+    static final double DEFAULT_DENSITY_THRESHOLD = 0.02;
+
+    /**
+     * Renders that run until converged stop at this many points per pixel regardless. Typical rule sets converge
+     * after 20 to 200.
+     */
+    static final long MAX_POINTS_PER_PIXEL = 1000;
+
+    private static final long MIN_FIRST_CHECKPOINT = 1L << 20;
+    private static final int MAX_GRID_CELLS = 256;
+
+    private final HitBuffer histogram;
+    private final int cellsX;
+    private final int cellsY;
+    private final int[] cellOfColumn;
+    private final double coverageThreshold;
+    private final double densityThreshold;
+
+    private long nextCheckpoint;
+    private long[] previousCells;
+    private long previousLitPixels;
+    private double coverageGrowth = Double.NaN;
+    private double densityChange = Double.NaN;
+    private long convergedAt = -1;
+
+    ConvergenceMonitor(HitBuffer histogram) {
+        this(histogram, DEFAULT_COVERAGE_THRESHOLD, DEFAULT_DENSITY_THRESHOLD);
+    }
+
+    /**
+     * @param coverageThreshold the largest fraction of newly lit pixels between checkpoints, relative to the lit
+     *                          pixels at the earlier one
+     * @param densityThreshold  the largest L1 distance between the normalized cell densities of two checkpoints,
+     *                          from 0 for no change to 2 for no overlap at all
+     */
+    ConvergenceMonitor(HitBuffer histogram, double coverageThreshold, double densityThreshold) {
+        this.histogram = histogram;
+        this.coverageThreshold = coverageThreshold;
+        this.densityThreshold = densityThreshold;
+        int width = histogram.getWidth();
+        int height = histogram.getHeight();
+        cellsX = Math.min(MAX_GRID_CELLS, width);
+        cellsY = Math.min(MAX_GRID_CELLS, height);
+        cellOfColumn = new int[width];
+        for(int x = 0; x < width; x++) {
+            cellOfColumn[x] = (int) ((long) x * cellsX / width);
+        }
+        nextCheckpoint = Math.max(MIN_FIRST_CHECKPOINT, (long) width * height);
+    }
+
+    /**
+     * Returns the iteration limit of a {@code width} x {@code height} render that runs until converged.
+     */
+    static long iterationLimit(int width, int height) {
+        return Math.max(MIN_FIRST_CHECKPOINT * 4, MAX_POINTS_PER_PIXEL * width * height);
+    }
+
+    /**
+     * Checks for convergence if the histogram has passed the next checkpoint. Call between rounds, once the points
+     * are merged into the histogram.
+     *
+     * @return whether the render has converged
+     */
+    boolean update() {
+        if(convergedAt >= 0) {
+            return true;
+        }
+        long total = histogram.getTotalPoints();
+        if(total < nextCheckpoint) {
+            return false;
+        }
+        while(nextCheckpoint <= total) {
+            nextCheckpoint *= 2;
+        }
+
+        int width = histogram.getWidth();
+        int height = histogram.getHeight();
+        long[] cells = new long[cellsX * cellsY];
+        long litPixels = 0;
+        int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            histogram.readRow(y, row);
+            int cellRow = (int) ((long) y * cellsY / height) * cellsX;
+            for(int x = 0; x < width; x++) {
+                int count = row[x];
+                if(count != 0) {
+                    litPixels++;
+                    cells[cellRow + cellOfColumn[x]] += count;
+                }
+            }
+        }
+
+        if(previousCells != null) {
+            coverageGrowth = previousLitPixels > 0 ? (double) (litPixels - previousLitPixels) / previousLitPixels
+                    : Double.POSITIVE_INFINITY;
+            densityChange = distance(previousCells, cells);
+            LOG.debug("{} points: {} new pixels, density moved by {}", total, coverageGrowth, densityChange);
+            if(coverageGrowth <= coverageThreshold && densityChange <= densityThreshold) {
+                convergedAt = total;
+                LOG.info("Converged after {} points", total);
+            }
+        }
+        previousCells = cells;
+        previousLitPixels = litPixels;
+        return convergedAt >= 0;
+    }
+
+    private static double distance(long[] previous, long[] current) {
+        double previousTotal = 0;
+        double currentTotal = 0;
+        for(int i = 0; i < current.length; i++) {
+            previousTotal += previous[i];
+            currentTotal += current[i];
+        }
+        if(previousTotal == 0 || currentTotal == 0) {
+            return previousTotal == currentTotal ? 0.0 : 2.0;
+        }
+        double distance = 0;
+        for(int i = 0; i < current.length; i++) {
+            distance += Math.abs(current[i] / currentTotal - previous[i] / previousTotal);
+        }
+        return distance;
+    }
+
+    boolean isConverged() {
+        return convergedAt >= 0;
+    }
+
+    /**
+     * Returns the number of points at the checkpoint that found the render converged, or -1 if it has not.
+     */
+    long getConvergedAt() {
+        return convergedAt;
+    }
+
+    double getCoverageGrowth() {
+        return coverageGrowth;
+    }
+
+    double getDensityChange() {
+        return densityChange;
+    }
+}
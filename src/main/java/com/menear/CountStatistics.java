@@ -0,0 +1,96 @@
+package com.menear;
+
+import java.util.stream.IntStream;
+
+/**
+ * What tone curves are normalised against: the largest hit count, the number of lit pixels and, for histogram
+ * equalisation, how many lit pixels fall into each count bucket. Counts below 1024 get a bucket each; larger
+ * ones share 64 logarithmically spaced buckets per power of two, which keeps the table small for any count.
+ */
+final class CountStatistics {
+
+    private static final int EXACT_BUCKETS = 1024;
+    private static final int EXACT_BITS = 10;
+    private static final int SUB_BUCKET_BITS = 6;
+    static final int BUCKETS = EXACT_BUCKETS + ((31 - EXACT_BITS) << SUB_BUCKET_BITS);
+
+    private static final int STRIP_ROWS = 64;
+
+    private final long[] buckets = new long[BUCKETS];
+    private int maxCount;
+    private long litPixels;
+
+    static CountStatistics of(int[] counts, int length) {
+        int strips = (length + (1 << 16) - 1) >> 16;
+        return IntStream.range(0, strips).parallel().collect(CountStatistics::new, (statistics, strip) ->
+                statistics.add(counts, strip << 16, Math.min(length, (strip + 1) << 16)), CountStatistics::merge);
+    }
+
+    static CountStatistics of(HitBuffer histogram) {
+        int width = histogram.getWidth();
+        int height = histogram.getHeight();
+        int strips = (height + STRIP_ROWS - 1) / STRIP_ROWS;
+        return IntStream.range(0, strips).parallel().collect(CountStatistics::new, (statistics, strip) -> {
+            int[] row = new int[width];
+            for(int y = strip * STRIP_ROWS; y < Math.min(height, (strip + 1) * STRIP_ROWS); y++) {
+                histogram.readRow(y, row);
+                statistics.add(row, 0, width);
+            }
+        }, CountStatistics::merge);
+    }
+
+    static int bucket(int count) {
+        if(count < EXACT_BUCKETS) {
+            return count;
+        }
+        int octave = 31 - Integer.numberOfLeadingZeros(count);
+        int mantissa = (count >>> (octave - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return EXACT_BUCKETS + ((octave - EXACT_BITS) << SUB_BUCKET_BITS) + mantissa;
+    }
+
+    void add(int[] counts, int from, int to) {
+        int max = maxCount;
+        long lit = 0;
+        for(int i = from; i < to; i++) {
+            int count = counts[i];
+            if(count > 0) {
+                buckets[bucket(count)]++;
+                lit++;
+                if(count > max) {
+                    max = count;
+                }
+            }
+        }
+        maxCount = max;
+        litPixels += lit;
+    }
+
+    void merge(CountStatistics other) {
+        for(int i = 0; i < BUCKETS; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        maxCount = Math.max(maxCount, other.maxCount);
+        litPixels += other.litPixels;
+    }
+
+    /**
+     * Returns, for each bucket, the number of lit pixels whose count falls into that bucket or a lower one.
+     */
+    long[] cumulativeBuckets() {
+        long[] cumulative = new long[BUCKETS];
+        long sum = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            sum += buckets[i];
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+
+    int getMaxCount() {
+        return maxCount;
+    }
+
+    long getLitPixels() {
+        return litPixels;
+    }
+}
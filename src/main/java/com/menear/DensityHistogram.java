@@ -0,0 +1,290 @@
+package com.menear;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * Hit counts kept on the heap, with the vertex that last hit each pixel. Counts saturate at
+ * {@link Integer#MAX_VALUE} instead of wrapping, like those of {@link HistogramPyramid}.
+ */
+class DensityHistogram implements HitBuffer {
+
+    private final int width;
+    private final int height;
+    private final int[] counts;
+    private final byte[] lastVertex;
+
+    private long totalPoints;
+
+    private int dirtyMinX;
+    private int dirtyMinY;
+    private int dirtyMaxX;
+    private int dirtyMaxY;
+
+    DensityHistogram(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.counts = new int[width * height];
+        this.lastVertex = new byte[width * height];
+        resetDirtyRegion();
+    }
+
+    @Override
+    public synchronized void addPoints(double[] xs, double[] ys, int count) {
+        int minX = dirtyMinX;
+        int minY = dirtyMinY;
+        int maxX = dirtyMaxX;
+        int maxY = dirtyMaxY;
+        for(int i = 0; i < count; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            // Compared before the cast, which would truncate (-1, 0) to 0; NaN fails every comparison
+            if(!(x >= 0.0 && x < width && y >= 0.0 && y < height)) {
+                continue;
+            }
+            int px = (int) x;
+            int py = (int) y;
+            int index = py * width + px;
+            if(counts[index] != Integer.MAX_VALUE) {
+                counts[index]++;
+            }
+            if(px < minX) minX = px;
+            if(px > maxX) maxX = px;
+            if(py < minY) minY = py;
+            if(py > maxY) maxY = py;
+        }
+        dirtyMinX = minX;
+        dirtyMinY = minY;
+        dirtyMaxX = maxX;
+        dirtyMaxY = maxY;
+        totalPoints += count;
+    }
+
+    @Override
+    public synchronized void addPoints(double[] xs, double[] ys, byte[] vertices, int count) {
+        int minX = dirtyMinX;
+        int minY = dirtyMinY;
+        int maxX = dirtyMaxX;
+        int maxY = dirtyMaxY;
+        for(int i = 0; i < count; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            if(!(x >= 0.0 && x < width && y >= 0.0 && y < height)) {
+                continue;
+            }
+            int px = (int) x;
+            int py = (int) y;
+            int index = py * width + px;
+            if(counts[index] != Integer.MAX_VALUE) {
+                counts[index]++;
+            }
+            lastVertex[index] = vertices[i];
+            if(px < minX) minX = px;
+            if(px > maxX) maxX = px;
+            if(py < minY) minY = py;
+            if(py > maxY) maxY = py;
+        }
+        dirtyMinX = minX;
+        dirtyMinY = minY;
+        dirtyMaxX = maxX;
+        dirtyMaxY = maxY;
+        totalPoints += count;
+    }
+
+    /**
+     * Adds the changed regions of {@code sources} into this histogram and clears them. Rows are merged in
+     * parallel on {@code pool}; the result does not depend on the order in which the sources were filled. A pixel
+     * hit by several sources keeps the last vertex of the source merged last.
+     */
+    synchronized void mergeFrom(DensityHistogram[] sources, ForkJoinPool pool) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = -1;
+        int maxY = -1;
+        for(DensityHistogram source : sources) {
+            if(source.dirtyMaxX >= source.dirtyMinX) {
+                minX = Math.min(minX, source.dirtyMinX);
+                minY = Math.min(minY, source.dirtyMinY);
+                maxX = Math.max(maxX, source.dirtyMaxX);
+                maxY = Math.max(maxY, source.dirtyMaxY);
+            }
+            totalPoints += source.totalPoints;
+            source.totalPoints = 0;
+        }
+        if(maxX < minX) {
+            return;
+        }
+
+        final int fromX = minX;
+        final int toX = maxX;
+        final int fromY = minY;
+        final int toY = maxY;
+        pool.invoke(ForkJoinTask.adapt(() -> IntStream.rangeClosed(fromY, toY).parallel().forEach(row -> {
+            int offset = row * width;
+            for(DensityHistogram source : sources) {
+                int[] sourceCounts = source.counts;
+                byte[] sourceVertices = source.lastVertex;
+                for(int i = offset + fromX; i <= offset + toX; i++) {
+                    int count = sourceCounts[i];
+                    if(count != 0) {
+                        counts[i] = saturatingAdd(counts[i], count);
+                        lastVertex[i] = sourceVertices[i];
+                        sourceCounts[i] = 0;
+                    }
+                }
+            }
+        })));
+
+        for(DensityHistogram source : sources) {
+            source.resetDirtyRegion();
+        }
+        dirtyMinX = Math.min(dirtyMinX, minX);
+        dirtyMinY = Math.min(dirtyMinY, minY);
+        dirtyMaxX = Math.max(dirtyMaxX, maxX);
+        dirtyMaxY = Math.max(dirtyMaxY, maxY);
+    }
+
+    /**
+     * Copies the counts and last vertices of the region changed since the last call into {@code countsDst} and
+     * {@code verticesDst}, which mirror the whole histogram, and stores the region as {x, y, width, height} in
+     * {@code region}.
+     *
+     * @return false if nothing changed since the last call
+     */
+    synchronized boolean drainDirtyRegion(int[] region, int[] countsDst, byte[] verticesDst) {
+        if(dirtyMaxX < dirtyMinX) {
+            return false;
+        }
+        int regionWidth = dirtyMaxX - dirtyMinX + 1;
+        int regionHeight = dirtyMaxY - dirtyMinY + 1;
+        for(int row = 0; row < regionHeight; row++) {
+            int offset = (dirtyMinY + row) * width + dirtyMinX;
+            System.arraycopy(counts, offset, countsDst, offset, regionWidth);
+            System.arraycopy(lastVertex, offset, verticesDst, offset, regionWidth);
+        }
+        region[0] = dirtyMinX;
+        region[1] = dirtyMinY;
+        region[2] = regionWidth;
+        region[3] = regionHeight;
+        resetDirtyRegion();
+        return true;
+    }
+
+    /**
+     * Moves everything plotted since the last call into a sparse delta and zeroes it here, so that deltas drained
+     * one after the other add up to the whole render.
+     */
+    synchronized HistogramDelta drainDelta() {
+        HistogramDelta delta = new HistogramDelta(totalPoints);
+        for(int y = Math.max(0, dirtyMinY); y <= dirtyMaxY; y++) {
+            int offset = y * width;
+            for(int i = offset + dirtyMinX; i <= offset + dirtyMaxX; i++) {
+                if(counts[i] != 0) {
+                    delta.add(i, counts[i], lastVertex[i]);
+                    counts[i] = 0;
+                }
+            }
+        }
+        totalPoints = 0;
+        resetDirtyRegion();
+        return delta;
+    }
+
+    /**
+     * Adds a delta drained from a histogram of the same size, e.g. one received from a remote worker.
+     */
+    synchronized void addDelta(HistogramDelta delta) {
+        int size = delta.size();
+        if(size > 0 && delta.getIndex(size - 1) >= counts.length) {
+            throw new IllegalArgumentException("Delta does not fit a " + width + "x" + height + " histogram");
+        }
+        for(int i = 0; i < size; i++) {
+            int index = delta.getIndex(i);
+            counts[index] = saturatingAdd(counts[index], delta.getCount(i));
+            lastVertex[index] = delta.getVertex(i);
+            int px = index % width;
+            int py = index / width;
+            if(px < dirtyMinX) dirtyMinX = px;
+            if(px > dirtyMaxX) dirtyMaxX = px;
+            if(py < dirtyMinY) dirtyMinY = py;
+            if(py > dirtyMaxY) dirtyMaxY = py;
+        }
+        totalPoints += delta.getPoints();
+    }
+
+    private static int saturatingAdd(int count, int added) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) count + added);
+    }
+
+    @Override
+    public synchronized void readRow(int y, int[] dst) {
+        System.arraycopy(counts, y * width, dst, 0, width);
+    }
+
+    @Override
+    public synchronized void readVertexRow(int y, byte[] dst) {
+        System.arraycopy(lastVertex, y * width, dst, 0, width);
+    }
+
+    synchronized int[] copyCounts() {
+        return counts.clone();
+    }
+
+    synchronized byte[] copyVertices() {
+        return lastVertex.clone();
+    }
+
+    /**
+     * Replaces the contents with previously saved counts and vertices, e.g. from a checkpoint, and marks everything
+     * as changed.
+     */
+    synchronized void restore(int[] savedCounts, byte[] savedVertices, long savedTotal) {
+        if(savedCounts.length != counts.length || savedVertices.length != counts.length) {
+            throw new IllegalArgumentException("Saved counts do not match a " + width + "x" + height + " histogram");
+        }
+        System.arraycopy(savedCounts, 0, counts, 0, counts.length);
+        System.arraycopy(savedVertices, 0, lastVertex, 0, lastVertex.length);
+        totalPoints = savedTotal;
+        dirtyMinX = 0;
+        dirtyMinY = 0;
+        dirtyMaxX = width - 1;
+        dirtyMaxY = height - 1;
+    }
+
+    /**
+     * Zeroes all counts and marks everything as changed so that displays repaint the cleared area.
+     */
+    synchronized void clear() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(lastVertex, (byte) 0);
+        totalPoints = 0;
+        dirtyMinX = 0;
+        dirtyMinY = 0;
+        dirtyMaxX = width - 1;
+        dirtyMaxY = height - 1;
+    }
+
+    @Override
+    public synchronized long getTotalPoints() {
+        return totalPoints;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    private void resetDirtyRegion() {
+        dirtyMinX = Integer.MAX_VALUE;
+        dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = -1;
+        dirtyMaxY = -1;
+    }
+}
@@ -0,0 +1,139 @@
+package com.menear;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The part of a render one worker process is responsible for, and the constants of the plain TCP protocol between
+ * {@link RenderCoordinator} and {@link RenderWorker}.
+ * <p>
+ * A worker connects to the coordinator and sends {@link #MAGIC} and its processor count. The coordinator answers
+ * with a job, after which the worker sends a stream of messages, each a type byte followed by its body:
+ * {@link #DELTA} with a {@link HistogramDelta}, then {@link #DONE} with the number of points computed, or
+ * {@link #ERROR} with a message.
+ */
+final class DistributedJob {
+
+    static final int MAGIC = 0x46524A31; // "FRJ1"
+
+    static final byte DELTA = 1;
+    static final byte DONE = 2;
+    static final byte ERROR = 3;
+
+    private final CompiledRuleSet ruleSet;
+    private final int width;
+    private final int height;
+    private final long iterations;
+    private final long seed;
+    private final RandomAlgorithm randomAlgorithm;
+    private final Viewport viewport;
+    private final int firstWalker;
+    private final int totalWalkers;
+    private final WalkerState[] walkers;
+
+    /**
+     * @param walkers walkers {@code firstWalker} onwards of the {@code totalWalkers} the render is split into
+     */
+    DistributedJob(CompiledRuleSet ruleSet, int width, int height, long iterations, long seed,
+                   RandomAlgorithm randomAlgorithm, Viewport viewport, int firstWalker, int totalWalkers,
+                   WalkerState[] walkers) {
+        this.ruleSet = ruleSet;
+        this.width = width;
+        this.height = height;
+        this.iterations = iterations;
+        this.seed = seed;
+        this.randomAlgorithm = randomAlgorithm;
+        this.viewport = viewport;
+        this.firstWalker = firstWalker;
+        this.totalWalkers = totalWalkers;
+        this.walkers = walkers.clone();
+    }
+
+    void write(DataOutput out) throws IOException {
+        Checkpoint.writeString(out, RuleSet.fromCompiled(null, ruleSet, width, height).toJson());
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeLong(iterations);
+        out.writeLong(seed);
+        out.writeUTF(randomAlgorithm.name());
+        out.writeDouble(viewport.getScale());
+        out.writeDouble(viewport.getOriginX());
+        out.writeDouble(viewport.getOriginY());
+        out.writeInt(firstWalker);
+        out.writeInt(totalWalkers);
+        out.writeInt(walkers.length);
+        for(WalkerState walker : walkers) {
+            walker.write(out);
+        }
+    }
+
+    static DistributedJob read(DataInput in) throws IOException {
+        try {
+            RuleSet ruleSetJson = RuleSet.fromJson(Checkpoint.readString(in));
+            int width = in.readInt();
+            int height = in.readInt();
+            if(width < 1 || height < 1 || OffscreenRender.needsMappedHistogram(width, height)) {
+                throw new IOException("Unsupported job dimensions " + width + "x" + height);
+            }
+            long iterations = in.readLong();
+            long seed = in.readLong();
+            RandomAlgorithm randomAlgorithm = RandomAlgorithm.valueOf(in.readUTF());
+            Viewport viewport = new Viewport(in.readDouble(), in.readDouble(), in.readDouble());
+            int firstWalker = in.readInt();
+            int totalWalkers = in.readInt();
+            int walkerCount = in.readInt();
+            if(walkerCount < 1 || walkerCount > 1 << 16) {
+                throw new IOException("Invalid walker count " + walkerCount);
+            }
+            WalkerState[] walkers = new WalkerState[walkerCount];
+            for(int i = 0; i < walkerCount; i++) {
+                walkers[i] = WalkerState.read(in);
+            }
+            return new DistributedJob(ruleSetJson.compile(width, height), width, height, iterations, seed,
+                    randomAlgorithm, viewport, firstWalker, totalWalkers, walkers);
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Invalid job: " + e.getMessage(), e);
+        }
+    }
+
+    CompiledRuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    long getIterations() {
+        return iterations;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    RandomAlgorithm getRandomAlgorithm() {
+        return randomAlgorithm;
+    }
+
+    Viewport getViewport() {
+        return viewport;
+    }
+
+    int getFirstWalker() {
+        return firstWalker;
+    }
+
+    int getTotalWalkers() {
+        return totalWalkers;
+    }
+
+    WalkerState[] getWalkers() {
+        return walkers.clone();
+    }
+}
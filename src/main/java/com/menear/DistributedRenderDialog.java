@@ -0,0 +1,111 @@
+package com.menear;
+
+import javafx.scene.control.*;
+import javafx.scene.layout.GridPane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Optional;
+
+class DistributedRenderDialog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DistributedRenderDialog.class);
+
+    private TextField txtPort = new TextField("47310");
+    private TextField txtWorkers = new TextField("2");
+    private TextField txtLocalWorkers = new TextField("2");
+    private TextField txtWalkers = new TextField();
+    private TextField txtIterations = new TextField("100000000");
+    private TextField txtSeed = new TextField();
+
+    DistributedRenderDialog() {
+        txtWalkers.setPromptText("workers' processors");
+    }
+
+    void show() {
+        FractalCanvas fractalCanvas = Fractals.getFractalCanvas();
+        ControlPanel controlPanel = Fractals.getControlPanel();
+
+        CompiledRuleSet ruleSet;
+        try {
+            ruleSet = fractalCanvas.getCurrentRuleSet();
+        } catch(IllegalArgumentException e) {
+            showError("Unable to render the current rule set: " + e.getMessage());
+            return;
+        }
+        txtSeed.setText(String.valueOf(controlPanel.getSeed()));
+
+        GridPane grid = new GridPane();
+        grid.setHgap(8.0);
+        grid.setVgap(6.0);
+        grid.addRow(0, new Label("Listen on port:"), txtPort);
+        grid.addRow(1, new Label("Workers to wait for:"), txtWorkers);
+        grid.addRow(2, new Label("Start local workers:"), txtLocalWorkers);
+        grid.addRow(3, new Label("Walkers:"), txtWalkers);
+        grid.addRow(4, new Label("Iterations:"), txtIterations);
+        grid.addRow(5, new Label("Seed:"), txtSeed);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.initOwner(Fractals.getMainStage());
+        dialog.setTitle("Distributed Render");
+        dialog.setHeaderText("Render the current shape on the canvas using separate worker processes.\n"
+                + "Remote workers run: RenderWorker --connect <this host>:<port>");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        Optional<ButtonType> response = dialog.showAndWait();
+        if(!response.isPresent() || response.get() != ButtonType.OK) {
+            return;
+        }
+
+        int port;
+        int workers;
+        int localWorkers;
+        int walkers;
+        long iterations;
+        long seed;
+        try {
+            port = Integer.parseInt(txtPort.getText().trim());
+            workers = Integer.parseInt(txtWorkers.getText().trim());
+            localWorkers = Integer.parseInt(txtLocalWorkers.getText().trim());
+            walkers = txtWalkers.getText().trim().isEmpty() ? 0 : Integer.parseInt(txtWalkers.getText().trim());
+            iterations = Long.parseLong(txtIterations.getText().trim());
+            seed = Long.parseLong(txtSeed.getText().trim());
+            if(port < 0 || port > 0xFFFF || workers < 1 || localWorkers < 0 || localWorkers > workers || walkers < 0
+                    || iterations < 1) {
+                throw new NumberFormatException("Values are out of range");
+            }
+        } catch(NumberFormatException e) {
+            showError("Invalid distributed render settings: " + e.getMessage());
+            return;
+        }
+
+        RenderCoordinator coordinator = null;
+        try {
+            coordinator = new RenderCoordinator(ruleSet, (int) fractalCanvas.getCanvasWidth(),
+                    (int) fractalCanvas.getCanvasHeight(), iterations, controlPanel.getRandomAlgorithm(), seed, port);
+            coordinator.setTotalWalkers(walkers);
+            coordinator.spawnLocalWorkers(localWorkers);
+        } catch(IOException e) {
+            LOG.error("Unable to start distributed render!", e);
+            if(coordinator != null) {
+                coordinator.close();
+            }
+            showError("Unable to start distributed render: " + e.getMessage());
+            return;
+        }
+
+        controlPanel.setIterationControlsDisabled(true);
+        Fractals.getMainMenu().disableCanvasSizeSelection();
+        fractalCanvas.drawDistributed(coordinator, workers);
+    }
+
+    private void showError(String message) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        alert.showAndWait();
+    }
+}
@@ -0,0 +1,19 @@
+package com.menear;
+
+public enum ExportFormat {
+
+    PNG("png"),
+    PNG16("png"),
+    RAW("raw");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    String getExtension() {
+        return extension;
+    }
+
+}
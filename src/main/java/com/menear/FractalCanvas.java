@@ -1,26 +1,36 @@
 package com.menear;
 
-import javafx.beans.property.SimpleIntegerProperty;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleLongProperty;
+import javafx.beans.property.SimpleStringProperty;
 import javafx.event.EventHandler;
 import javafx.geometry.Pos;
 import javafx.scene.Cursor;
 import javafx.scene.Group;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Label;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
+import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.StringJoiner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 class FractalCanvas extends StackPane {
 
@@ -33,19 +43,43 @@ class FractalCanvas extends StackPane {
     private static final Color BACKGROUND_COLOR = Color.rgb(15, 15, 15);
     private static final Color SHAPE_COLOR = Color.BLUE;
 
+    private static final double ZOOM_STEP = 1.25;
+
     private static double SELECTED_POINT_SIZE = 8.0;
     private static double SELECTED_POINT_MIN_DISTANCE = 16.0;
 
     private Canvas selectionCanvas;
     private Canvas dotCanvas;
     private Thread drawPoints;
+    private DensityHistogram histogram;
+    private HistogramRenderer histogramRenderer;
+    private ToneMapper toneMapper = new ToneMapper();
 
     private boolean drawShapeLines = true;
+    private boolean previewWhileEditing;
 
-    private SimpleIntegerProperty counterVal = new SimpleIntegerProperty(0);
+    private SimpleLongProperty counterVal = new SimpleLongProperty(0);
+    private SimpleStringProperty hudText = new SimpleStringProperty();
+    private RenderStats renderStats = new RenderStats();
 
     private SelectedShape selectedShape;
     private Deque<double[]> coordinates;
+    private CompiledRuleSet importedRuleSet;
+    private volatile Checkpoint lastCheckpoint;
+    private volatile Viewport viewport = Viewport.IDENTITY;
+    private RecursiveRender recursiveRender;
+    private boolean navigationEnabled;
+    private double dragStartX;
+    private double dragStartY;
+
+    private final ExecutorService previewExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean previewQueued = new AtomicBoolean();
+    private final AtomicLong previewGeneration = new AtomicLong();
+    private volatile CompiledRuleSet previewRuleSet;
 
     private EventHandler<MouseEvent> handleShapeSelection = event -> {
         if(event.getButton() == MouseButton.SECONDARY
@@ -65,8 +99,10 @@ class FractalCanvas extends StackPane {
             }
         }
 
+        importedRuleSet = null;
         redrawSelectedShapes();
         updateStartButtonDisabled();
+        updatePreview();
 
         final StringJoiner sjOut = new StringJoiner(", ", "[", "]");
         coordinates.forEach(coord -> sjOut.add("(" + coord[0] + "," + coord[1] + ")"));
@@ -75,15 +111,64 @@ class FractalCanvas extends StackPane {
 
     private EventHandler<MouseEvent> handleStartLocation = event -> {
         if(event.getButton() == MouseButton.PRIMARY) {
-            drawPoints = new Thread(new StartButtonRunnable(dotCanvas.getGraphicsContext2D(), selectedShape,
-                    new double[] { event.getX(), event.getY()}, counterVal), "draw-points");
+            CompiledRuleSet ruleSet;
+            try {
+                ruleSet = getCurrentRuleSet();
+            } catch(IllegalArgumentException e) {
+                LOG.warn("Unable to compile rule set: " + e.getMessage());
+                showRuleSetError(e.getMessage());
+                return;
+            }
+            // Remove any preview; the chaos game draws from an empty canvas
+            histogram.clear();
+            drawPoints = new Thread(new StartButtonRunnable(histogram, renderStats, ruleSet,
+                    new double[] { event.getX(), event.getY()}), "draw-points");
             drawPoints.start();
+            navigationEnabled = true;
             this.setOnMouseClicked(null);
             this.setCursor(Cursor.DEFAULT);
             Fractals.getControlPanel().actionButtonStop();
         }
     };
 
+    private EventHandler<ScrollEvent> handleZoom = event -> {
+        if(navigationEnabled && event.getDeltaY() != 0.0) {
+            double factor = Math.pow(ZOOM_STEP, event.getDeltaY() / Math.abs(event.getDeltaY()));
+            setViewport(viewport.zoomAt(event.getX(), event.getY(), factor));
+            event.consume();
+        }
+    };
+
+    private EventHandler<MouseEvent> handleDragStart = event -> {
+        dragStartX = event.getX();
+        dragStartY = event.getY();
+    };
+
+    private EventHandler<MouseEvent> handleDrag = event -> {
+        if(navigationEnabled && event.getButton() == MouseButton.PRIMARY) {
+            // Preview the pan by shifting the current image until the button is released
+            dotCanvas.setTranslateX(event.getX() - dragStartX);
+            dotCanvas.setTranslateY(event.getY() - dragStartY);
+        }
+    };
+
+    private EventHandler<MouseEvent> handleDragEnd = event -> {
+        if(dotCanvas.getTranslateX() != 0.0 || dotCanvas.getTranslateY() != 0.0) {
+            dotCanvas.setTranslateX(0.0);
+            dotCanvas.setTranslateY(0.0);
+            if(navigationEnabled) {
+                setViewport(viewport.panBy(event.getX() - dragStartX, event.getY() - dragStartY));
+            }
+        }
+    };
+
+    private EventHandler<MouseEvent> handleResetView = event -> {
+        if(navigationEnabled && event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2
+                && event.isStillSincePress()) {
+            setViewport(Viewport.IDENTITY);
+        }
+    };
+
     FractalCanvas() {
         selectionCanvas = new Canvas();
         dotCanvas = new Canvas();
@@ -98,7 +183,13 @@ class FractalCanvas extends StackPane {
         lblCounter.setFont(counterFont);
         lblCounter.textProperty().bind(counterVal.asString());
 
-        HBox hbCounter = new HBox(lblCounterTitle, lblCounter);
+        Label lblHud = new Label();
+        lblHud.setTextFill(Color.LIGHTGRAY);
+        lblHud.setFont(Font.font(12.0));
+        lblHud.textProperty().bind(hudText);
+
+        HBox hbCounter = new HBox(10.0, new HBox(lblCounterTitle, lblCounter), lblHud);
+        hbCounter.setAlignment(Pos.CENTER_LEFT);
         Group grpCounter = new Group(hbCounter);
 
         getChildren().addAll(dotCanvas, selectionCanvas, grpCounter);
@@ -106,10 +197,19 @@ class FractalCanvas extends StackPane {
 
         selectedShape = new SelectedShape(SHAPE_COLOR);
         coordinates = selectedShape.getCoordinates();
+
+        histogramRenderer = new HistogramRenderer(dotCanvas, counterVal, hudText, renderStats, toneMapper);
+
+        addEventHandler(ScrollEvent.SCROLL, handleZoom);
+        addEventHandler(MouseEvent.MOUSE_PRESSED, handleDragStart);
+        addEventHandler(MouseEvent.MOUSE_DRAGGED, handleDrag);
+        addEventHandler(MouseEvent.MOUSE_RELEASED, handleDragEnd);
+        addEventHandler(MouseEvent.MOUSE_CLICKED, handleResetView);
     }
 
     void init() {
         resizeCanvasMedium();
+        histogramRenderer.start();
     }
 
     void beginStartPointSelection() {
@@ -117,6 +217,211 @@ class FractalCanvas extends StackPane {
         this.setCursor(Cursor.CROSSHAIR);
     }
 
+    /**
+     * Draws the current rule set with {@link RecursiveRender} instead of the chaos game. No start point is needed,
+     * and zooming or panning redraws the new view from scratch.
+     */
+    void drawRecursive() {
+        try {
+            recursiveRender = new RecursiveRender(getCurrentRuleSet());
+        } catch(IllegalArgumentException e) {
+            LOG.warn("Unable to compile rule set: " + e.getMessage());
+            showRuleSetError(e.getMessage());
+            Fractals.getControlPanel().actionButtonStart();
+            updateStartButtonDisabled();
+            Fractals.getMainMenu().enableCanvasSizeSelection();
+            return;
+        }
+        navigationEnabled = true;
+        redrawRecursive();
+    }
+
+    private void redrawRecursive() {
+        RecursiveRender render = recursiveRender;
+        DensityHistogram target = histogram;
+        Viewport view = viewport;
+        drawPoints = new Thread(() -> {
+            renderStats.start();
+            try {
+                RecursiveRender.Result result = render.render(target, view,
+                        Fractals.getRenderScheduler().getCpuPool());
+                LOG.info("Finished recursive render of " + result.getLeaves() + " leaves.");
+            } catch(RuntimeException e) {
+                LOG.error("Recursive render failed!", e);
+                Platform.runLater(() -> showRenderError("Recursive render failed: " + e.getMessage()));
+            } finally {
+                renderStats.finish();
+                Platform.runLater(() -> drawPointsFinished(view));
+            }
+        }, "draw-points");
+        drawPoints.start();
+        this.setOnMouseClicked(null);
+        this.setCursor(Cursor.DEFAULT);
+        Fractals.getControlPanel().actionButtonStop();
+    }
+
+    /**
+     * Redraws the preview of the shape being edited, if previews are enabled. Previews are drawn by
+     * {@link RecursiveRender} on a background thread with a small leaf budget; edits made while one is being drawn
+     * are coalesced into the next, and results that are out of date by the time they finish are dropped.
+     */
+    void updatePreview() {
+        if(!previewWhileEditing || !isEditing()) {
+            return;
+        }
+        CompiledRuleSet ruleSet = null;
+        if(coordinates.size() >= 2) {
+            try {
+                ruleSet = getCurrentRuleSet();
+            } catch(IllegalArgumentException e) {
+                LOG.debug("No preview: " + e.getMessage());
+            }
+        }
+        previewRuleSet = ruleSet;
+        previewGeneration.incrementAndGet();
+        if(previewQueued.compareAndSet(false, true)) {
+            DensityHistogram target = histogram;
+            Viewport view = viewport;
+            previewExecutor.execute(() -> drawPreview(target, view));
+        }
+    }
+
+    private void drawPreview(DensityHistogram target, Viewport view) {
+        previewQueued.set(false);
+        long generation = previewGeneration.get();
+        CompiledRuleSet ruleSet = previewRuleSet;
+        RecursiveRender.Result result = null;
+        if(ruleSet != null) {
+            try {
+                RecursiveRender render = new RecursiveRender(ruleSet);
+                render.setMaxLeaves(RecursiveRender.PREVIEW_MAX_LEAVES);
+                result = render.render(target.getWidth(), target.getHeight(), view,
+                        Fractals.getRenderScheduler().getCpuPool());
+            } catch(IllegalArgumentException e) {
+                LOG.debug("No preview: " + e.getMessage());
+            }
+        }
+        RecursiveRender.Result preview = result;
+        Platform.runLater(() -> {
+            if(generation != previewGeneration.get() || target != histogram || !previewWhileEditing || !isEditing()) {
+                return;
+            }
+            if(preview != null) {
+                histogram.restore(preview.getCounts(), preview.getVertices(), preview.getTotalPoints());
+            } else {
+                histogram.clear();
+            }
+        });
+    }
+
+    void setPreviewWhileEditing(boolean val) {
+        previewWhileEditing = val;
+        if(val) {
+            updatePreview();
+        } else if(isEditing()) {
+            histogram.clear();
+        }
+    }
+
+    /**
+     * Shows sparse images at a coarser resolution until enough points have arrived for the full one.
+     */
+    void setProgressiveDisplay(boolean val) {
+        histogramRenderer.setProgressive(val);
+    }
+
+    private boolean isEditing() {
+        return getOnMouseClicked() == handleShapeSelection;
+    }
+
+    /**
+     * Restores the run saved in {@code checkpoint} onto this canvas and continues it.
+     */
+    void resumeFrom(Checkpoint checkpoint) {
+        if(checkpoint.getCounts() == null) {
+            throw new IllegalArgumentException("The checkpoint keeps its hit counts in a separate histogram file");
+        }
+        if(checkpoint.getWidth() != histogram.getWidth() || checkpoint.getHeight() != histogram.getHeight()) {
+            throw new IllegalArgumentException("The checkpoint was made on a " + checkpoint.getWidth() + "x"
+                    + checkpoint.getHeight() + " canvas");
+        }
+        viewport = checkpoint.getViewport();
+        showRuleSet(checkpoint.getRuleSet());
+        histogram.restore(checkpoint.getCounts(), checkpoint.getVertices(), checkpoint.getTotalPoints());
+        lastCheckpoint = checkpoint;
+        navigationEnabled = true;
+        continueDrawPoints(checkpoint);
+    }
+
+    /**
+     * Returns the view the walkers should currently plot. Running renders pick up changes between rounds.
+     */
+    Viewport getViewport() {
+        return viewport;
+    }
+
+    /**
+     * Zooms or pans the drawing. A running render switches over on its next round; a finished or stopped one
+     * continues from its last checkpoint so the walkers go on from where they are rather than starting over.
+     */
+    void setViewport(Viewport newViewport) {
+        viewport = newViewport;
+        redrawSelectedShapes();
+        if(drawPoints == null || !drawPoints.isAlive()) {
+            if(recursiveRender != null) {
+                redrawRecursive();
+            } else if(lastCheckpoint != null) {
+                continueDrawPoints(lastCheckpoint);
+            }
+        }
+    }
+
+    void drawPointsFinished(Viewport renderedViewport) {
+        Fractals.getControlPanel().actionButtonReset();
+        if(navigationEnabled && !renderedViewport.equals(viewport)) {
+            // The view changed after the walkers' last look at it
+            if(recursiveRender != null) {
+                redrawRecursive();
+            } else if(lastCheckpoint != null) {
+                continueDrawPoints(lastCheckpoint);
+            }
+        }
+    }
+
+    private void continueDrawPoints(Checkpoint checkpoint) {
+        drawPoints = new Thread(new StartButtonRunnable(histogram, renderStats, checkpoint), "draw-points");
+        drawPoints.start();
+        this.setOnMouseClicked(null);
+        this.setCursor(Cursor.DEFAULT);
+        Fractals.getControlPanel().actionButtonStop();
+    }
+
+    /**
+     * Runs the render of {@code coordinator} on {@code workers} worker processes, showing the counts they send back
+     * as they arrive. The view cannot be changed, since the workers' walkers are not available here.
+     */
+    void drawDistributed(RenderCoordinator coordinator, int workers) {
+        histogram.clear();
+        drawPoints = new Thread(() -> {
+            try(RenderCoordinator running = coordinator) {
+                running.run(workers, histogram, renderStats);
+                LOG.info("Finished distributed render.");
+            } catch(InterruptedException e) {
+                LOG.warn("Distributed render interrupted!");
+            } catch(IOException | RuntimeException e) {
+                LOG.error("Distributed render failed!", e);
+                Platform.runLater(() -> showRenderError("Distributed render failed: " + e.getMessage()));
+            } finally {
+                Viewport rendered = viewport;
+                Platform.runLater(() -> drawPointsFinished(rendered));
+            }
+        }, "draw-points");
+        drawPoints.start();
+        this.setOnMouseClicked(null);
+        this.setCursor(Cursor.DEFAULT);
+        Fractals.getControlPanel().actionButtonStop();
+    }
+
     void cancelDrawPoints() {
         LOG.info("Cancelling draw points...");
         drawPoints.interrupt();
@@ -127,16 +432,86 @@ class FractalCanvas extends StackPane {
         this.setCursor(Cursor.HAND);
 
         counterVal.set(0);
+        renderStats.reset();
+        lastCheckpoint = null;
+        recursiveRender = null;
+        navigationEnabled = false;
+        viewport = Viewport.IDENTITY;
 
+        histogram.clear();
         clearDotCanvas();
         redrawSelectedShapes();
 
         Fractals.getControlPanel().actionButtonStart();
         updateStartButtonDisabled();
+        updatePreview();
 
         LOG.debug("Canvas reset");
     }
 
+    CompiledRuleSet getCurrentRuleSet() {
+        VertexSelectionRule rule = Fractals.getControlPanel().getVertexSelectionRule();
+        if(importedRuleSet != null) {
+            return importedRuleSet.withSelectionRule(rule);
+        }
+        double[][] snapshot = selectedShape.snapshotCoordinates();
+        return CompiledRuleSet.midpoint(snapshot[0], snapshot[1], rule);
+    }
+
+    void applyRuleSet(RuleSet ruleSet) {
+        CompiledRuleSet compiled = ruleSet.compile(dotCanvas.getWidth(), dotCanvas.getHeight());
+        showRuleSet(compiled);
+        LOG.info("Applied rule set " + ruleSet.getName() + " with " + compiled.getVertexCount() + " vertices");
+    }
+
+    private void showRuleSet(CompiledRuleSet compiled) {
+        coordinates.clear();
+        for(int i = 0; i < compiled.getVertexCount(); i++) {
+            coordinates.addLast(new double[] { compiled.getVertexX(i), compiled.getVertexY(i) });
+        }
+        importedRuleSet = compiled;
+        Fractals.getControlPanel().setVertexSelectionRule(compiled.getSelectionRule());
+
+        redrawSelectedShapes();
+        updateStartButtonDisabled();
+        updatePreview();
+    }
+
+    DensityHistogram getHistogram() {
+        return histogram;
+    }
+
+    ToneMapper getToneMapper() {
+        return toneMapper;
+    }
+
+    /**
+     * Recolours the canvas with {@code toneMapper}; the hit counts are kept, so this works during a run too.
+     */
+    void setToneMapper(ToneMapper toneMapper) {
+        this.toneMapper = toneMapper;
+        histogramRenderer.setToneMapper(toneMapper);
+    }
+
+    /**
+     * Returns the most recent checkpoint of the current run, or null if nothing has been drawn since the last reset.
+     */
+    Checkpoint getLastCheckpoint() {
+        return lastCheckpoint;
+    }
+
+    void setLastCheckpoint(Checkpoint checkpoint) {
+        lastCheckpoint = checkpoint;
+    }
+
+    double getCanvasWidth() {
+        return dotCanvas.getWidth();
+    }
+
+    double getCanvasHeight() {
+        return dotCanvas.getHeight();
+    }
+
     void resizeCanvasSmall() {
         resizeCanvas(SMALL_CANVAS_DIMENSIONS);
     }
@@ -154,6 +529,9 @@ class FractalCanvas extends StackPane {
         dotCanvas.setHeight(dimensions[1]);
         selectionCanvas.setWidth(dimensions[0]);
         selectionCanvas.setHeight(dimensions[1]);
+        setClip(new Rectangle(dimensions[0], dimensions[1]));
+        histogram = new DensityHistogram(dimensions[0], dimensions[1]);
+        histogramRenderer.setHistogram(histogram);
         resetCanvas();
     }
 
@@ -167,8 +545,9 @@ class FractalCanvas extends StackPane {
 
         context.setFill(selectedShape.getColor());
         for(double[] coord : selectedShape.getCoordinates()) {
-            context.fillOval(coord[0] - (SELECTED_POINT_SIZE / 2), coord[1] - (SELECTED_POINT_SIZE / 2),
-                    SELECTED_POINT_SIZE, SELECTED_POINT_SIZE);
+            context.fillOval(viewport.toScreenX(coord[0]) - (SELECTED_POINT_SIZE / 2),
+                    viewport.toScreenY(coord[1]) - (SELECTED_POINT_SIZE / 2), SELECTED_POINT_SIZE,
+                    SELECTED_POINT_SIZE);
         }
     }
 
@@ -182,12 +561,12 @@ class FractalCanvas extends StackPane {
         if(iter.hasNext()) {
             double[] startingPoint = iter.next();
             context.beginPath();
-            context.moveTo(startingPoint[0], startingPoint[1]);
+            context.moveTo(viewport.toScreenX(startingPoint[0]), viewport.toScreenY(startingPoint[1]));
             while (iter.hasNext()) {
                 double[] nextPoint = iter.next();
-                context.lineTo(nextPoint[0], nextPoint[1]);
+                context.lineTo(viewport.toScreenX(nextPoint[0]), viewport.toScreenY(nextPoint[1]));
             }
-            context.lineTo(startingPoint[0], startingPoint[1]);
+            context.lineTo(viewport.toScreenX(startingPoint[0]), viewport.toScreenY(startingPoint[1]));
             context.stroke();
         }
     }
@@ -218,6 +597,22 @@ class FractalCanvas extends StackPane {
         }
     }
 
+    private void showRuleSetError(String message) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Invalid Rule Set");
+        alert.setHeaderText(null);
+        alert.setContentText("Unable to start with the current rule set: " + message);
+        alert.showAndWait();
+    }
+
+    private void showRenderError(String message) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Render Error");
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        alert.showAndWait();
+    }
+
     private boolean isValidLocation(Deque<double[]> coordinates, double x, double y, double minDistance) {
         for(double[] coord : coordinates) {
             if(Math.abs(x - coord[0]) < minDistance && Math.abs(y - coord[1]) < minDistance) {
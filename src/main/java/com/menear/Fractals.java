@@ -12,10 +12,13 @@ public class Fractals extends Application {
     private static FractalCanvas fractalCanvas;
     private static MainMenu mainMenu;
     private static Stage mainStage;
+    private static RenderScheduler renderScheduler;
 
     @Override
     public void start(Stage stage) {
         mainStage = stage;
+        renderScheduler = new RenderScheduler(Runtime.getRuntime().availableProcessors(),
+                RenderScheduler.DEFAULT_CONCURRENT_JOBS);
 
         mainMenu = new MainMenu();
         fractalCanvas = new FractalCanvas();
@@ -53,4 +56,8 @@ public class Fractals extends Application {
         return mainStage;
     }
 
+    static RenderScheduler getRenderScheduler() {
+        return renderScheduler;
+    }
+
 }
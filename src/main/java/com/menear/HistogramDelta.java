@@ -0,0 +1,176 @@
+package com.menear;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The pixels a histogram gained over some period, as a sparse list in ascending pixel order. On the wire each
+ * pixel is the gap to the previous index and its count as variable-length integers plus the last vertex, and the
+ * whole list is deflated, so a delta costs a few bytes per changed pixel however many points hit it.
+ */
+final class HistogramDelta {
+
+    private static final int MAX_WIRE_BYTES = 1 << 28;
+
+    private final long points;
+    private int[] indices = new int[64];
+    private int[] counts = new int[64];
+    private byte[] vertices = new byte[64];
+    private int size;
+
+    /**
+     * @param points the number of points the delta stands for, including those that fell outside the raster
+     */
+    HistogramDelta(long points) {
+        this.points = points;
+    }
+
+    /**
+     * Appends a pixel. Indices must be added in ascending order.
+     */
+    void add(int index, int count, byte vertex) {
+        if(size == indices.length) {
+            indices = Arrays.copyOf(indices, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+            vertices = Arrays.copyOf(vertices, size * 2);
+        }
+        indices[size] = index;
+        counts[size] = count;
+        vertices[size] = vertex;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getIndex(int i) {
+        return indices[i];
+    }
+
+    int getCount(int i) {
+        return counts[i];
+    }
+
+    byte getVertex(int i) {
+        return vertices[i];
+    }
+
+    long getPoints() {
+        return points;
+    }
+
+    void write(DataOutput out) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(size * 4 + 16);
+        int previous = -1;
+        for(int i = 0; i < size; i++) {
+            writeVarInt(raw, indices[i] - previous);
+            writeVarInt(raw, counts[i]);
+            raw.write(vertices[i]);
+            previous = indices[i];
+        }
+        byte[] compressed = deflate(raw.toByteArray());
+        out.writeLong(points);
+        out.writeInt(size);
+        out.writeInt(raw.size());
+        out.writeInt(compressed.length);
+        out.write(compressed);
+    }
+
+    static HistogramDelta read(DataInput in) throws IOException {
+        long points = in.readLong();
+        int size = in.readInt();
+        int rawLength = in.readInt();
+        int compressedLength = in.readInt();
+        if(points < 0 || size < 0 || rawLength < 0 || rawLength > MAX_WIRE_BYTES || compressedLength < 0
+                || compressedLength > MAX_WIRE_BYTES) {
+            throw new IOException("Invalid histogram delta header");
+        }
+        byte[] compressed = new byte[compressedLength];
+        in.readFully(compressed);
+        byte[] raw = inflate(compressed, rawLength);
+
+        HistogramDelta delta = new HistogramDelta(points);
+        int[] position = {0};
+        int index = -1;
+        for(int i = 0; i < size; i++) {
+            int gap = readVarInt(raw, position);
+            int count = readVarInt(raw, position);
+            if(gap < 1 || count < 1 || position[0] >= raw.length || index > Integer.MAX_VALUE - gap) {
+                throw new IOException("Corrupt histogram delta");
+            }
+            index += gap;
+            delta.add(index, count, raw[position[0]++]);
+        }
+        return delta;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] chunk = new byte[1 << 16];
+            while(!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while(length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if(length != rawLength) {
+                throw new IOException("Truncated histogram delta");
+            }
+            return raw;
+        } catch(DataFormatException e) {
+            throw new IOException("Corrupt histogram delta: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] raw, int[] position) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            if(position[0] >= raw.length) {
+                throw new IOException("Truncated histogram delta");
+            }
+            int b = raw[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt histogram delta");
+    }
+}
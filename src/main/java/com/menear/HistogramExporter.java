@@ -0,0 +1,200 @@
+package com.menear;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Streams a hit buffer to disk one strip of rows at a time, tone mapping and encoding each strip as it goes, so
+ * memory use is proportional to a strip rather than to the image.
+ */
+class HistogramExporter {
+
+    static final int STRIP_ROWS = 64;
+
+    private static final byte[] RAW_MAGIC = "FRACRAW1".getBytes(StandardCharsets.US_ASCII);
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private HistogramExporter() {
+    }
+
+    /**
+     * @param text     metadata stored in PNG tEXt chunks; ignored for raw output
+     * @param progress receives the fraction of rows written after every strip
+     */
+    static void export(HitBuffer histogram, ToneMapper toneMapper, ExportFormat format, Path file,
+                       Map<String, String> text, DoubleConsumer progress) throws IOException, InterruptedException {
+        export(histogram, toneMapper, format, file, text, progress, null);
+    }
+
+    /**
+     * Exports as above while also streaming every row into {@code pyramid}, which must be empty, so that its
+     * levels are ready for thumbnails without another pass over the image. The pyramid may be null.
+     */
+    static void export(HitBuffer histogram, ToneMapper toneMapper, ExportFormat format, Path file,
+                       Map<String, String> text, DoubleConsumer progress, HistogramPyramid pyramid)
+            throws IOException, InterruptedException {
+        boolean completed = false;
+        try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), OUTPUT_BUFFER_SIZE)) {
+            write(histogram, toneMapper, format, out, text, progress, pyramid);
+            completed = true;
+        } finally {
+            if(!completed) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Encodes the image into {@code out} instead of a file, e.g. to keep it in memory.
+     */
+    static void write(HitBuffer histogram, ToneMapper toneMapper, ExportFormat format, OutputStream out,
+                      Map<String, String> text) throws IOException, InterruptedException {
+        write(histogram, toneMapper, format, out, text, null, null);
+    }
+
+    private static void write(HitBuffer histogram, ToneMapper toneMapper, ExportFormat format, OutputStream out,
+                              Map<String, String> text, DoubleConsumer progress, HistogramPyramid pyramid)
+            throws IOException, InterruptedException {
+        switch(format) {
+            case RAW:
+                writeRaw(histogram, out, progress, pyramid);
+                break;
+            case PNG16:
+                writePng(histogram, toneMapper, out, 16, text, progress, pyramid);
+                break;
+            default:
+                writePng(histogram, toneMapper, out, 8, text, progress, pyramid);
+        }
+        if(pyramid != null) {
+            pyramid.finishRows();
+        }
+    }
+
+    private static void writePng(HitBuffer histogram, ToneMapper toneMapper, OutputStream out, int bitDepth,
+                                 Map<String, String> text, DoubleConsumer progress, HistogramPyramid pyramid)
+            throws IOException, InterruptedException {
+        int width = histogram.getWidth();
+        int height = histogram.getHeight();
+        // The tone curve needs the whole image, so gather its statistics in a first pass
+        ToneMapper.Lut lut = toneMapper.prepare(CountStatistics.of(histogram));
+        boolean byVertex = bitDepth == 8 && toneMapper.getPalette() == Palette.BY_VERTEX;
+        boolean readVertices = byVertex || (pyramid != null && toneMapper.getPalette() == Palette.BY_VERTEX);
+
+        int[] counts = new int[width * STRIP_ROWS];
+        byte[] vertices = readVertices ? new byte[width * STRIP_ROWS] : null;
+        int[] argb = new int[width * STRIP_ROWS];
+        int[] rowCounts = new int[width];
+        byte[] rowVertices = new byte[width];
+        byte[] row = new byte[width * (bitDepth == 16 ? 2 : 3)];
+
+        int colorType = bitDepth == 16 ? PngStreamWriter.COLOR_TYPE_GRAY : PngStreamWriter.COLOR_TYPE_RGB;
+        try(PngStreamWriter png = new PngStreamWriter(out, width, height, bitDepth, colorType, text)) {
+            for(int y0 = 0; y0 < height; y0 += STRIP_ROWS) {
+                RenderEvents.ExportStripWritten event = new RenderEvents.ExportStripWritten();
+                event.begin();
+                long start = System.nanoTime();
+                int rows = Math.min(STRIP_ROWS, height - y0);
+                readStrip(histogram, y0, rows, counts, rowCounts);
+                if(readVertices) {
+                    for(int r = 0; r < rows; r++) {
+                        histogram.readVertexRow(y0 + r, rowVertices);
+                        System.arraycopy(rowVertices, 0, vertices, r * width, width);
+                    }
+                }
+                if(pyramid != null) {
+                    pyramid.addRows(y0, rows, counts, vertices);
+                }
+                if(bitDepth == 16) {
+                    for(int r = 0; r < rows; r++) {
+                        for(int x = 0, offset = r * width; x < width; x++) {
+                            int level = lut.toGray16(counts[offset + x]);
+                            row[x * 2] = (byte) (level >> 8);
+                            row[x * 2 + 1] = (byte) level;
+                        }
+                        png.writeRow(row);
+                    }
+                } else {
+                    ToneMapper.mapRows(lut, counts, vertices, argb, 0, width, rows, width);
+                    for(int r = 0; r < rows; r++) {
+                        png.writeArgbRow(argb, r * width, row);
+                    }
+                }
+                stripWritten(event, start, bitDepth == 16 ? ExportFormat.PNG16 : ExportFormat.PNG, y0, rows,
+                        row.length);
+                finishStrip(y0 + rows, height, progress);
+            }
+        }
+    }
+
+    private static void writeRaw(HitBuffer histogram, OutputStream out, DoubleConsumer progress,
+                                 HistogramPyramid pyramid) throws IOException, InterruptedException {
+        int width = histogram.getWidth();
+        int height = histogram.getHeight();
+        ByteBuffer header = ByteBuffer.allocate(RAW_MAGIC.length + 16).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(RAW_MAGIC).putInt(width).putInt(height).putLong(histogram.getTotalPoints());
+        out.write(header.array());
+
+        int[] counts = new int[width];
+        ByteBuffer row = ByteBuffer.allocate(width * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        RenderEvents.ExportStripWritten event = new RenderEvents.ExportStripWritten();
+        event.begin();
+        long start = System.nanoTime();
+        byte[] vertices = pyramid != null ? new byte[width] : null;
+        for(int y = 0; y < height; y++) {
+            histogram.readRow(y, counts);
+            if(pyramid != null) {
+                histogram.readVertexRow(y, vertices);
+                pyramid.addRows(y, 1, counts, vertices);
+            }
+            row.clear();
+            row.asIntBuffer().put(counts);
+            out.write(row.array());
+            if((y + 1) % STRIP_ROWS == 0 || y + 1 == height) {
+                int first = y / STRIP_ROWS * STRIP_ROWS;
+                stripWritten(event, start, ExportFormat.RAW, first, y + 1 - first, row.capacity());
+                finishStrip(y + 1, height, progress);
+                event = new RenderEvents.ExportStripWritten();
+                event.begin();
+                start = System.nanoTime();
+            }
+        }
+    }
+
+    private static void readStrip(HitBuffer histogram, int y0, int rows, int[] counts, int[] row) {
+        int width = histogram.getWidth();
+        for(int r = 0; r < rows; r++) {
+            histogram.readRow(y0 + r, row);
+            System.arraycopy(row, 0, counts, r * width, width);
+        }
+    }
+
+    private static void stripWritten(RenderEvents.ExportStripWritten event, long startNanos, ExportFormat format,
+                                     int firstRow, int rows, long rowBytes) {
+        RenderMetrics.EXPORT_STRIPS.record(System.nanoTime() - startNanos);
+        event.end();
+        if(event.shouldCommit()) {
+            event.format = format.name();
+            event.firstRow = firstRow;
+            event.rows = rows;
+            event.rowBytes = rowBytes;
+            event.commit();
+        }
+    }
+
+    private static void finishStrip(int rowsDone, int height, DoubleConsumer progress) throws InterruptedException {
+        if(progress != null) {
+            progress.accept((double) rowsDone / height);
+        }
+        if(Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.menear;
+
+/**
+ * Coarser copies of a hit buffer. Level L holds one cell per 2^L x 2^L block of pixels with the sum of their
+ * counts, saturating at {@link Integer#MAX_VALUE}, and the vertex of the last lit pixel in the block. Only levels
+ * {@code firstLevel} to {@code lastLevel} are stored, so that a pyramid of a very large render can keep just the
+ * small levels it needs.
+ * <p>
+ * Levels are filled either by {@link #update} from a full-resolution copy of the counts, recomputing the cells
+ * over a changed region, or by streaming every row once through {@link #addRows} and then calling
+ * {@link #finishRows}.
+ */
+final class HistogramPyramid {
+
+    static final int MAX_LEVEL = 16;
+
+    private final int width;
+    private final int height;
+    private final int firstLevel;
+    private final int lastLevel;
+    private final int[][] counts;
+    private final byte[][] vertices;
+
+    HistogramPyramid(int width, int height, int firstLevel, int lastLevel) {
+        if(firstLevel < 1 || lastLevel < firstLevel || lastLevel > MAX_LEVEL) {
+            throw new IllegalArgumentException("Invalid pyramid levels " + firstLevel + " to " + lastLevel);
+        }
+        this.width = width;
+        this.height = height;
+        this.firstLevel = firstLevel;
+        this.lastLevel = lastLevel;
+        counts = new int[lastLevel - firstLevel + 1][];
+        vertices = new byte[lastLevel - firstLevel + 1][];
+        for(int level = firstLevel; level <= lastLevel; level++) {
+            int cells = levelSize(width, level) * levelSize(height, level);
+            counts[level - firstLevel] = new int[cells];
+            vertices[level - firstLevel] = new byte[cells];
+        }
+    }
+
+    /**
+     * Returns the number of cells that {@code size} pixels shrink to at {@code level}.
+     */
+    static int levelSize(int size, int level) {
+        return (int) (((long) size + (1L << level) - 1) >> level);
+    }
+
+    /**
+     * Returns the finest level, at least 1, at which a {@code width} x {@code height} image fits in
+     * {@code maxSize} cells on either side.
+     */
+    static int levelFor(int width, int height, int maxSize) {
+        if(maxSize < 1) {
+            throw new IllegalArgumentException("Thumbnail size must be positive");
+        }
+        int level = 1;
+        while(level < MAX_LEVEL && Math.max(levelSize(width, level), levelSize(height, level)) > maxSize) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Recomputes every stored level over the region of {@code w} x {@code h} pixels at ({@code x}, {@code y}),
+     * given the full-resolution counts and vertices in row-major order. Vertices may be null.
+     */
+    void update(int[] baseCounts, byte[] baseVertices, int x, int y, int w, int h) {
+        if(w <= 0 || h <= 0) {
+            return;
+        }
+        downsample(baseCounts, baseVertices, width, height, firstLevel, firstLevel, x, y, w, h);
+        for(int level = firstLevel + 1; level <= lastLevel; level++) {
+            int shift = level - 1;
+            int below = level - 1 - firstLevel;
+            downsample(counts[below], vertices[below], levelSize(width, shift), levelSize(height, shift), 1, level,
+                    x >> shift, y >> shift, ((x + w - 1) >> shift) - (x >> shift) + 1,
+                    ((y + h - 1) >> shift) - (y >> shift) + 1);
+        }
+    }
+
+    /**
+     * Sets the cells of {@code level} covering the source region to the sums of their 2^bits x 2^bits blocks.
+     */
+    private void downsample(int[] source, byte[] sourceVertices, int sourceWidth, int sourceHeight, int bits,
+                            int level, int x, int y, int w, int h) {
+        int[] target = counts[level - firstLevel];
+        byte[] targetVertices = vertices[level - firstLevel];
+        int targetWidth = levelSize(width, level);
+        int block = 1 << bits;
+        for(int cy = y >> bits; cy <= (y + h - 1) >> bits; cy++) {
+            for(int cx = x >> bits; cx <= (x + w - 1) >> bits; cx++) {
+                long sum = 0;
+                byte vertex = 0;
+                for(int sy = cy << bits; sy < Math.min(sourceHeight, (cy << bits) + block); sy++) {
+                    int offset = sy * sourceWidth;
+                    for(int sx = cx << bits; sx < Math.min(sourceWidth, (cx << bits) + block); sx++) {
+                        int count = source[offset + sx];
+                        if(count != 0) {
+                            sum += count;
+                            if(sourceVertices != null) {
+                                vertex = sourceVertices[offset + sx];
+                            }
+                        }
+                    }
+                }
+                int cell = cy * targetWidth + cx;
+                target[cell] = (int) Math.min(Integer.MAX_VALUE, sum);
+                targetVertices[cell] = vertex;
+            }
+        }
+    }
+
+    /**
+     * Adds {@code rows} full rows starting at row {@code y0} to the first level. Every row must be added exactly
+     * once, in any order; vertices may be null.
+     */
+    void addRows(int y0, int rows, int[] stripCounts, byte[] stripVertices) {
+        int[] target = counts[0];
+        byte[] targetVertices = vertices[0];
+        int targetWidth = levelSize(width, firstLevel);
+        for(int r = 0; r < rows; r++) {
+            int rowOffset = ((y0 + r) >> firstLevel) * targetWidth;
+            int offset = r * width;
+            for(int x = 0; x < width; x++) {
+                int count = stripCounts[offset + x];
+                if(count != 0) {
+                    int cell = rowOffset + (x >> firstLevel);
+                    target[cell] = (int) Math.min(Integer.MAX_VALUE, (long) target[cell] + count);
+                    if(stripVertices != null) {
+                        targetVertices[cell] = stripVertices[offset + x];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Derives the levels above the first once all rows have been added.
+     */
+    void finishRows() {
+        for(int level = firstLevel + 1; level <= lastLevel; level++) {
+            int shift = level - 1;
+            int below = level - 1 - firstLevel;
+            int belowWidth = levelSize(width, shift);
+            int belowHeight = levelSize(height, shift);
+            downsample(counts[below], vertices[below], belowWidth, belowHeight, 1, level, 0, 0, belowWidth,
+                    belowHeight);
+        }
+    }
+
+    /**
+     * Returns the number of lit cells at {@code level}.
+     */
+    long countLit(int level) {
+        long lit = 0;
+        for(int count : getCounts(level)) {
+            if(count != 0) {
+                lit++;
+            }
+        }
+        return lit;
+    }
+
+    int getLevelWidth(int level) {
+        return levelSize(width, level);
+    }
+
+    int getLevelHeight(int level) {
+        return levelSize(height, level);
+    }
+
+    /**
+     * Returns the cells of {@code level} in row-major order. The array is live and must not be modified.
+     */
+    int[] getCounts(int level) {
+        checkLevel(level);
+        return counts[level - firstLevel];
+    }
+
+    /**
+     * Returns the vertices of {@code level} in row-major order. The array is live and must not be modified.
+     */
+    byte[] getVertices(int level) {
+        checkLevel(level);
+        return vertices[level - firstLevel];
+    }
+
+    int getFirstLevel() {
+        return firstLevel;
+    }
+
+    int getLastLevel() {
+        return lastLevel;
+    }
+
+    /**
+     * Returns a read-only view of {@code level}, e.g. to export it as a thumbnail.
+     */
+    HitBuffer asHitBuffer(int level, long totalPoints) {
+        checkLevel(level);
+        int[] levelCounts = counts[level - firstLevel];
+        byte[] levelVertices = vertices[level - firstLevel];
+        int levelWidth = levelSize(width, level);
+        int levelHeight = levelSize(height, level);
+        return new HitBuffer() {
+            @Override
+            public int getWidth() {
+                return levelWidth;
+            }
+
+            @Override
+            public int getHeight() {
+                return levelHeight;
+            }
+
+            @Override
+            public void addPoints(double[] xs, double[] ys, int count) {
+                throw new UnsupportedOperationException("Pyramid levels are read-only");
+            }
+
+            @Override
+            public void readRow(int y, int[] dst) {
+                System.arraycopy(levelCounts, y * levelWidth, dst, 0, levelWidth);
+            }
+
+            @Override
+            public void readVertexRow(int y, byte[] dst) {
+                System.arraycopy(levelVertices, y * levelWidth, dst, 0, levelWidth);
+            }
+
+            @Override
+            public long getTotalPoints() {
+                return totalPoints;
+            }
+        };
+    }
+
+    private void checkLevel(int level) {
+        if(level < firstLevel || level > lastLevel) {
+            throw new IllegalArgumentException("Level " + level + " is not stored");
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.menear;
+
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.SimpleLongProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.PixelFormat;
+
+/**
+ * Copies what changed in the histogram onto the canvas once per pulse. The tone curve is normalised against the
+ * whole image, so it is rebuilt from a full mirror of the counts a few times per second and the whole canvas
+ * recoloured then; in between, only the changed region is coloured with the current curve.
+ * <p>
+ * With progressive display on, the mirror is also kept as a {@link HistogramPyramid}. While the image is still
+ * sparse, the finest level with enough points per lit cell is shown enlarged instead, so a run shows a coarse but
+ * solid image straight away and sharpens as points arrive.
+ */
+class HistogramRenderer extends AnimationTimer {
+
+    private static final long HUD_INTERVAL_NANOS = 250_000_000L;
+    private static final long RECOLOR_INTERVAL_NANOS = 100_000_000L;
+    private static final int MAX_PROGRESSIVE_LEVEL = 4;
+    private static final double PROGRESSIVE_POINTS_PER_CELL = 4.0;
+
+    private final Canvas canvas;
+    private final SimpleLongProperty counterVal;
+    private final SimpleStringProperty hudText;
+    private final RenderStats stats;
+    private ToneMapper toneMapper;
+    private ToneMapper.Lut lut;
+    private boolean recolorPending;
+    private long lastRecolorNanos;
+
+    private DensityHistogram histogram;
+    private int[] region = new int[4];
+    private int[] counts = new int[0];
+    private byte[] vertices = new byte[0];
+    private int[] pixels = new int[0];
+
+    private boolean progressive = true;
+    private HistogramPyramid pyramid;
+    private int[] levelPixels = new int[0];
+    private int displayLevel;
+
+    private long lastHudNanos;
+    private long lastHudPoints;
+    private int framesSinceHud;
+
+    HistogramRenderer(Canvas canvas, SimpleLongProperty counterVal, SimpleStringProperty hudText, RenderStats stats,
+                      ToneMapper toneMapper) {
+        this.canvas = canvas;
+        this.counterVal = counterVal;
+        this.hudText = hudText;
+        this.stats = stats;
+        this.toneMapper = toneMapper;
+    }
+
+    void setHistogram(DensityHistogram histogram) {
+        this.histogram = histogram;
+        int size = histogram.getWidth() * histogram.getHeight();
+        counts = new int[size];
+        vertices = new byte[size];
+        pixels = new int[size];
+        pyramid = new HistogramPyramid(histogram.getWidth(), histogram.getHeight(), 1, MAX_PROGRESSIVE_LEVEL);
+        levelPixels = new int[pyramid.getLevelWidth(1) * pyramid.getLevelHeight(1)];
+        displayLevel = 0;
+        lut = null;
+        recolorPending = true;
+    }
+
+    /**
+     * Turns the coarse display of sparse images on or off.
+     */
+    void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+        if(progressive && histogram != null) {
+            // The pyramid is not kept up to date while off
+            pyramid.update(counts, vertices, 0, 0, histogram.getWidth(), histogram.getHeight());
+        }
+        recolorPending = true;
+    }
+
+    /**
+     * Switches to another tone mapping and recolours the canvas on the next pulse, without touching the counts.
+     */
+    void setToneMapper(ToneMapper toneMapper) {
+        this.toneMapper = toneMapper;
+        lut = null;
+        recolorPending = true;
+    }
+
+    @Override
+    public void handle(long now) {
+        if(histogram == null) {
+            return;
+        }
+        RenderEvents.FrameBlitted event = new RenderEvents.FrameBlitted();
+        event.begin();
+        long start = System.nanoTime();
+        int width = histogram.getWidth();
+        boolean changed = histogram.drainDirtyRegion(region, counts, vertices);
+        if(changed && progressive) {
+            pyramid.update(counts, vertices, region[0], region[1], region[2], region[3]);
+        }
+        recolorPending |= changed;
+        boolean blitted = true;
+        if(recolorPending && (lut == null || now - lastRecolorNanos >= RECOLOR_INTERVAL_NANOS)) {
+            CountStatistics statistics = CountStatistics.of(counts, counts.length);
+            displayLevel = progressive ? progressiveLevel(statistics.getLitPixels()) : 0;
+            if(displayLevel > 0) {
+                drawLevel(displayLevel);
+            } else {
+                lut = toneMapper.prepare(statistics);
+                ToneMapper.mapRows(lut, counts, vertices, pixels, 0, width, histogram.getHeight(), width);
+            }
+            canvas.getGraphicsContext2D().getPixelWriter().setPixels(0, 0, width, histogram.getHeight(),
+                    PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            recolorPending = false;
+            lastRecolorNanos = now;
+            framesSinceHud++;
+            event.fullRecolor = true;
+            event.pixels = counts.length;
+        } else if(changed && displayLevel == 0) {
+            int offset = region[1] * width + region[0];
+            ToneMapper.mapRows(lut, counts, vertices, pixels, offset, region[2], region[3], width);
+            canvas.getGraphicsContext2D().getPixelWriter().setPixels(region[0], region[1], region[2], region[3],
+                    PixelFormat.getIntArgbInstance(), pixels, offset, width);
+            framesSinceHud++;
+            event.pixels = (long) region[2] * region[3];
+        } else {
+            blitted = false;
+        }
+        if(blitted) {
+            RenderMetrics.UI_FRAMES.record(System.nanoTime() - start);
+            event.backlogPoints = backlog();
+            RenderMetrics.recordFxBacklog(event.backlogPoints);
+            event.commit();
+        }
+
+        if(now - lastHudNanos >= HUD_INTERVAL_NANOS) {
+            updateHud(now);
+        }
+    }
+
+    /**
+     * Returns the finest level at which the lit cells hold at least {@link #PROGRESSIVE_POINTS_PER_CELL} points
+     * on average, or the coarsest level if none does.
+     */
+    private int progressiveLevel(long litPixels) {
+        long total = histogram.getTotalPoints();
+        if(total >= PROGRESSIVE_POINTS_PER_CELL * litPixels) {
+            return 0;
+        }
+        for(int level = 1; level < MAX_PROGRESSIVE_LEVEL; level++) {
+            if(total >= PROGRESSIVE_POINTS_PER_CELL * pyramid.countLit(level)) {
+                return level;
+            }
+        }
+        return MAX_PROGRESSIVE_LEVEL;
+    }
+
+    /**
+     * Colours {@code level} with a tone curve of its own and enlarges it onto the whole canvas.
+     */
+    private void drawLevel(int level) {
+        int[] levelCounts = pyramid.getCounts(level);
+        int levelWidth = pyramid.getLevelWidth(level);
+        int levelHeight = pyramid.getLevelHeight(level);
+        lut = toneMapper.prepare(CountStatistics.of(levelCounts, levelCounts.length));
+        ToneMapper.mapRows(lut, levelCounts, pyramid.getVertices(level), levelPixels, 0, levelWidth, levelHeight,
+                levelWidth);
+        int width = histogram.getWidth();
+        for(int y = 0; y < histogram.getHeight(); y++) {
+            int source = (y >> level) * levelWidth;
+            int offset = y * width;
+            for(int x = 0; x < width; x++) {
+                pixels[offset + x] = levelPixels[source + (x >> level)];
+            }
+        }
+    }
+
+    private void updateHud(long now) {
+        long displayed = histogram.getTotalPoints();
+        counterVal.set(displayed);
+
+        long computed = stats.getPointsComputed();
+        double seconds = (now - lastHudNanos) / 1e9;
+        double pointsPerSecond = lastHudNanos == 0 ? 0.0 : Math.max(0, computed - lastHudPoints) / seconds;
+        double framesPerSecond = lastHudNanos == 0 ? 0.0 : framesSinceHud / seconds;
+        long backlog = backlog();
+        long elapsedSeconds = stats.getElapsedNanos() / 1_000_000_000L;
+
+        hudText.set(String.format("%s pts/s   %.0f fps   backlog %s   %d:%02d:%02d",
+                formatCount(stats.isRunning() ? pointsPerSecond : 0.0), framesPerSecond,
+                formatCount(backlog), elapsedSeconds / 3600,
+                (elapsedSeconds / 60) % 60, elapsedSeconds % 60));
+
+        lastHudNanos = now;
+        lastHudPoints = computed;
+        framesSinceHud = 0;
+    }
+
+    /**
+     * Returns how many computed points have not reached the canvas yet.
+     */
+    private long backlog() {
+        long computed = stats.getPointsComputed();
+        // The start point is displayed without being computed by a walker
+        return computed == 0 ? 0 : Math.max(0, computed + 1 - histogram.getTotalPoints());
+    }
+
+    private static String formatCount(double value) {
+        if(value >= 1e9) {
+            return String.format("%.2fG", value / 1e9);
+        } else if(value >= 1e6) {
+            return String.format("%.2fM", value / 1e6);
+        } else if(value >= 1e3) {
+            return String.format("%.1fk", value / 1e3);
+        }
+        return String.format("%.0f", value);
+    }
+}
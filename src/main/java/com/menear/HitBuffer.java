@@ -0,0 +1,38 @@
+package com.menear;
+
+import java.util.Arrays;
+
+/**
+ * A raster of per-pixel hit counts that points can be plotted into and read back row by row.
+ */
+interface HitBuffer {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Rasterizes a batch of points given in pixel coordinates. Points outside the raster are counted towards the
+     * total but not stored.
+     */
+    void addPoints(double[] xs, double[] ys, int count);
+
+    /**
+     * Like {@link #addPoints(double[], double[], int)}, additionally passing the vertex that produced each point.
+     * Buffers that cannot colour by vertex ignore it.
+     */
+    default void addPoints(double[] xs, double[] ys, byte[] vertices, int count) {
+        addPoints(xs, ys, count);
+    }
+
+    void readRow(int y, int[] dst);
+
+    /**
+     * Reads the vertex that last hit each pixel of row {@code y}, or zeros if the buffer does not track them.
+     */
+    default void readVertexRow(int y, byte[] dst) {
+        Arrays.fill(dst, 0, getWidth(), (byte) 0);
+    }
+
+    long getTotalPoints();
+}
@@ -1,21 +1,21 @@
 package com.menear;
 
 import javafx.application.Platform;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.control.*;
-import javafx.scene.image.WritableImage;
-import javafx.scene.layout.StackPane;
 import javafx.stage.FileChooser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
-import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 class MainMenu extends MenuBar {
 
@@ -25,14 +25,29 @@ class MainMenu extends MenuBar {
     private MenuItem miImportRuleSet = new MenuItem("Import Rule Set...");
     private MenuItem miExportRuleSet = new MenuItem("Export Rule Set...");
     private MenuItem miSaveCanvas = new MenuItem("Save Canvas as Image...");
+    private MenuItem miOffscreenRender = new MenuItem("Off-Screen Render...");
+    private MenuItem miDistributedRender = new MenuItem("Distributed Render...");
+    private MenuItem miParameterSweep = new MenuItem("Parameter Sweep...");
+    private MenuItem miRenderQueue = new MenuItem("Render Queue");
+    private MenuItem miSaveCheckpoint = new MenuItem("Save Checkpoint...");
+    private MenuItem miResumeCheckpoint = new MenuItem("Resume From Checkpoint...");
     private MenuItem miExit = new MenuItem("Exit");
 
     private FileChooser fcImportRuleSet = new FileChooser();
     private FileChooser fcExportRuleSet = new FileChooser();
     private FileChooser fcSaveCanvas = new FileChooser();
+    private FileChooser fcSaveCheckpoint = new FileChooser();
+    private FileChooser fcResumeCheckpoint = new FileChooser();
+    private Map<FileChooser.ExtensionFilter, ExportFormat> exportFormats = new HashMap<>();
+    private OffscreenRenderDialog offscreenRenderDialog = new OffscreenRenderDialog();
+    private DistributedRenderDialog distributedRenderDialog = new DistributedRenderDialog();
+    private RenderQueueWindow renderQueueWindow;
+    private SweepDialog sweepDialog;
 
     private Menu viewMenu = new Menu("View");
     private CheckMenuItem miDrawShapeLines = new CheckMenuItem("Draw Shape Lines");
+    private CheckMenuItem miPreviewWhileEditing = new CheckMenuItem("Preview While Editing");
+    private CheckMenuItem miProgressiveDisplay = new CheckMenuItem("Progressive Display");
     private MenuItem miSmallCanvas = new MenuItem("Small Canvas");
     private MenuItem miMediumCanvas = new MenuItem("Medium Canvas");
     private MenuItem miLargeCanvas = new MenuItem("Large Canvas");
@@ -42,34 +57,84 @@ class MainMenu extends MenuBar {
         File ruleSetFile = fcImportRuleSet.showOpenDialog(Fractals.getMainStage());
         if(ruleSetFile != null) {
             LOG.info("Selected the following file for rule set import: " + ruleSetFile.getAbsolutePath());
+            try {
+                Fractals.getFractalCanvas().applyRuleSet(RuleSet.read(ruleSetFile.toPath()));
+                LOG.info("Successfully imported rule set!");
+            } catch(IOException | IllegalArgumentException e) {
+                LOG.error("Failed to import rule set!", e);
+                showError("An unexpected error occurred while trying to import rule set from "
+                        + ruleSetFile.getAbsolutePath() + ": " + e.getMessage());
+            }
         } else {
             LOG.info("No file selected for rule set import!");
         }
     };
 
+    private EventHandler<ActionEvent> handleExportRuleSet = event -> {
+        File ruleSetFile = fcExportRuleSet.showSaveDialog(Fractals.getMainStage());
+        if(ruleSetFile != null) {
+            LOG.info("Selected the following location to export rule set: " + ruleSetFile.getAbsolutePath());
+            FractalCanvas fractalCanvas = Fractals.getFractalCanvas();
+            String name = ruleSetFile.getName().replaceFirst("\\.json$", "");
+            try {
+                RuleSet.fromCompiled(name, fractalCanvas.getCurrentRuleSet(), fractalCanvas.getCanvasWidth(),
+                        fractalCanvas.getCanvasHeight()).write(ruleSetFile.toPath());
+                LOG.info("Successfully exported rule set!");
+            } catch(IOException | IllegalArgumentException e) {
+                LOG.error("Failed to export rule set!", e);
+                showError("An unexpected error occurred while trying to export rule set to "
+                        + ruleSetFile.getAbsolutePath() + ": " + e.getMessage());
+            }
+        } else {
+            LOG.info("No output location specified for rule set export!");
+        }
+    };
+
     private EventHandler<ActionEvent> handleSaveCanvas = event -> {
         File imageFile = fcSaveCanvas.showSaveDialog(Fractals.getMainStage());
         if(imageFile != null) {
             LOG.info("Selected the following location to save image file: " + imageFile.getAbsolutePath());
+            saveCanvas(imageFile, exportFormats.getOrDefault(fcSaveCanvas.getSelectedExtensionFilter(),
+                    ExportFormat.PNG));
+        } else {
+            LOG.info("No output location specified for input file!");
+        }
+    };
 
-            StackPane fractalCanvas = Fractals.getFractalCanvas();
-            WritableImage canvasSnapshot = new WritableImage((int) fractalCanvas.getWidth(), (int) fractalCanvas.getHeight());
-            fractalCanvas.snapshot(null, canvasSnapshot);
-            RenderedImage canvasImg = SwingFXUtils.fromFXImage(canvasSnapshot, null);
+    private EventHandler<ActionEvent> handleSaveCheckpoint = event -> {
+        Checkpoint checkpoint = Fractals.getFractalCanvas().getLastCheckpoint();
+        if(checkpoint == null) {
+            showError("There is no run to save yet. Checkpoints are taken every minute and when a run stops.");
+            return;
+        }
+        File checkpointFile = fcSaveCheckpoint.showSaveDialog(Fractals.getMainStage());
+        if(checkpointFile != null) {
+            LOG.info("Selected the following location to save checkpoint: " + checkpointFile.getAbsolutePath());
             try {
-                ImageIO.write(canvasImg, "png", imageFile);
-                LOG.info("Successfully saved image file!");
+                checkpoint.write(checkpointFile.toPath());
+                LOG.info("Successfully saved checkpoint!");
             } catch(IOException e) {
-                LOG.error("Failed to save image file!", e);
-                Alert failedToSaveAlert = new Alert(Alert.AlertType.ERROR);
-                failedToSaveAlert.setTitle("Error");
-                failedToSaveAlert.setHeaderText(null);
-                failedToSaveAlert.setContentText("An unexpected error occurred while trying to save image to "
-                        + imageFile.getAbsolutePath() + ": " + e.getMessage());
-                failedToSaveAlert.showAndWait();
+                LOG.error("Failed to save checkpoint!", e);
+                showError("An unexpected error occurred while trying to save checkpoint to "
+                        + checkpointFile.getAbsolutePath() + ": " + e.getMessage());
             }
         } else {
-            LOG.info("No output location specified for input file!");
+            LOG.info("No output location specified for checkpoint!");
+        }
+    };
+
+    private EventHandler<ActionEvent> handleResumeCheckpoint = event -> {
+        File checkpointFile = fcResumeCheckpoint.showOpenDialog(Fractals.getMainStage());
+        if(checkpointFile != null) {
+            LOG.info("Selected the following checkpoint to resume: " + checkpointFile.getAbsolutePath());
+            try {
+                Fractals.getControlPanel().resumeFrom(Checkpoint.read(checkpointFile.toPath()));
+            } catch(IOException | IllegalArgumentException e) {
+                LOG.error("Failed to resume checkpoint!", e);
+                showError("Unable to resume from " + checkpointFile.getAbsolutePath() + ": " + e.getMessage());
+            }
+        } else {
+            LOG.info("No checkpoint selected to resume!");
         }
     };
 
@@ -93,7 +158,16 @@ class MainMenu extends MenuBar {
 
     MainMenu() {
         miImportRuleSet.setOnAction(handleImportRuleSet);
+        miExportRuleSet.setOnAction(handleExportRuleSet);
         miSaveCanvas.setOnAction(handleSaveCanvas);
+        miOffscreenRender.setOnAction(event -> offscreenRenderDialog.show());
+        miDistributedRender.setOnAction(event -> distributedRenderDialog.show());
+        renderQueueWindow = new RenderQueueWindow(Fractals.getRenderScheduler());
+        sweepDialog = new SweepDialog(renderQueueWindow);
+        miParameterSweep.setOnAction(event -> sweepDialog.show());
+        miRenderQueue.setOnAction(event -> renderQueueWindow.show());
+        miSaveCheckpoint.setOnAction(handleSaveCheckpoint);
+        miResumeCheckpoint.setOnAction(handleResumeCheckpoint);
 
         miSmallCanvas.setOnAction(handleCanvasSizeChange);
         miMediumCanvas.setOnAction(handleCanvasSizeChange);
@@ -108,15 +182,23 @@ class MainMenu extends MenuBar {
         miDrawShapeLines.setOnAction(event ->
                 Fractals.getFractalCanvas().setDrawShapeLines(miDrawShapeLines.isSelected()));
         miDrawShapeLines.setSelected(true);
+        miPreviewWhileEditing.setOnAction(event ->
+                Fractals.getFractalCanvas().setPreviewWhileEditing(miPreviewWhileEditing.isSelected()));
+        miProgressiveDisplay.setOnAction(event ->
+                Fractals.getFractalCanvas().setProgressiveDisplay(miProgressiveDisplay.isSelected()));
+        miProgressiveDisplay.setSelected(true);
 
         configureFileChoosers();
 
         miSelectedCanvasSize = miMediumCanvas;
         enableCanvasSizeSelection();
 
-        fileMenu.getItems().addAll(miImportRuleSet, miExportRuleSet, miSaveCanvas, new SeparatorMenuItem(), miExit);
-        viewMenu.getItems().addAll(miDrawShapeLines, new SeparatorMenuItem(), miSmallCanvas,
-                miMediumCanvas, miLargeCanvas);
+        fileMenu.getItems().addAll(miImportRuleSet, miExportRuleSet, miSaveCanvas, miOffscreenRender,
+                miDistributedRender, new SeparatorMenuItem(), miParameterSweep, miRenderQueue,
+                new SeparatorMenuItem(), miSaveCheckpoint, miResumeCheckpoint,
+                new SeparatorMenuItem(), miExit);
+        viewMenu.getItems().addAll(miDrawShapeLines, miPreviewWhileEditing, miProgressiveDisplay,
+                new SeparatorMenuItem(), miSmallCanvas, miMediumCanvas, miLargeCanvas);
 
         getMenus().addAll(fileMenu, viewMenu);
     }
@@ -126,12 +208,70 @@ class MainMenu extends MenuBar {
         miMediumCanvas.setDisable(false);
         miLargeCanvas.setDisable(false);
         miSelectedCanvasSize.setDisable(true);
+        miImportRuleSet.setDisable(false);
+        miResumeCheckpoint.setDisable(false);
+        miDistributedRender.setDisable(false);
     }
 
     void disableCanvasSizeSelection() {
         miSmallCanvas.setDisable(true);
         miMediumCanvas.setDisable(true);
         miLargeCanvas.setDisable(true);
+        miImportRuleSet.setDisable(true);
+        miResumeCheckpoint.setDisable(true);
+        miDistributedRender.setDisable(true);
+    }
+
+    private Map<String, String> runDescription() {
+        ControlPanel controlPanel = Fractals.getControlPanel();
+        Map<String, String> description = new LinkedHashMap<>();
+        description.put("Iterations", String.valueOf(controlPanel.getIterations()));
+        description.put("Seed", String.valueOf(controlPanel.getSeed()));
+        description.put("Generator", controlPanel.getRandomAlgorithm().getDisplayName());
+        description.put("Threads", String.valueOf(controlPanel.getWorkerCount()));
+        description.put("Tone", Fractals.getFractalCanvas().getToneMapper().describe());
+        return description;
+    }
+
+    private void saveCanvas(File imageFile, ExportFormat format) {
+        HitBuffer histogram = Fractals.getFractalCanvas().getHistogram();
+        ToneMapper toneMapper = Fractals.getFractalCanvas().getToneMapper();
+        Map<String, String> description = runDescription();
+        AtomicReference<Double> progress = new AtomicReference<>(0.0);
+        Thread[] exportThread = new Thread[1];
+        ProgressWindow progressWindow = new ProgressWindow("Save Canvas", "Saving " + imageFile.getName() + "...",
+                progress::get, () -> exportThread[0].interrupt());
+
+        exportThread[0] = new Thread(() -> {
+            try {
+                HistogramExporter.export(histogram, toneMapper, format, imageFile.toPath(), description,
+                        progress::set);
+                LOG.info("Successfully saved image file!");
+                Platform.runLater(progressWindow::close);
+            } catch(InterruptedException e) {
+                LOG.warn("Saving image file was cancelled!");
+                Platform.runLater(progressWindow::close);
+            } catch(IOException e) {
+                LOG.error("Failed to save image file!", e);
+                Platform.runLater(() -> {
+                    progressWindow.close();
+                    showError("An unexpected error occurred while trying to save image to "
+                            + imageFile.getAbsolutePath() + ": " + e.getMessage());
+                });
+            }
+        }, "export-image");
+        exportThread[0].setDaemon(true);
+
+        progressWindow.show();
+        exportThread[0].start();
+    }
+
+    private void showError(String message) {
+        Alert errorAlert = new Alert(Alert.AlertType.ERROR);
+        errorAlert.setTitle("Error");
+        errorAlert.setHeaderText(null);
+        errorAlert.setContentText(message);
+        errorAlert.showAndWait();
     }
 
     private void confirmExit() {
@@ -157,10 +297,33 @@ class MainMenu extends MenuBar {
                 new FileChooser.ExtensionFilter("All Files", "*.*")
         );
 
+        fcExportRuleSet.setTitle("Choose Location to Export RuleSet...");
+        fcExportRuleSet.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("JSON File Format", "*.json")
+        );
+
         fcSaveCanvas.setTitle("Choose Location to Save Image...");
-        fcSaveCanvas.getExtensionFilters().addAll(
-                new FileChooser.ExtensionFilter("PNG File", ".png")
+        FileChooser.ExtensionFilter pngFilter = new FileChooser.ExtensionFilter("PNG File", "*.png");
+        FileChooser.ExtensionFilter png16Filter = new FileChooser.ExtensionFilter("16-bit Grayscale PNG", "*.png");
+        FileChooser.ExtensionFilter rawFilter = new FileChooser.ExtensionFilter("Raw Hit Counts", "*.raw");
+        exportFormats.put(pngFilter, ExportFormat.PNG);
+        exportFormats.put(png16Filter, ExportFormat.PNG16);
+        exportFormats.put(rawFilter, ExportFormat.RAW);
+        fcSaveCanvas.getExtensionFilters().addAll(pngFilter, png16Filter, rawFilter);
+
+        fcSaveCheckpoint.setTitle("Choose Location to Save Checkpoint...");
+        fcSaveCheckpoint.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Checkpoint File", "*.ckpt")
         );
+
+        fcResumeCheckpoint.setTitle("Select Checkpoint File...");
+        fcResumeCheckpoint.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Checkpoint File", "*.ckpt"),
+                new FileChooser.ExtensionFilter("All Files", "*.*")
+        );
+        if(Files.isDirectory(StartButtonRunnable.AUTOSAVE_FILE.getParent())) {
+            fcResumeCheckpoint.setInitialDirectory(StartButtonRunnable.AUTOSAVE_FILE.getParent().toFile());
+        }
     }
 
 }
@@ -0,0 +1,179 @@
+package com.menear;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A hit buffer stored in a memory-mapped file so that its size is bounded by disk space rather than the heap.
+ * Counts are laid out in 64x64 tiles, which keeps the pages touched by a walker's neighbourhood small, and are
+ * incremented atomically, saturating at {@link Integer#MAX_VALUE}, so that all walkers can plot into the same
+ * buffer.
+ */
+class MappedHistogram implements HitBuffer, AutoCloseable {
+
+    private static final int MAGIC = 0x46485354;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4096;
+    private static final int TOTAL_OFFSET = 16;
+
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * Integer.BYTES;
+    private static final int TILES_PER_SEGMENT = 1 << 16;
+    private static final long SEGMENT_BYTES = (long) TILES_PER_SEGMENT * TILE_BYTES;
+
+    private static final VarHandle COUNT = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final LongAdder totalPoints = new LongAdder();
+
+    private MappedHistogram(FileChannel channel, int width, int height, long storedTotal) throws IOException {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+        long tiles = (long) tilesX * ((height + TILE_MASK) >> TILE_SHIFT);
+
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        int segmentCount = (int) ((tiles + TILES_PER_SEGMENT - 1) / TILES_PER_SEGMENT);
+        segments = new MappedByteBuffer[segmentCount];
+        for(int i = 0; i < segmentCount; i++) {
+            long tilesInSegment = Math.min(TILES_PER_SEGMENT, tiles - (long) i * TILES_PER_SEGMENT);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + i * SEGMENT_BYTES,
+                    tilesInSegment * TILE_BYTES);
+        }
+        totalPoints.add(storedTotal);
+    }
+
+    static MappedHistogram create(Path path, int width, int height) throws IOException {
+        if(width < 1 || height < 1) {
+            throw new IllegalArgumentException("Histogram dimensions must be positive");
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedHistogram histogram = new MappedHistogram(channel, width, height, 0);
+            histogram.header.putInt(0, MAGIC);
+            histogram.header.putInt(4, VERSION);
+            histogram.header.putInt(8, width);
+            histogram.header.putInt(12, height);
+            histogram.header.putLong(TOTAL_OFFSET, 0);
+            return histogram;
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static MappedHistogram open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(TOTAL_OFFSET + Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buffer, 0);
+            if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a histogram file: " + path);
+            }
+            return new MappedHistogram(channel, buffer.getInt(8), buffer.getInt(12), buffer.getLong(TOTAL_OFFSET));
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void addPoints(double[] xs, double[] ys, int count) {
+        for(int i = 0; i < count; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            // Compared before the cast, which would truncate (-1, 0) to 0; NaN fails every comparison
+            if(!(x >= 0.0 && x < width && y >= 0.0 && y < height)) {
+                continue;
+            }
+            int px = (int) x;
+            int py = (int) y;
+            long tile = (long) (py >> TILE_SHIFT) * tilesX + (px >> TILE_SHIFT);
+            int offset = (int) (tile % TILES_PER_SEGMENT) * TILE_BYTES
+                    + ((((py & TILE_MASK) << TILE_SHIFT) | (px & TILE_MASK)) << 2);
+            increment(segments[(int) (tile / TILES_PER_SEGMENT)], offset);
+        }
+        totalPoints.add(count);
+    }
+
+    /**
+     * Adds one to a count unless it has reached {@link Integer#MAX_VALUE}, where it stays instead of wrapping.
+     */
+    private static void increment(ByteBuffer segment, int offset) {
+        int count;
+        do {
+            count = (int) COUNT.getVolatile(segment, offset);
+            if(count == Integer.MAX_VALUE) {
+                return;
+            }
+        } while(!COUNT.compareAndSet(segment, offset, count, count + 1));
+    }
+
+    @Override
+    public void readRow(int y, int[] dst) {
+        int rowInTile = (y & TILE_MASK) << TILE_SHIFT;
+        long tileRow = (long) (y >> TILE_SHIFT) * tilesX;
+        for(int tx = 0; tx < tilesX; tx++) {
+            long tile = tileRow + tx;
+            ByteBuffer segment = segments[(int) (tile / TILES_PER_SEGMENT)];
+            int base = (int) (tile % TILES_PER_SEGMENT) * TILE_BYTES + (rowInTile << 2);
+            int x0 = tx << TILE_SHIFT;
+            int columns = Math.min(TILE_SIZE, width - x0);
+            for(int i = 0; i < columns; i++) {
+                dst[x0 + i] = (int) COUNT.getOpaque(segment, base + (i << 2));
+            }
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public long getTotalPoints() {
+        return totalPoints.sum();
+    }
+
+    /**
+     * Writes the total to the header and flushes all dirty pages to the file.
+     */
+    void flush() {
+        header.putLong(TOTAL_OFFSET, totalPoints.sum());
+        header.force();
+        for(MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,397 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders a rule set at an arbitrary resolution, independent of any window. Small renders use an on-heap
+ * histogram with per-walker buffers; large ones, or any render given a histogram file, plot into a
+ * {@link MappedHistogram} shared by all walkers.
+ */
+class OffscreenRender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffscreenRender.class);
+
+    static final long HEAP_PIXEL_LIMIT = 1L << 24;
+
+    private static final int MIN_ROUND_SIZE = 1 << 16;
+    private static final int MAX_ROUND_SIZE = 1 << 22;
+    private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final CompiledRuleSet ruleSet;
+    private final int width;
+    private final int height;
+    private final long iterations;
+    private final RandomAlgorithm randomAlgorithm;
+    private final long seed;
+    private final int threads;
+    private final Checkpoint resumeFrom;
+
+    private Viewport viewport;
+    private ForkJoinPool pool;
+    private Path checkpointFile;
+    private long checkpointIntervalNanos;
+    private boolean interleaved;
+    private Path pointCloudFile;
+    private int pointCloudBits;
+    private boolean untilConverged;
+    private long convergedAt = -1;
+    private RenderCache cache;
+
+    /**
+     * @param ruleSet the rule set in the pixel coordinates of the {@code width} x {@code height} output
+     */
+    OffscreenRender(CompiledRuleSet ruleSet, int width, int height, long iterations, RandomAlgorithm randomAlgorithm,
+                    long seed, int threads) {
+        if(width < 1 || height < 1) {
+            throw new IllegalArgumentException("Output dimensions must be positive");
+        }
+        this.ruleSet = ruleSet;
+        this.width = width;
+        this.height = height;
+        this.iterations = iterations;
+        this.randomAlgorithm = randomAlgorithm;
+        this.seed = seed;
+        this.threads = threads;
+        this.resumeFrom = null;
+        this.viewport = Viewport.IDENTITY;
+    }
+
+    private OffscreenRender(Checkpoint checkpoint, long iterations) {
+        this.ruleSet = checkpoint.getRuleSet();
+        this.width = checkpoint.getWidth();
+        this.height = checkpoint.getHeight();
+        this.iterations = Math.max(iterations, checkpoint.getIterations());
+        this.randomAlgorithm = checkpoint.getRandomAlgorithm();
+        this.seed = checkpoint.getSeed();
+        this.threads = checkpoint.getWorkerCount();
+        this.resumeFrom = checkpoint;
+        this.viewport = checkpoint.getViewport();
+    }
+
+    /**
+     * Continues a checkpointed render. The walkers, seed and thread count come from the checkpoint so the result
+     * matches an uninterrupted run; {@code iterations} may raise the original target but never lower it.
+     */
+    static OffscreenRender resume(Checkpoint checkpoint, long iterations) {
+        return new OffscreenRender(checkpoint, iterations);
+    }
+
+    /**
+     * Renders only the part of the rule set seen through {@code viewport}, whose world coordinates are the pixels of
+     * the full {@code width} x {@code height} view.
+     */
+    void setViewport(Viewport viewport) {
+        if(resumeFrom != null) {
+            throw new IllegalStateException("A resumed render keeps the viewport of its checkpoint");
+        }
+        this.viewport = viewport;
+    }
+
+    /**
+     * Runs the walkers on {@code pool}, e.g. one shared by several renders, instead of a pool of their own.
+     */
+    void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Advances the walkers two at a time per thread, see {@link ParallelChaosGame#setInterleaved}.
+     */
+    void setInterleaved(boolean interleaved) {
+        this.interleaved = interleaved;
+    }
+
+    /**
+     * Stops as soon as a {@link ConvergenceMonitor} finds the image no longer changing, with the iterations only
+     * as a limit.
+     */
+    void setUntilConverged(boolean untilConverged) {
+        this.untilConverged = untilConverged;
+    }
+
+    /**
+     * Looks the render up in {@code cache} first, continues the largest cached run of fewer iterations if there is
+     * one, and caches the result. Only on-heap renders of a fixed number of iterations without a point cloud use
+     * the cache.
+     */
+    void setCache(RenderCache cache) {
+        if(resumeFrom != null) {
+            throw new IllegalStateException("Resumed renders cannot be cached");
+        }
+        this.cache = cache;
+    }
+
+    /**
+     * Also streams every plotted point to {@code file}, see {@link PointCloudWriter}, quantized to
+     * {@code 2^-fractionBits} of a pixel.
+     */
+    void setPointCloud(Path file, int fractionBits) {
+        if(resumeFrom != null) {
+            throw new IllegalStateException("A resumed render cannot record the points plotted before its checkpoint");
+        }
+        if(fractionBits < 0 || fractionBits > PointCloudWriter.MAX_FRACTION_BITS) {
+            throw new IllegalArgumentException("Point precision must be between 0 and "
+                    + PointCloudWriter.MAX_FRACTION_BITS + " bits");
+        }
+        this.pointCloudFile = file;
+        this.pointCloudBits = fractionBits;
+    }
+
+    /**
+     * Saves a checkpoint to {@code file} every {@code intervalSeconds} while rendering, and once more when the
+     * render finishes or is interrupted.
+     */
+    void setCheckpointFile(Path file, long intervalSeconds) {
+        this.checkpointFile = file;
+        this.checkpointIntervalNanos = Math.max(1, intervalSeconds) * 1_000_000_000L;
+    }
+
+    /**
+     * Prepares to run this render on {@link RenderWorker} processes instead, listening for them on {@code port}.
+     */
+    RenderCoordinator distribute(int port) throws IOException {
+        if(resumeFrom != null) {
+            throw new IllegalStateException("Resumed renders cannot be distributed");
+        }
+        RenderCoordinator coordinator = new RenderCoordinator(ruleSet, width, height, iterations, randomAlgorithm,
+                seed, port);
+        coordinator.setViewport(viewport);
+        return coordinator;
+    }
+
+    static boolean needsMappedHistogram(int width, int height) {
+        return (long) width * height > HEAP_PIXEL_LIMIT;
+    }
+
+    /**
+     * Runs the render to completion.
+     *
+     * @param histogramFile where to keep the hit counts, or null to keep them on the heap. Ignored when resuming,
+     *                      which continues in whatever the checkpoint used.
+     */
+    HitBuffer run(Path histogramFile, RenderStats stats) throws IOException, InterruptedException {
+        if(resumeFrom != null) {
+            histogramFile = resumeFrom.getHistogramFile();
+        }
+        if(histogramFile == null && needsMappedHistogram(width, height)) {
+            throw new IllegalArgumentException(width + "x" + height + " is too large for an on-heap histogram");
+        }
+
+        String cacheKey = cacheKey(histogramFile);
+        Checkpoint start = cacheKey != null ? lookup(cacheKey) : resumeFrom;
+        if(start != null && cacheKey != null && start.getIterations() == iterations) {
+            LOG.info("Found {} points at {}x{} in the cache", iterations, width, height);
+            DensityHistogram histogram = new DensityHistogram(width, height);
+            histogram.restore(start.getCounts(), start.getVertices(), start.getTotalPoints());
+            stats.start();
+            stats.finish();
+            return histogram;
+        }
+        WalkerState[] walkers = start != null ? start.getWalkers()
+                : WalkerState.initial(width / 2.0, height / 2.0, randomAlgorithm, seed, threads);
+        RenderEvents.RenderRun event = new RenderEvents.RenderRun("offscreen", width, height, walkers.length,
+                iterations);
+        event.begin();
+        PointCloudWriter pointCloud = openPointCloud();
+        stats.start();
+        try {
+            if(histogramFile == null) {
+                DensityHistogram histogram = new DensityHistogram(width, height);
+                if(start != null) {
+                    histogram.restore(start.getCounts(), start.getVertices(), start.getTotalPoints());
+                }
+                try(ParallelChaosGame game = new ParallelChaosGame(ruleSet, randomAlgorithm, walkers, iterations,
+                        width, height, stats, pool)) {
+                    configure(game, pointCloud);
+                    runRounds(game, histogram, null, Math.max(MIN_ROUND_SIZE, width * height), stats);
+                    if(cacheKey != null) {
+                        store(cacheKey, game, histogram);
+                    }
+                }
+                return histogram;
+            }
+
+            MappedHistogram histogram = resumeFrom != null ? openCheckpointHistogram(histogramFile)
+                    : MappedHistogram.create(histogramFile, width, height);
+            try(ParallelChaosGame game = new ParallelChaosGame(ruleSet, randomAlgorithm, walkers, iterations,
+                    histogram, stats, pool)) {
+                configure(game, pointCloud);
+                runRounds(game, histogram, histogramFile, MAX_ROUND_SIZE, stats);
+                histogram.flush();
+            } catch(IOException | InterruptedException | RuntimeException e) {
+                histogram.close();
+                throw e;
+            }
+            return histogram;
+        } catch(UncheckedIOException e) {
+            // The point cloud's I/O thread failed while the walkers were running
+            throw e.getCause();
+        } finally {
+            stats.finish();
+            event.pointsComputed = stats.getPointsComputed();
+            event.commit();
+            if(pointCloud != null) {
+                pointCloud.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the cache key of this render, or null if it does not use the cache.
+     */
+    private String cacheKey(Path histogramFile) {
+        if(cache == null || histogramFile != null || untilConverged || pointCloudFile != null) {
+            return null;
+        }
+        return RenderCache.key(ruleSet, width, height, seed, randomAlgorithm, threads, viewport);
+    }
+
+    /**
+     * A cache that cannot be read only costs the time of rendering from scratch.
+     */
+    private Checkpoint lookup(String cacheKey) {
+        try {
+            Checkpoint cached = cache.lookup(cacheKey, iterations);
+            if(cached != null && cached.getIterations() < iterations) {
+                LOG.info("Continuing {} cached points", cached.getIterations());
+            }
+            return cached;
+        } catch(IOException e) {
+            LOG.warn("Unable to read the render cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void store(String cacheKey, ParallelChaosGame game, DensityHistogram histogram) {
+        try {
+            cache.store(cacheKey, Checkpoint.capture(game, ruleSet, seed, randomAlgorithm, viewport, histogram,
+                    null));
+        } catch(IOException e) {
+            LOG.warn("Unable to add the render to the cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Points plotted unmapped are in the rule set's own coordinates, so the writer can predict each one from the
+     * last. Points seen through a viewport are not, and are stored as plain differences.
+     */
+    private PointCloudWriter openPointCloud() throws IOException {
+        if(pointCloudFile == null) {
+            return null;
+        }
+        CompiledRuleSet predictor = viewport.isIdentity() ? ruleSet : null;
+        return new PointCloudWriter(pointCloudFile, width, height, pointCloudBits, ruleSet.getVertexCount(),
+                predictor);
+    }
+
+    private void configure(ParallelChaosGame game, PointCloudWriter pointCloud) {
+        game.setInterleaved(interleaved);
+        game.recordPoints(pointCloud);
+        if(!viewport.isIdentity()) {
+            OrbitPrefix prefix = OrbitPrefix.forViewport(ruleSet, viewport, width, height);
+            LOG.info("Rendering viewport {} through {} orbit prefix(es)", viewport, prefix.getPrefixCount());
+            game.setOutputMap(prefix);
+        }
+    }
+
+    private MappedHistogram openCheckpointHistogram(Path histogramFile) throws IOException {
+        MappedHistogram histogram = MappedHistogram.open(histogramFile);
+        if(histogram.getWidth() != width || histogram.getHeight() != height) {
+            histogram.close();
+            throw new IOException("Histogram file " + histogramFile + " does not match the checkpoint");
+        }
+        long extra = histogram.getTotalPoints() - resumeFrom.getTotalPoints();
+        if(extra != 0) {
+            // The mapped counts keep changing after a checkpoint is taken, so a crash leaves points in the file
+            // that the walkers will plot again. They are still valid samples, just not bit-for-bit reproducible.
+            LOG.warn("Histogram file holds {} points more than the checkpoint", extra);
+        }
+        return histogram;
+    }
+
+    private void runRounds(ParallelChaosGame game, HitBuffer histogram, Path histogramFile, int roundSize,
+                           RenderStats stats) throws IOException, InterruptedException {
+        long lastProgress = System.nanoTime();
+        long lastCheckpoint = lastProgress;
+        ConvergenceMonitor monitor = untilConverged ? new ConvergenceMonitor(histogram) : null;
+        try {
+            while(!game.isFinished()) {
+                game.runRound(roundSize);
+                if(histogram instanceof DensityHistogram) {
+                    game.mergeInto((DensityHistogram) histogram);
+                }
+                if(monitor != null && monitor.update()) {
+                    convergedAt = monitor.getConvergedAt();
+                    break;
+                }
+                long now = System.nanoTime();
+                if(now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = now;
+                    LOG.info("{} / {} points", stats.getPointsComputed(), iterations);
+                }
+                // With an interrupt pending the file channel would refuse to write; the next round saves instead
+                if(checkpointFile != null && now - lastCheckpoint >= checkpointIntervalNanos
+                        && !Thread.currentThread().isInterrupted()) {
+                    saveCheckpoint(game, histogram, histogramFile);
+                    lastCheckpoint = System.nanoTime();
+                }
+            }
+        } catch(InterruptedException e) {
+            // runRound lets a round that was interrupted finish and only throws before starting the next one, and
+            // every finished round is merged, so the walkers and histogram are consistent.
+            if(checkpointFile != null) {
+                saveCheckpoint(game, histogram, histogramFile);
+            }
+            throw e;
+        }
+        if(checkpointFile != null) {
+            saveCheckpoint(game, histogram, histogramFile);
+        }
+    }
+
+    private void saveCheckpoint(ParallelChaosGame game, HitBuffer histogram, Path histogramFile)
+            throws IOException {
+        Checkpoint.capture(game, ruleSet, seed, randomAlgorithm, viewport, histogram, histogramFile)
+                .write(checkpointFile);
+        LOG.info("Saved checkpoint {}", checkpointFile);
+    }
+
+    /**
+     * Describes the parameters needed to reproduce this render, e.g. for image metadata.
+     */
+    Map<String, String> describe() {
+        Map<String, String> description = new LinkedHashMap<>();
+        description.put("Iterations", String.valueOf(iterations));
+        if(convergedAt >= 0) {
+            description.put("Converged", String.valueOf(convergedAt));
+        }
+        description.put("Seed", String.valueOf(seed));
+        description.put("Generator", randomAlgorithm.getDisplayName());
+        description.put("Threads", String.valueOf(threads));
+        description.put("Size", width + "x" + height);
+        if(!viewport.isIdentity()) {
+            description.put("View", viewport.toString());
+        }
+        return description;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    long getIterations() {
+        return iterations;
+    }
+}
@@ -0,0 +1,160 @@
+package com.menear;
+
+import javafx.application.Platform;
+import javafx.scene.control.*;
+import javafx.scene.layout.GridPane;
+import javafx.stage.FileChooser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+class OffscreenRenderDialog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffscreenRenderDialog.class);
+
+    private TextField txtWidth = new TextField();
+    private TextField txtHeight = new TextField();
+    private TextField txtIterations = new TextField("100000000");
+    private TextField txtSeed = new TextField();
+
+    private FileChooser fcOutput = new FileChooser();
+
+    OffscreenRenderDialog() {
+        fcOutput.setTitle("Choose Location to Save Off-Screen Render...");
+        fcOutput.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG File", "*.png"));
+    }
+
+    void show() {
+        FractalCanvas fractalCanvas = Fractals.getFractalCanvas();
+        ControlPanel controlPanel = Fractals.getControlPanel();
+
+        CompiledRuleSet ruleSet;
+        try {
+            ruleSet = fractalCanvas.getCurrentRuleSet();
+        } catch(IllegalArgumentException e) {
+            showError("Unable to render the current rule set: " + e.getMessage());
+            return;
+        }
+
+        if(txtWidth.getText().isEmpty()) {
+            txtWidth.setText(String.valueOf((int) fractalCanvas.getCanvasWidth() * 4));
+            txtHeight.setText(String.valueOf((int) fractalCanvas.getCanvasHeight() * 4));
+        }
+        txtSeed.setText(String.valueOf(controlPanel.getSeed()));
+
+        GridPane grid = new GridPane();
+        grid.setHgap(8.0);
+        grid.setVgap(6.0);
+        grid.addRow(0, new Label("Width (px):"), txtWidth);
+        grid.addRow(1, new Label("Height (px):"), txtHeight);
+        grid.addRow(2, new Label("Iterations:"), txtIterations);
+        grid.addRow(3, new Label("Seed:"), txtSeed);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.initOwner(Fractals.getMainStage());
+        dialog.setTitle("Off-Screen Render");
+        dialog.setHeaderText("Render the current shape independently of the canvas size.");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        Optional<ButtonType> response = dialog.showAndWait();
+        if(!response.isPresent() || response.get() != ButtonType.OK) {
+            return;
+        }
+
+        int width;
+        int height;
+        long iterations;
+        long seed;
+        try {
+            width = Integer.parseInt(txtWidth.getText().trim());
+            height = Integer.parseInt(txtHeight.getText().trim());
+            iterations = Long.parseLong(txtIterations.getText().trim());
+            seed = Long.parseLong(txtSeed.getText().trim());
+            if(width < 1 || height < 1 || iterations < 1) {
+                throw new NumberFormatException("Values must be positive");
+            }
+        } catch(NumberFormatException e) {
+            showError("Invalid off-screen render settings: " + e.getMessage());
+            return;
+        }
+
+        File imageFile = fcOutput.showSaveDialog(Fractals.getMainStage());
+        if(imageFile == null) {
+            LOG.info("No output location specified for off-screen render!");
+            return;
+        }
+
+        CompiledRuleSet scaled = ruleSet.transformed(width / fractalCanvas.getCanvasWidth(),
+                height / fractalCanvas.getCanvasHeight(), 0.0, 0.0);
+        OffscreenRender render = new OffscreenRender(scaled, width, height, iterations,
+                controlPanel.getRandomAlgorithm(), seed, controlPanel.getWorkerCount());
+        Path histogramFile = OffscreenRender.needsMappedHistogram(width, height)
+                ? new File(imageFile.getAbsolutePath() + ".hist").toPath() : null;
+        start(render, histogramFile, imageFile);
+    }
+
+    private void start(OffscreenRender render, Path histogramFile, File imageFile) {
+        ToneMapper toneMapper = Fractals.getFractalCanvas().getToneMapper();
+        Map<String, String> description = render.describe();
+        description.put("Tone", toneMapper.describe());
+        RenderStats stats = new RenderStats();
+        AtomicReference<Double> exportProgress = new AtomicReference<>(0.0);
+        Thread[] renderThread = new Thread[1];
+        ProgressWindow progressWindow = new ProgressWindow("Off-Screen Render",
+                "Rendering " + render.getWidth() + "x" + render.getHeight() + "...",
+                () -> exportProgress.get() > 0.0 ? exportProgress.get()
+                        : (double) stats.getPointsComputed() / render.getIterations(),
+                () -> renderThread[0].interrupt());
+
+        renderThread[0] = new Thread(() -> {
+            String message;
+            try {
+                HitBuffer histogram = render.run(histogramFile, stats);
+                try {
+                    Platform.runLater(() -> progressWindow.setStatus("Saving " + imageFile.getName() + "..."));
+                    HistogramExporter.export(histogram, toneMapper, ExportFormat.PNG, imageFile.toPath(),
+                            description, fraction -> exportProgress.set(Math.max(fraction, 1e-6)));
+                    message = "Saved " + imageFile.getAbsolutePath();
+                } finally {
+                    if(histogram instanceof MappedHistogram) {
+                        ((MappedHistogram) histogram).close();
+                    }
+                }
+                LOG.info(message);
+            } catch(InterruptedException e) {
+                message = "Off-screen render cancelled.";
+                LOG.warn(message);
+            } catch(Exception e) {
+                LOG.error("Off-screen render failed!", e);
+                message = "Off-screen render failed: " + e.getMessage();
+            }
+            final String result = message;
+            Platform.runLater(() -> {
+                progressWindow.close();
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Off-Screen Render");
+                alert.setHeaderText(null);
+                alert.setContentText(result);
+                alert.show();
+            });
+        }, "offscreen-render");
+        renderThread[0].setDaemon(true);
+
+        progressWindow.show();
+        renderThread[0].start();
+    }
+
+    private void showError(String message) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        alert.showAndWait();
+    }
+}
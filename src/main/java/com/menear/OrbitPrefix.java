@@ -0,0 +1,260 @@
+package com.menear;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps points of a walker running on the whole attractor into a viewport. With a single map this is just the
+ * world-to-screen transform. When zoomed in, it is the set of composite maps V(f_w1(...f_wk(x))) for the vertex
+ * sequences w whose copy of the attractor overlaps the view, each picked with probability p_w1 * ... * p_wk.
+ * <p>
+ * For an IFS with independent vertex choices the attractor's measure is the weighted sum of its images under all
+ * sequences of a given length, so applying a random prefix to a point that is already on the attractor samples
+ * the measure exactly. Sequences whose copies miss the view contribute nothing there and are dropped, so almost
+ * every point lands on screen however deep the zoom.
+ */
+final class OrbitPrefix {
+
+    private static final int MAX_PREFIXES = 4096;
+    private static final int MAX_DEPTH = 64;
+
+    private final double[] mapA;
+    private final double[] mapB;
+    private final double[] mapC;
+    private final double[] mapD;
+    private final double[] mapE;
+    private final double[] mapF;
+    private final int[] outerVertex;
+    private final SelectionTable table;
+
+    /**
+     * @param outerVertices the vertex applied last by each prefix, or -1 for the plain viewport transform
+     */
+    private OrbitPrefix(List<double[]> matrices, List<Integer> outerVertices, double[] weights) {
+        int n = matrices.size();
+        mapA = new double[n];
+        mapB = new double[n];
+        mapC = new double[n];
+        mapD = new double[n];
+        mapE = new double[n];
+        mapF = new double[n];
+        outerVertex = new int[n];
+        for(int i = 0; i < n; i++) {
+            double[] m = matrices.get(i);
+            outerVertex[i] = outerVertices.get(i);
+            mapA[i] = m[0];
+            mapB[i] = m[1];
+            mapC[i] = m[2];
+            mapD[i] = m[3];
+            mapE[i] = m[4];
+            mapF[i] = m[5];
+        }
+        table = n > 1 ? SelectionTable.compile(VertexSelectionRule.NO_RESTRICTION, weights, null) : null;
+    }
+
+    static OrbitPrefix of(double[] matrix) {
+        List<double[]> matrices = new ArrayList<>(1);
+        matrices.add(matrix);
+        List<Integer> outerVertices = new ArrayList<>(1);
+        outerVertices.add(-1);
+        return new OrbitPrefix(matrices, outerVertices, new double[] {1.0});
+    }
+
+    /**
+     * Builds the prefixes for showing {@code ruleSet}, given in world coordinates, through a viewport of
+     * {@code width} x {@code height} pixels. Falls back to the plain viewport transform for rules whose vertex
+     * choices depend on history, or maps that are not contractions, where the decomposition does not hold.
+     */
+    static OrbitPrefix forViewport(CompiledRuleSet ruleSet, Viewport viewport, int width, int height) {
+        double[] view = viewport.getMatrix();
+        double[] bounds = ruleSet.getSelectionTable().getLag() == 0 ? attractorBounds(ruleSet) : null;
+        if(bounds == null) {
+            return of(view);
+        }
+
+        int n = ruleSet.getVertexCount();
+        double[][] maps = new double[n][];
+        double[] weights = ruleSet.getProbabilities();
+        double total = 0.0;
+        for(int i = 0; i < n; i++) {
+            maps[i] = ruleSet.getMatrix(i);
+            total += weights != null ? weights[i] : 1.0;
+        }
+        double[] probabilities = new double[n];
+        for(int i = 0; i < n; i++) {
+            probabilities[i] = (weights != null ? weights[i] : 1.0) / total;
+        }
+
+        // Refine one level at a time until every copy spans at most a quarter of the view or the budget is used up
+        double target = Math.max(width, height) / 4.0;
+        List<double[]> frontier = new ArrayList<>();
+        List<Double> frontierWeights = new ArrayList<>();
+        List<Integer> frontierVertices = new ArrayList<>();
+        frontier.add(view);
+        frontierWeights.add(1.0);
+        frontierVertices.add(-1);
+        for(int depth = 0; depth < MAX_DEPTH; depth++) {
+            List<double[]> next = new ArrayList<>();
+            List<Double> nextWeights = new ArrayList<>();
+            List<Integer> nextVertices = new ArrayList<>();
+            boolean refined = false;
+            for(int j = 0; j < frontier.size() && next.size() <= MAX_PREFIXES; j++) {
+                double[] prefix = frontier.get(j);
+                if(extent(prefix, bounds) <= target) {
+                    next.add(prefix);
+                    nextWeights.add(frontierWeights.get(j));
+                    nextVertices.add(frontierVertices.get(j));
+                    continue;
+                }
+                refined = true;
+                for(int i = 0; i < n; i++) {
+                    if(probabilities[i] <= 0.0) {
+                        continue;
+                    }
+                    double[] child = compose(prefix, maps[i]);
+                    if(intersects(child, bounds, width, height)) {
+                        next.add(child);
+                        nextWeights.add(frontierWeights.get(j) * probabilities[i]);
+                        // The first map after the view transform is the last one applied to the point
+                        nextVertices.add(frontierVertices.get(j) < 0 ? i : frontierVertices.get(j));
+                    }
+                }
+            }
+            if(!refined || next.isEmpty() || next.size() > MAX_PREFIXES) {
+                break;
+            }
+            frontier = next;
+            frontierWeights = nextWeights;
+            frontierVertices = nextVertices;
+        }
+
+        double[] prefixWeights = new double[frontier.size()];
+        double sum = 0.0;
+        for(int i = 0; i < prefixWeights.length; i++) {
+            prefixWeights[i] = frontierWeights.get(i);
+            sum += prefixWeights[i];
+        }
+        if(!(sum > 0.0)) {
+            return of(view);
+        }
+        return new OrbitPrefix(frontier, frontierVertices, prefixWeights);
+    }
+
+    /**
+     * Maps {@code count} points in place through randomly chosen prefixes, updating their vertices to the one the
+     * prefix applied last.
+     */
+    void apply(RandomSource random, double[] xs, double[] ys, byte[] vertices, int count) {
+        if(table == null) {
+            double a = mapA[0];
+            double b = mapB[0];
+            double c = mapC[0];
+            double d = mapD[0];
+            double e = mapE[0];
+            double f = mapF[0];
+            for(int i = 0; i < count; i++) {
+                double x = xs[i];
+                xs[i] = a * x + b * ys[i] + e;
+                ys[i] = c * x + d * ys[i] + f;
+            }
+            return;
+        }
+        for(int i = 0; i < count; i++) {
+            int p = table.next(random, 0);
+            double x = xs[i];
+            xs[i] = mapA[p] * x + mapB[p] * ys[i] + mapE[p];
+            ys[i] = mapC[p] * x + mapD[p] * ys[i] + mapF[p];
+            if(outerVertex[p] >= 0) {
+                vertices[i] = (byte) outerVertex[p];
+            }
+        }
+    }
+
+    /**
+     * Returns how many random numbers {@link #apply} draws per point.
+     */
+    int getDrawsPerPoint() {
+        return table == null ? 0 : 1;
+    }
+
+    int getPrefixCount() {
+        return mapA.length;
+    }
+
+    /**
+     * Returns a square {minX, minY, maxX, maxY} that contains the attractor, or null if some map is not a
+     * contraction. The square is the ball |x - c| <= r with r = max |f_i(c) - c| / (1 - L_i), which every map
+     * sends into itself.
+     */
+    static double[] attractorBounds(CompiledRuleSet ruleSet) {
+        int n = ruleSet.getVertexCount();
+        double cx = 0.0;
+        double cy = 0.0;
+        for(int i = 0; i < n; i++) {
+            double[] fixedPoint = CompiledRuleSet.fixedPoint(ruleSet.getMatrix(i));
+            cx += fixedPoint[0] / n;
+            cy += fixedPoint[1] / n;
+        }
+        double radius = 0.0;
+        for(int i = 0; i < n; i++) {
+            double[] m = ruleSet.getMatrix(i);
+            double lipschitz = operatorNorm(m);
+            if(!(lipschitz < 1.0 - 1e-9)) {
+                return null;
+            }
+            double dx = m[0] * cx + m[1] * cy + m[4] - cx;
+            double dy = m[2] * cx + m[3] * cy + m[5] - cy;
+            radius = Math.max(radius, Math.hypot(dx, dy) / (1.0 - lipschitz));
+        }
+        return new double[] {cx - radius, cy - radius, cx + radius, cy + radius};
+    }
+
+    private static double operatorNorm(double[] m) {
+        // Largest singular value of [[a, b], [c, d]]
+        double p = m[0] * m[0] + m[1] * m[1] + m[2] * m[2] + m[3] * m[3];
+        double det = m[0] * m[3] - m[1] * m[2];
+        return Math.sqrt((p + Math.sqrt(Math.max(0.0, p * p - 4.0 * det * det))) / 2.0);
+    }
+
+    /**
+     * Returns outer(inner(x)).
+     */
+    private static double[] compose(double[] outer, double[] inner) {
+        return new double[] {
+                outer[0] * inner[0] + outer[1] * inner[2],
+                outer[0] * inner[1] + outer[1] * inner[3],
+                outer[2] * inner[0] + outer[3] * inner[2],
+                outer[2] * inner[1] + outer[3] * inner[3],
+                outer[0] * inner[4] + outer[1] * inner[5] + outer[4],
+                outer[2] * inner[4] + outer[3] * inner[5] + outer[5]
+        };
+    }
+
+    private static double extent(double[] m, double[] bounds) {
+        double[] box = imageBounds(m, bounds);
+        return Math.max(box[2] - box[0], box[3] - box[1]);
+    }
+
+    private static boolean intersects(double[] m, double[] bounds, int width, int height) {
+        double[] box = imageBounds(m, bounds);
+        return box[2] >= 0.0 && box[3] >= 0.0 && box[0] <= width && box[1] <= height;
+    }
+
+    private static double[] imageBounds(double[] m, double[] bounds) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int corner = 0; corner < 4; corner++) {
+            double x = (corner & 1) == 0 ? bounds[0] : bounds[2];
+            double y = (corner & 2) == 0 ? bounds[1] : bounds[3];
+            double tx = m[0] * x + m[1] * y + m[4];
+            double ty = m[2] * x + m[3] * y + m[5];
+            minX = Math.min(minX, tx);
+            minY = Math.min(minY, ty);
+            maxX = Math.max(maxX, tx);
+            maxY = Math.max(maxY, ty);
+        }
+        return new double[] {minX, minY, maxX, maxY};
+    }
+}
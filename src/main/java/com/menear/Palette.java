@@ -0,0 +1,75 @@
+package com.menear;
+
+import java.awt.Color;
+
+/**
+ * Colour gradients from the dimmest to the brightest lit pixel. {@link #BY_VERTEX} instead tints each pixel with
+ * the colour of the vertex that last moved a point onto it.
+ */
+public enum Palette {
+
+    LIME("Lime", 0x0B3D0B, 0.0, 0x32CD32, 0.75, 0xF0FFF0, 1.0),
+    GRAYSCALE("Grayscale", 0x262626, 0.0, 0xFFFFFF, 1.0),
+    FIRE("Fire", 0x300000, 0.0, 0xB01000, 0.35, 0xFF8000, 0.6, 0xFFE040, 0.85, 0xFFFFFF, 1.0),
+    ICE("Ice", 0x000A30, 0.0, 0x0050B0, 0.4, 0x40C8FF, 0.75, 0xFFFFFF, 1.0),
+    SPECTRAL("Spectral", 0x3020A0, 0.0, 0x0090FF, 0.25, 0x20D060, 0.5, 0xFFE000, 0.75, 0xFF2000, 1.0),
+    BY_VERTEX("By Last Vertex", 0x262626, 0.0, 0xFFFFFF, 1.0);
+
+    static final int LEVELS = 1024;
+
+    private final String displayName;
+    private final double[] stops;
+
+    /**
+     * @param stops pairs of RGB colour and position in [0, 1], in increasing order of position
+     */
+    Palette(String displayName, double... stops) {
+        this.displayName = displayName;
+        this.stops = stops;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Samples the gradient at {@link #LEVELS} evenly spaced positions.
+     */
+    int[] buildLut() {
+        int[] lut = new int[LEVELS];
+        for(int level = 0; level < LEVELS; level++) {
+            double t = level / (double) (LEVELS - 1);
+            int stop = 0;
+            while(stop + 3 < stops.length && stops[stop + 3] < t) {
+                stop += 2;
+            }
+            int from = (int) stops[stop];
+            if(stop + 3 >= stops.length) {
+                lut[level] = 0xFF000000 | from;
+                continue;
+            }
+            int to = (int) stops[stop + 2];
+            double span = stops[stop + 3] - stops[stop + 1];
+            double f = span > 0.0 ? Math.max(0.0, Math.min(1.0, (t - stops[stop + 1]) / span)) : 1.0;
+            lut[level] = 0xFF000000 | (lerp(from >> 16, to >> 16, f) << 16) | (lerp(from >> 8, to >> 8, f) << 8)
+                    | lerp(from, to, f);
+        }
+        return lut;
+    }
+
+    /**
+     * Returns the colour of vertex {@code vertex} at full brightness, spreading hues by the golden angle so that
+     * neighbouring vertices stay distinguishable however many there are.
+     */
+    static int vertexColor(int vertex) {
+        double hue = (vertex * 0.618033988749895) % 1.0;
+        return Color.HSBtoRGB((float) hue, 0.75f, 1.0f) & 0xFFFFFF;
+    }
+
+    private static int lerp(int from, int to, double f) {
+        from &= 0xFF;
+        to &= 0xFF;
+        return (int) Math.round(from + (to - from) * f);
+    }
+
+}
@@ -0,0 +1,437 @@
+package com.menear;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several independent chaos game walkers on a fork-join pool. Every walker owns its random stream and a
+ * private hit buffer, and is assigned a fixed share of the iterations up front, so the merged histogram for a
+ * given seed and worker count is the same no matter how the rounds are sized or scheduled.
+ * <p>
+ * Targets too large to duplicate per walker, such as a {@link MappedHistogram}, can instead be shared by all
+ * walkers as long as they accept concurrent writes.
+ * <p>
+ * By default every game has a pool with one thread per walker. Games running side by side can share one pool
+ * instead, so that together they never use more threads than it has.
+ */
+class ParallelChaosGame implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final Walker[] walkers;
+    private final DensityHistogram[] buffers;
+    private final RenderStats stats;
+    private final long iterations;
+    private final int firstWalker;
+    private final int totalWalkers;
+    private int nextWalker;
+    private boolean interleaved;
+
+    ParallelChaosGame(CompiledRuleSet ruleSet, RandomAlgorithm algorithm, WalkerState[] walkerStates,
+                      long iterations, int width, int height, RenderStats stats) {
+        this(ruleSet, algorithm, walkerStates, iterations, width, height, stats, null);
+    }
+
+    /**
+     * @param pool the pool to run the walkers on, or null to create one for this game
+     */
+    ParallelChaosGame(CompiledRuleSet ruleSet, RandomAlgorithm algorithm, WalkerState[] walkerStates,
+                      long iterations, int width, int height, RenderStats stats, ForkJoinPool pool) {
+        this(ruleSet, algorithm, walkerStates, 0, walkerStates.length, iterations,
+                privateBuffers(walkerStates.length, width, height), null, stats, pool);
+    }
+
+    /**
+     * Runs walkers {@code firstWalker} onwards of a render split over {@code totalWalkers}. Each walker gets the
+     * share of {@code iterations} it has in the whole render, so parts run in separate processes add up to it.
+     */
+    ParallelChaosGame(CompiledRuleSet ruleSet, RandomAlgorithm algorithm, WalkerState[] walkerStates,
+                      int firstWalker, int totalWalkers, long iterations, int width, int height,
+                      RenderStats stats) {
+        this(ruleSet, algorithm, walkerStates, firstWalker, totalWalkers, iterations,
+                privateBuffers(walkerStates.length, width, height), null, stats, null);
+    }
+
+    /**
+     * Creates walkers that all plot straight into {@code sharedTarget}, which must be safe for concurrent use.
+     */
+    ParallelChaosGame(CompiledRuleSet ruleSet, RandomAlgorithm algorithm, WalkerState[] walkerStates,
+                      long iterations, HitBuffer sharedTarget, RenderStats stats) {
+        this(ruleSet, algorithm, walkerStates, iterations, sharedTarget, stats, null);
+    }
+
+    ParallelChaosGame(CompiledRuleSet ruleSet, RandomAlgorithm algorithm, WalkerState[] walkerStates,
+                      long iterations, HitBuffer sharedTarget, RenderStats stats, ForkJoinPool pool) {
+        this(ruleSet, algorithm, walkerStates, 0, walkerStates.length, iterations, null, sharedTarget, stats, pool);
+    }
+
+    /**
+     * Walkers resumed from a checkpoint keep the points they already plotted, so raising {@code iterations} above
+     * the original target only adds each walker's extra share on top.
+     */
+    private ParallelChaosGame(CompiledRuleSet ruleSet, RandomAlgorithm algorithm, WalkerState[] walkerStates,
+                              int firstWalker, int totalWalkers, long iterations, DensityHistogram[] buffers,
+                              HitBuffer sharedTarget, RenderStats stats, ForkJoinPool pool) {
+        int workers = walkerStates.length;
+        if(workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        if(firstWalker < 0 || firstWalker + workers > totalWalkers) {
+            throw new IllegalArgumentException("Walkers " + firstWalker + " to " + (firstWalker + workers - 1)
+                    + " are not part of a render with " + totalWalkers);
+        }
+        this.stats = stats;
+        this.buffers = buffers;
+        this.iterations = iterations;
+        this.firstWalker = firstWalker;
+        this.totalWalkers = totalWalkers;
+        this.pool = pool != null ? pool : new ForkJoinPool(workers);
+        this.ownsPool = pool == null;
+        walkers = new Walker[workers];
+
+        for(int i = 0; i < workers; i++) {
+            WalkerState state = walkerStates[i];
+            long share = WalkerState.share(iterations, totalWalkers, firstWalker + i);
+            long remaining = Math.max(0, share - state.getPointsDone());
+            HitBuffer target = buffers != null ? buffers[i] : sharedTarget;
+            walkers[i] = new Walker(ChaosGameEngine.restore(ruleSet, algorithm, state), target,
+                    state.getPointsDone(), remaining);
+        }
+    }
+
+    private static DensityHistogram[] privateBuffers(int workers, int width, int height) {
+        DensityHistogram[] buffers = new DensityHistogram[Math.max(workers, 0)];
+        for(int i = 0; i < buffers.length; i++) {
+            buffers[i] = new DensityHistogram(width, height);
+        }
+        return buffers;
+    }
+
+    /**
+     * Advances every unfinished walker by at most {@code pointsPerWalker} points in parallel.
+     */
+    void runRound(int pointsPerWalker) throws InterruptedException {
+        List<Walker> active = new ArrayList<>(walkers.length);
+        List<Long> quotas = new ArrayList<>(walkers.length);
+        for(Walker walker : walkers) {
+            if(walker.remaining > 0) {
+                active.add(walker);
+                quotas.add((long) pointsPerWalker);
+            }
+        }
+        runTasks(tasksFor(active, quotas));
+    }
+
+    /**
+     * Advances the unfinished walkers by {@code points} points in total, spread as evenly as possible. Each call
+     * starts with the walker after the last one that got an extra point, so that at a few points per round every
+     * walker still moves in turn. Which walker computes a point never changes the result.
+     */
+    void runPoints(long points) throws InterruptedException {
+        List<Walker> active = new ArrayList<>(walkers.length);
+        for(Walker walker : walkers) {
+            if(walker.remaining > 0) {
+                active.add(walker);
+            }
+        }
+        if(active.isEmpty()) {
+            return;
+        }
+        int count = active.size();
+        long base = points / count;
+        int extra = (int) (points % count);
+        int first = nextWalker % count;
+        List<Walker> selected = new ArrayList<>(count);
+        List<Long> quotas = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            long quota = base + (i < extra ? 1 : 0);
+            if(quota > 0) {
+                selected.add(active.get((first + i) % count));
+                quotas.add(quota);
+            }
+        }
+        nextWalker = (first + extra) % count;
+        runTasks(tasksFor(selected, quotas));
+    }
+
+    /**
+     * Makes {@link #runRound} and {@link #runPoints} advance the walkers two at a time per task with
+     * {@link ChaosGameEngine#nextPair}, which helps when there are more walkers than pool threads. Walkers that
+     * cannot be paired, e.g. because they use SplitMix64, still run one at a time. The points are the same either
+     * way.
+     */
+    void setInterleaved(boolean interleaved) {
+        this.interleaved = interleaved;
+    }
+
+    private List<Callable<Void>> tasksFor(List<Walker> selected, List<Long> quotas) {
+        List<Callable<Void>> tasks = new ArrayList<>(selected.size());
+        for(int i = 0; i < selected.size(); i++) {
+            Walker walker = selected.get(i);
+            long quota = quotas.get(i);
+            if(interleaved && i + 1 < selected.size()
+                    && ChaosGameEngine.canPair(walker.engine, selected.get(i + 1).engine)) {
+                Walker partner = selected.get(i + 1);
+                long partnerQuota = quotas.get(i + 1);
+                tasks.add(() -> {
+                    stats.addPointsComputed(Walker.advancePair(walker, quota, partner, partnerQuota));
+                    return null;
+                });
+                i++;
+            } else {
+                tasks.add(() -> {
+                    stats.addPointsComputed(walker.advance(quota));
+                    return null;
+                });
+            }
+        }
+        return tasks;
+    }
+
+    private void runTasks(List<Callable<Void>> tasks) throws InterruptedException {
+        if(Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        RenderEvents.RoundCompleted event = new RenderEvents.RoundCompleted();
+        event.begin();
+        long start = System.nanoTime();
+        long points = -pointsDone();
+        long draws = -randomDraws();
+        awaitAll(pool.invokeAll(tasks));
+        points += pointsDone();
+        draws += randomDraws();
+        RenderMetrics.recordRound(start, points, draws);
+        event.walkers = tasks.size();
+        event.points = points;
+        event.randomDraws = draws;
+        event.commit();
+    }
+
+    /**
+     * Waits for every task, then rethrows the first failure among them, such as a point cloud that could not be
+     * written. An interrupt does not cut the wait short: the walkers would already have moved on by points that
+     * were never merged. It is kept for the next {@link #runTasks}, which throws before starting another round.
+     */
+    private static void awaitAll(List<Future<Void>> futures) throws InterruptedException {
+        boolean interrupted = false;
+        Throwable failure = null;
+        for(Future<Void> future : futures) {
+            while(true) {
+                try {
+                    future.get();
+                    break;
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                } catch(ExecutionException e) {
+                    if(failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if(failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        }
+        if(failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if(failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if(failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    private long pointsDone() {
+        long points = 0;
+        for(Walker walker : walkers) {
+            points += walker.done;
+        }
+        return points;
+    }
+
+    private long randomDraws() {
+        long draws = 0;
+        for(Walker walker : walkers) {
+            draws += walker.engine.getRandomDraws();
+        }
+        return draws;
+    }
+
+    /**
+     * Advances every walker by {@code steps} points without plotting or counting them, so that walkers starting
+     * off the attractor settle onto it first.
+     */
+    void burnIn(int steps) throws InterruptedException {
+        List<Callable<Void>> tasks = new ArrayList<>(walkers.length);
+        for(Walker walker : walkers) {
+            tasks.add(() -> {
+                walker.skip(steps);
+                return null;
+            });
+        }
+        if(Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        awaitAll(pool.invokeAll(tasks));
+    }
+
+    /**
+     * Adds the points plotted since the last merge to {@code target}. Does nothing when the walkers plot into a
+     * shared target.
+     */
+    void mergeInto(DensityHistogram target) {
+        if(buffers != null) {
+            RenderEvents.HistogramMerged event = new RenderEvents.HistogramMerged();
+            event.begin();
+            long start = System.nanoTime();
+            target.mergeFrom(buffers, pool);
+            RenderMetrics.MERGES.record(System.nanoTime() - start);
+            event.buffers = buffers.length;
+            event.commit();
+        }
+    }
+
+    boolean isFinished() {
+        for(Walker walker : walkers) {
+            if(walker.remaining > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getWorkerCount() {
+        return walkers.length;
+    }
+
+    long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Streams every point the walkers plot from now on to {@code writer}, one stream per walker. Only call between
+     * rounds.
+     */
+    void recordPoints(PointCloudWriter writer) {
+        for(Walker walker : walkers) {
+            walker.stream = writer != null ? writer.newStream() : null;
+        }
+    }
+
+    /**
+     * Routes every walker's points through {@code outputMap}, or plots them unchanged if it is null. Only call
+     * between rounds.
+     */
+    void setOutputMap(OrbitPrefix outputMap) {
+        for(Walker walker : walkers) {
+            walker.engine.setOutputMap(outputMap);
+        }
+    }
+
+    /**
+     * Starts counting every walker's share of the iterations from zero again, keeping their positions and random
+     * streams. Used when the points plotted so far are discarded, e.g. after the viewport changed.
+     */
+    void restartIterations() {
+        for(int i = 0; i < walkers.length; i++) {
+            walkers[i].done = 0;
+            walkers[i].remaining = WalkerState.share(iterations, totalWalkers, firstWalker + i);
+        }
+    }
+
+    /**
+     * Captures every walker between rounds. Points still sitting in private buffers are not part of the snapshot,
+     * so callers merge before taking one.
+     */
+    WalkerState[] snapshotWalkers() {
+        WalkerState[] states = new WalkerState[walkers.length];
+        for(int i = 0; i < walkers.length; i++) {
+            states[i] = walkers[i].engine.snapshot(walkers[i].done);
+        }
+        return states;
+    }
+
+    @Override
+    public void close() {
+        if(ownsPool) {
+            pool.shutdownNow();
+        }
+    }
+
+    private static class Walker {
+
+        private final ChaosGameEngine engine;
+        private final HitBuffer buffer;
+        private final double[] xs = new double[BATCH_SIZE];
+        private final double[] ys = new double[BATCH_SIZE];
+        private final byte[] vertices = new byte[BATCH_SIZE];
+        private PointCloudWriter.Stream stream;
+        private long done;
+        private long remaining;
+
+        Walker(ChaosGameEngine engine, HitBuffer buffer, long done, long remaining) {
+            this.engine = engine;
+            this.buffer = buffer;
+            this.done = done;
+            this.remaining = remaining;
+        }
+
+        void skip(int points) {
+            for(int todo = points; todo > 0; todo -= BATCH_SIZE) {
+                engine.next(xs, ys, vertices, Math.min(BATCH_SIZE, todo));
+            }
+        }
+
+        long advance(long points) throws InterruptedException {
+            long todo = Math.min(points, remaining);
+            long advanced = todo;
+            while(todo > 0) {
+                int count = (int) Math.min(BATCH_SIZE, todo);
+                engine.next(xs, ys, vertices, count);
+                plot(count);
+                todo -= count;
+            }
+            return advanced;
+        }
+
+        /**
+         * Advances two walkers together for as long as both have points to do, then finishes the longer one alone.
+         */
+        static long advancePair(Walker first, long firstPoints, Walker second, long secondPoints)
+                throws InterruptedException {
+            long firstTodo = Math.min(firstPoints, first.remaining);
+            long secondTodo = Math.min(secondPoints, second.remaining);
+            long common = Math.min(firstTodo, secondTodo);
+            for(long todo = common; todo > 0; ) {
+                int count = (int) Math.min(BATCH_SIZE, todo);
+                ChaosGameEngine.nextPair(first.engine, second.engine, first.xs, first.ys, first.vertices, second.xs,
+                        second.ys, second.vertices, count);
+                first.plot(count);
+                second.plot(count);
+                todo -= count;
+            }
+            return 2 * common + first.advance(firstTodo - common) + second.advance(secondTodo - common);
+        }
+
+        private void plot(int count) throws InterruptedException {
+            buffer.addPoints(xs, ys, vertices, count);
+            if(stream != null) {
+                stream.add(xs, ys, vertices, count);
+            }
+            done += count;
+            remaining -= count;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.menear;
+
+import java.util.Locale;
+
+/**
+ * A series of rule set variants that differ in one parameter, evenly spaced between two values.
+ */
+final class ParameterSweep {
+
+    enum Parameter {
+        RATIO("Contraction Ratio"),
+        VERTICES("Vertex Count");
+
+        private final String displayName;
+
+        Parameter(String displayName) {
+            this.displayName = displayName;
+        }
+
+        String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final Parameter parameter;
+    private final double from;
+    private final double to;
+    private final int steps;
+
+    ParameterSweep(Parameter parameter, double from, double to, int steps) {
+        if(steps < 1 || Double.isNaN(from) || Double.isNaN(to)) {
+            throw new IllegalArgumentException("A sweep needs at least one step");
+        }
+        if(parameter == Parameter.RATIO && (!(from > 0.0 && from < 1.0) || !(to > 0.0 && to < 1.0))) {
+            throw new IllegalArgumentException("Contraction ratios must lie between 0 and 1");
+        }
+        if(parameter == Parameter.VERTICES && (Math.min(from, to) < 3 || Math.max(from, to) > 64)) {
+            throw new IllegalArgumentException("Vertex counts must lie between 3 and 64");
+        }
+        this.parameter = parameter;
+        this.from = from;
+        this.to = to;
+        this.steps = steps;
+    }
+
+    /**
+     * Parses {@code ratio=<from>:<to>:<steps>} or {@code vertices=<from>:<to>}, e.g. from the command line.
+     */
+    static ParameterSweep parse(String spec) {
+        int equals = spec.indexOf('=');
+        String[] range = spec.substring(equals + 1).split(":");
+        if(equals < 0 || range.length < 2 || range.length > 3) {
+            throw new IllegalArgumentException("Expected a sweep as ratio=<from>:<to>:<steps> or "
+                    + "vertices=<from>:<to> but got: " + spec);
+        }
+        try {
+            Parameter parameter = Parameter.valueOf(spec.substring(0, equals).trim().toUpperCase(Locale.ROOT));
+            double from = Double.parseDouble(range[0].trim());
+            double to = Double.parseDouble(range[1].trim());
+            int steps = range.length == 3 ? Integer.parseInt(range[2].trim())
+                    : (int) Math.round(Math.abs(to - from)) + 1;
+            return new ParameterSweep(parameter, from, to, steps);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sweep range: " + spec);
+        }
+    }
+
+    int size() {
+        return steps;
+    }
+
+    double value(int step) {
+        double value = steps == 1 ? from : from + (to - from) * step / (steps - 1);
+        return parameter == Parameter.VERTICES ? Math.round(value) : value;
+    }
+
+    /**
+     * Returns a short name for the variant, usable in file names.
+     */
+    String label(int step) {
+        if(parameter == Parameter.VERTICES) {
+            return String.format(Locale.ROOT, "vertices-%d", (int) value(step));
+        }
+        return String.format(Locale.ROOT, "ratio-%.4f", value(step));
+    }
+
+    /**
+     * Builds the variant of {@code base} for {@code step}. Vertex count sweeps replace the shape with a regular
+     * polygon whose ratio makes the copies just touch, keeping the selection rule of {@code base}.
+     */
+    CompiledRuleSet apply(CompiledRuleSet base, int step, double width, double height) {
+        if(parameter == Parameter.RATIO) {
+            return base.withRatio(value(step));
+        }
+        int vertices = (int) value(step);
+        return CompiledRuleSet.regularPolygon(vertices, width, height, touchingRatio(vertices),
+                base.getSelectionRule());
+    }
+
+    /**
+     * Returns the largest ratio at which the copies of a regular {@code vertices}-gon do not overlap.
+     */
+    static double touchingRatio(int vertices) {
+        double sum = 0.0;
+        for(int k = 1; k <= vertices / 4; k++) {
+            sum += Math.cos(2.0 * Math.PI * k / vertices);
+        }
+        return 1.0 / (2.0 * (1.0 + sum));
+    }
+
+    Parameter getParameter() {
+        return parameter;
+    }
+}
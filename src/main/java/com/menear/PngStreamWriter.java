@@ -0,0 +1,153 @@
+package com.menear;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a PNG one row at a time, so the whole image never has to be held in memory. Rows use the Sub filter
+ * and are deflated into IDAT chunks of bounded size as they arrive.
+ */
+class PngStreamWriter implements AutoCloseable {
+
+    static final int COLOR_TYPE_GRAY = 0;
+    static final int COLOR_TYPE_RGB = 2;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IDAT_SIZE = 1 << 16;
+    private static final int FILTER_SUB = 1;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int bytesPerPixel;
+    private final int rowBytes;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] filtered;
+    private final byte[] idat = new byte[IDAT_SIZE];
+    private int idatLength;
+    private final CRC32 crc = new CRC32();
+    private int rowsWritten;
+
+    /**
+     * @param bitDepth  8 or 16
+     * @param colorType {@link #COLOR_TYPE_GRAY} or {@link #COLOR_TYPE_RGB}
+     * @param text      tEXt key/value pairs written before the image data
+     */
+    PngStreamWriter(OutputStream out, int width, int height, int bitDepth, int colorType, Map<String, String> text)
+            throws IOException {
+        if(bitDepth != 8 && bitDepth != 16) {
+            throw new IllegalArgumentException("Unsupported bit depth " + bitDepth);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.bytesPerPixel = (colorType == COLOR_TYPE_RGB ? 3 : 1) * (bitDepth / 8);
+        this.rowBytes = width * bytesPerPixel;
+        this.filtered = new byte[rowBytes + 1];
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = (byte) colorType;
+        writeChunk("IHDR", header, header.length);
+        for(Map.Entry<String, String> entry : text.entrySet()) {
+            byte[] keyword = entry.getKey().getBytes(StandardCharsets.ISO_8859_1);
+            byte[] value = entry.getValue().getBytes(StandardCharsets.ISO_8859_1);
+            byte[] data = new byte[keyword.length + 1 + value.length];
+            System.arraycopy(keyword, 0, data, 0, keyword.length);
+            System.arraycopy(value, 0, data, keyword.length + 1, value.length);
+            writeChunk("tEXt", data, data.length);
+        }
+    }
+
+    /**
+     * Writes one row of raw samples: big-endian, {@code width * bytesPerPixel} bytes long.
+     */
+    void writeRow(byte[] row) throws IOException {
+        if(rowsWritten >= height) {
+            throw new IllegalStateException("All " + height + " rows have already been written");
+        }
+        filtered[0] = FILTER_SUB;
+        for(int i = 0; i < bytesPerPixel; i++) {
+            filtered[i + 1] = row[i];
+        }
+        for(int i = bytesPerPixel; i < rowBytes; i++) {
+            filtered[i + 1] = (byte) (row[i] - row[i - bytesPerPixel]);
+        }
+        deflater.setInput(filtered, 0, rowBytes + 1);
+        while(!deflater.needsInput()) {
+            deflate();
+        }
+        rowsWritten++;
+    }
+
+    /**
+     * Converts a row of ARGB pixels starting at {@code offset} to RGB samples and writes it; {@code scratch} must
+     * hold {@code width * 3} bytes.
+     */
+    void writeArgbRow(int[] argb, int offset, byte[] scratch) throws IOException {
+        for(int x = 0, i = 0; x < width; x++) {
+            int pixel = argb[offset + x];
+            scratch[i++] = (byte) (pixel >> 16);
+            scratch[i++] = (byte) (pixel >> 8);
+            scratch[i++] = (byte) pixel;
+        }
+        writeRow(scratch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if(rowsWritten != height) {
+                throw new IOException("Only " + rowsWritten + " of " + height + " rows were written");
+            }
+            deflater.finish();
+            while(!deflater.finished()) {
+                deflate();
+            }
+            if(idatLength > 0) {
+                writeChunk("IDAT", idat, idatLength);
+            }
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void deflate() throws IOException {
+        idatLength += deflater.deflate(idat, idatLength, idat.length - idatLength);
+        if(idatLength == idat.length) {
+            writeChunk("IDAT", idat, idatLength);
+            idatLength = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] lengthBytes = new byte[4];
+        putInt(lengthBytes, 0, length);
+        out.write(lengthBytes);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        putInt(crcBytes, 0, (int) crc.getValue());
+        out.write(crcBytes);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
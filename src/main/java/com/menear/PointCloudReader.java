@@ -0,0 +1,326 @@
+package com.menear;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file written by {@link PointCloudWriter} through memory-mapped windows, one block at a time. Blocks can
+ * be read in any order using the footer's index; a file without one, e.g. from a render that crashed, is indexed
+ * by skipping from block header to block header. Not safe for use by several threads at once; open one reader per
+ * thread instead.
+ */
+final class PointCloudReader implements AutoCloseable {
+
+    private static final long WINDOW_BYTES = 1L << 30;
+    private static final int MAX_PAYLOAD_BYTES = PointCloudWriter.BLOCK_POINTS * 22;
+
+    /**
+     * Receives decoded points.
+     */
+    interface PointConsumer {
+        void accept(double x, double y, int vertex);
+    }
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int width;
+    private final int height;
+    private final int fractionBits;
+    private final int vertexBits;
+    private final double[][] maps;
+    private final long[] blockOffsets;
+    private final long pointCount;
+
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[0];
+    private final byte[] payload = new byte[MAX_PAYLOAD_BYTES];
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+
+    private PointCloudReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        fileSize = channel.size();
+        ByteBuffer header = read(0, (int) Math.min(fileSize, PointCloudWriter.HEADER_BYTES + 4));
+        if(header.remaining() < PointCloudWriter.HEADER_BYTES || header.getInt() != PointCloudWriter.MAGIC) {
+            throw new IOException("Not a point cloud file");
+        }
+        int version = header.getInt();
+        if(version != PointCloudWriter.VERSION) {
+            throw new IOException("Unsupported point cloud version " + version);
+        }
+        width = header.getInt();
+        height = header.getInt();
+        fractionBits = header.getInt();
+        int flags = header.get();
+        vertexBits = header.get();
+        if(fractionBits < 0 || fractionBits > PointCloudWriter.MAX_FRACTION_BITS) {
+            throw new IOException("Invalid point precision " + fractionBits);
+        }
+        if(vertexBits != 0 && vertexBits != 1 && vertexBits != 2 && vertexBits != 4 && vertexBits != 8) {
+            throw new IOException("Invalid vertex size " + vertexBits);
+        }
+        long dataStart = PointCloudWriter.HEADER_BYTES;
+        if((flags & PointCloudWriter.FLAG_PREDICTED) != 0) {
+            if(header.remaining() < 4) {
+                throw new IOException("Point cloud file is truncated");
+            }
+            int mapCount = header.getInt();
+            if(mapCount < 1 || mapCount > 1 << vertexBits) {
+                throw new IOException("Invalid map count " + mapCount);
+            }
+            ByteBuffer mapBytes = read(dataStart + 4, mapCount * 48);
+            maps = new double[mapCount][6];
+            for(double[] map : maps) {
+                for(int j = 0; j < 6; j++) {
+                    map[j] = mapBytes.getDouble();
+                }
+            }
+            dataStart += 4 + mapCount * 48L;
+        } else {
+            maps = null;
+        }
+
+        long[] offsets = readFooter(dataStart);
+        if(offsets == null) {
+            offsets = scanBlocks(dataStart);
+        }
+        blockOffsets = offsets;
+        long points = 0;
+        for(long offset : blockOffsets) {
+            points += blockHeader(offset).getInt();
+        }
+        pointCount = points;
+    }
+
+    static PointCloudReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new PointCloudReader(channel);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private long[] readFooter(long dataStart) throws IOException {
+        if(fileSize < dataStart + 16) {
+            return null;
+        }
+        ByteBuffer trailer = read(fileSize - 16, 16);
+        int blocks = trailer.getInt();
+        trailer.getLong();
+        if(trailer.getInt() != PointCloudWriter.FOOTER_MAGIC || blocks < 0
+                || fileSize - 16 - dataStart < blocks * 8L) {
+            return null;
+        }
+        ByteBuffer index = read(fileSize - 16 - blocks * 8L, blocks * 8);
+        long[] offsets = new long[blocks];
+        for(int i = 0; i < blocks; i++) {
+            offsets[i] = index.getLong();
+            if(offsets[i] < dataStart || offsets[i] > fileSize - PointCloudWriter.BLOCK_HEADER_BYTES) {
+                throw new IOException("Corrupt point cloud index");
+            }
+        }
+        return offsets;
+    }
+
+    private long[] scanBlocks(long dataStart) throws IOException {
+        long[] offsets = new long[64];
+        int count = 0;
+        long offset = dataStart;
+        while(offset + PointCloudWriter.BLOCK_HEADER_BYTES <= fileSize) {
+            ByteBuffer header = blockHeader(offset);
+            int points = header.getInt();
+            int rawLength = header.getInt();
+            int compressedLength = header.getInt();
+            long end = offset + PointCloudWriter.BLOCK_HEADER_BYTES + compressedLength;
+            if(points < 1 || points > PointCloudWriter.BLOCK_POINTS || rawLength < 0 || compressedLength < 0
+                    || end > fileSize) {
+                // A truncated last block, or the start of a partial footer
+                break;
+            }
+            if(count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+            offset = end;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    private ByteBuffer blockHeader(long offset) throws IOException {
+        return read(offset, PointCloudWriter.BLOCK_HEADER_BYTES);
+    }
+
+    /**
+     * Returns {@code length} bytes at {@code offset} as a little-endian buffer, mapping a new window if the bytes
+     * are not inside the current one.
+     */
+    private ByteBuffer read(long offset, int length) throws IOException {
+        if(window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+            long size = Math.min(fileSize - offset, Math.max(WINDOW_BYTES, length));
+            if(size < length) {
+                throw new IOException("Point cloud file is truncated");
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            windowStart = offset;
+        }
+        ByteBuffer slice = window.duplicate();
+        slice.position((int) (offset - windowStart));
+        slice.limit((int) (offset - windowStart) + length);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    boolean hasVertices() {
+        return vertexBits > 0;
+    }
+
+    long getPointCount() {
+        return pointCount;
+    }
+
+    int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    /**
+     * Decodes a block into the arrays, which must hold {@link PointCloudWriter#BLOCK_POINTS} points, and returns the
+     * number of points in it. {@code vertexArray} may be null; it is left untouched when the file has no vertices.
+     */
+    int readBlock(int block, double[] xs, double[] ys, byte[] vertexArray) throws IOException {
+        ByteBuffer header = blockHeader(blockOffsets[block]);
+        int points = header.getInt();
+        int rawLength = header.getInt();
+        int compressedLength = header.getInt();
+        int vertexLength = PointCloudWriter.packedLength(points, vertexBits);
+        if(points < 1 || points > PointCloudWriter.BLOCK_POINTS || rawLength > payload.length
+                || rawLength < vertexLength + points) {
+            throw new IOException("Corrupt point cloud block " + block);
+        }
+        if(compressed.length < compressedLength) {
+            compressed = new byte[compressedLength];
+        }
+        read(blockOffsets[block] + PointCloudWriter.BLOCK_HEADER_BYTES, compressedLength)
+                .get(compressed, 0, compressedLength);
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while(inflated < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(payload, inflated, rawLength - inflated);
+                if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if(inflated != rawLength) {
+                throw new IOException("Corrupt point cloud block " + block);
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Corrupt point cloud block " + block, e);
+        }
+
+        double inverseScale = 1.0 / Math.scalb(1.0, fractionBits);
+        double scale = Math.scalb(1.0, fractionBits);
+        position = vertexLength;
+        int vertexMask = (1 << vertexBits) - 1;
+        long x = 0;
+        long y = 0;
+        for(int i = 0; i < points; i++) {
+            long expectedX = x;
+            long expectedY = y;
+            if(i == 0) {
+                expectedX = 0;
+                expectedY = 0;
+            } else if(maps != null) {
+                int bit = i * vertexBits;
+                int v = (payload[bit >>> 3] >>> (bit & 7)) & vertexMask;
+                if(v >= maps.length) {
+                    throw new IOException("Corrupt point cloud block " + block);
+                }
+                double[] m = maps[v];
+                double px = x * inverseScale;
+                double py = y * inverseScale;
+                expectedX = PointCloudWriter.quantize((m[0] * px + m[1] * py + m[4]) * scale);
+                expectedY = PointCloudWriter.quantize((m[2] * px + m[3] * py + m[5]) * scale);
+            }
+            if(position >= rawLength) {
+                throw new IOException("Corrupt point cloud block " + block);
+            }
+            int code = payload[position++] & 0xFF;
+            long zx = code >>> 4;
+            long zy = code & 0xF;
+            if(zx == PointCloudWriter.ESCAPE) {
+                zx += readVarLong(rawLength, block);
+            }
+            if(zy == PointCloudWriter.ESCAPE) {
+                zy += readVarLong(rawLength, block);
+            }
+            x = expectedX + PointCloudWriter.unzigzag(zx);
+            y = expectedY + PointCloudWriter.unzigzag(zy);
+            xs[i] = x * inverseScale;
+            ys[i] = y * inverseScale;
+        }
+        if(vertexArray != null && vertexBits > 0) {
+            for(int i = 0; i < points; i++) {
+                int bit = i * vertexBits;
+                vertexArray[i] = (byte) ((payload[bit >>> 3] >>> (bit & 7)) & vertexMask);
+            }
+        }
+        return points;
+    }
+
+    private long readVarLong(int rawLength, int block) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if(position >= rawLength || shift > 63) {
+                throw new IOException("Corrupt point cloud block " + block);
+            }
+            b = payload[position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+
+    /**
+     * Decodes every point in file order. The vertex is -1 if the file has none.
+     */
+    void forEach(PointConsumer consumer) throws IOException {
+        double[] xs = new double[PointCloudWriter.BLOCK_POINTS];
+        double[] ys = new double[PointCloudWriter.BLOCK_POINTS];
+        byte[] vertexArray = new byte[PointCloudWriter.BLOCK_POINTS];
+        for(int block = 0; block < blockOffsets.length; block++) {
+            int points = readBlock(block, xs, ys, vertexArray);
+            for(int i = 0; i < points; i++) {
+                consumer.accept(xs[i], ys[i], vertexBits > 0 ? vertexArray[i] : -1);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,404 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Streams the points the walkers visit to a compact file that {@link PointCloudReader} maps back in.
+ * <p>
+ * Coordinates are output pixels quantized to {@code 2^-fractionBits} of a pixel. Each walker encodes its own orbit
+ * into blocks of up to {@link #BLOCK_POINTS} consecutive points and deflates them on its own thread, so encoding
+ * scales with the walkers. A bounded queue hands the finished blocks to a single I/O thread, and walkers wait when
+ * the disk falls behind. When the points are plotted unmapped, a point is stored as its difference from the rule
+ * set's map applied to the previous quantized point, which is almost always 0, 1 or -1. Otherwise it is stored as the
+ * difference from the previous point.
+ * <p>
+ * File layout, little endian: the header ({@code FRPC}, version, width, height, fraction bits, flags, bits per
+ * vertex and, for predicted files, the maps), then the blocks (point count, raw length, compressed length, deflated
+ * payload), then a footer with every block's offset, the block count, the total number of points and {@code FRPE}.
+ * A payload holds the vertices packed into bytes, lowest bits first, followed by one byte per point with the zigzag
+ * encoded x and y differences in its high and low nibbles. A nibble of {@link #ESCAPE} means the difference did not
+ * fit, and is followed by a varint of the rest.
+ */
+final class PointCloudWriter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PointCloudWriter.class);
+
+    static final int MAGIC = 0x43505246;
+    static final int FOOTER_MAGIC = 0x45505246;
+    static final int VERSION = 1;
+    static final int FLAG_PREDICTED = 1;
+    static final int HEADER_BYTES = 22;
+    static final int BLOCK_POINTS = 1 << 16;
+    static final int BLOCK_HEADER_BYTES = 12;
+    static final int MAX_FRACTION_BITS = 24;
+    static final int MAX_VERTICES = 128;
+
+    static final int ESCAPE = 15;
+    static final int MAX_POINT_BYTES = 21;
+
+    private static final int QUEUE_BLOCKS = 64;
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int fractionBits;
+    private final int vertexBits;
+    private final CompiledRuleSet predictor;
+    private final double[] mapA;
+    private final double[] mapB;
+    private final double[] mapC;
+    private final double[] mapD;
+    private final double[] mapE;
+    private final double[] mapF;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_BLOCKS);
+    private final List<Stream> streams = new ArrayList<>();
+    private final List<Long> blockOffsets = new ArrayList<>();
+    private final AtomicLong pointsWritten = new AtomicLong();
+    private final Thread ioThread;
+
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * @param vertexCount the number of vertices of the rule set, to store the vertex of every point, or 0 not to
+     * @param predictor   the rule set the points come from, to predict points with, or null to store differences
+     *                    between consecutive points. Must be null when the points are mapped, e.g. into a viewport.
+     */
+    PointCloudWriter(Path file, int width, int height, int fractionBits, int vertexCount,
+                     CompiledRuleSet predictor) throws IOException {
+        if(fractionBits < 0 || fractionBits > MAX_FRACTION_BITS) {
+            throw new IllegalArgumentException("Point precision must be between 0 and " + MAX_FRACTION_BITS
+                    + " bits");
+        }
+        if(vertexCount < 0 || vertexCount > MAX_VERTICES) {
+            throw new IllegalArgumentException("Point clouds support at most " + MAX_VERTICES + " vertices");
+        }
+        if(predictor != null && predictor.getVertexCount() != vertexCount) {
+            throw new IllegalArgumentException("Predicted points need the vertex of every point");
+        }
+        this.file = file;
+        this.fractionBits = fractionBits;
+        this.vertexBits = vertexBits(vertexCount);
+        this.predictor = predictor;
+        mapA = predictor != null ? predictor.getMapA() : null;
+        mapB = predictor != null ? predictor.getMapB() : null;
+        mapC = predictor != null ? predictor.getMapC() : null;
+        mapD = predictor != null ? predictor.getMapD() : null;
+        mapE = predictor != null ? predictor.getMapE() : null;
+        mapF = predictor != null ? predictor.getMapF() : null;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        try {
+            writeFully(header(width, height));
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+        ioThread = new Thread(this::writeBlocks, "point-cloud-writer");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    private ByteBuffer header(int width, int height) {
+        int maps = predictor != null ? predictor.getVertexCount() : 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + (predictor != null ? 4 + maps * 48 : 0))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(fractionBits);
+        header.put((byte) (predictor != null ? FLAG_PREDICTED : 0)).put((byte) vertexBits);
+        if(predictor != null) {
+            header.putInt(maps);
+            for(int i = 0; i < maps; i++) {
+                header.putDouble(mapA[i]).putDouble(mapB[i]).putDouble(mapC[i]).putDouble(mapD[i])
+                        .putDouble(mapE[i]).putDouble(mapF[i]);
+            }
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Returns an encoder for one walker's orbit. Each stream must only be used by one thread at a time.
+     */
+    synchronized Stream newStream() {
+        Stream stream = new Stream();
+        streams.add(stream);
+        return stream;
+    }
+
+    private void enqueue(byte[] block) throws InterruptedException {
+        IOException error = failure;
+        if(error != null) {
+            throw new UncheckedIOException("Unable to write " + file, error);
+        }
+        queue.put(block);
+    }
+
+    private void writeBlocks() {
+        try {
+            while(true) {
+                byte[] block = queue.take();
+                if(block == END_OF_STREAM) {
+                    return;
+                }
+                blockOffsets.add(channel.position());
+                writeFully(ByteBuffer.wrap(block));
+            }
+        } catch(IOException e) {
+            LOG.error("Unable to write " + file, e);
+            failure = e;
+            // Keeps draining so that walkers waiting on the queue notice the failure instead of blocking
+            drainAfterFailure();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainAfterFailure() {
+        try {
+            while(queue.take() != END_OF_STREAM) {
+                // Discarded
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Flushes every stream, waits for the I/O thread and writes the footer. Call only once the walkers are done.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            try {
+                for(Stream stream : streams) {
+                    stream.finish();
+                }
+                queue.put(END_OF_STREAM);
+                ioThread.join();
+            } catch(InterruptedException e) {
+                ioThread.interrupt();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while finishing " + file, e);
+            }
+            if(failure != null) {
+                throw failure;
+            }
+            ByteBuffer footer = ByteBuffer.allocate(blockOffsets.size() * 8 + 16).order(ByteOrder.LITTLE_ENDIAN);
+            for(long offset : blockOffsets) {
+                footer.putLong(offset);
+            }
+            footer.putInt(blockOffsets.size()).putLong(pointsWritten.get()).putInt(FOOTER_MAGIC);
+            footer.flip();
+            writeFully(footer);
+            LOG.info("Wrote {} points in {} blocks to {} ({} bytes)", pointsWritten.get(), blockOffsets.size(), file,
+                    channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Encodes one walker's consecutive points.
+     */
+    final class Stream {
+
+        private final double scale = Math.scalb(1.0, fractionBits);
+        private final double inverseScale = 1.0 / scale;
+        private final Deflater deflater = newDeflater();
+        private final byte[] vertexBytes = new byte[BLOCK_POINTS];
+        private byte[] raw = new byte[BLOCK_POINTS * 8];
+        private int size;
+        private int position;
+        private long previousX;
+        private long previousY;
+
+        private Stream() {
+        }
+
+        void add(double[] xs, double[] ys, byte[] vertexArray, int count) throws InterruptedException {
+            for(int offset = 0; offset < count; ) {
+                if(size == BLOCK_POINTS) {
+                    flush();
+                }
+                int chunk = Math.min(count - offset, BLOCK_POINTS - size);
+                encode(xs, ys, vertexArray, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        /**
+         * Encodes points that fit in the current block. The state lives in locals for the length of the loop.
+         */
+        private void encode(double[] xs, double[] ys, byte[] vertexArray, int offset, int count) {
+            if(position + count * MAX_POINT_BYTES > raw.length) {
+                raw = Arrays.copyOf(raw, Math.max(raw.length * 2, position + count * MAX_POINT_BYTES));
+            }
+            byte[] out = raw;
+            int pos = position;
+            int n = size;
+            long lastX = previousX;
+            long lastY = previousY;
+            for(int i = offset; i < offset + count; i++) {
+                long qx = quantize(xs[i] * scale);
+                long qy = quantize(ys[i] * scale);
+                long expectedX = lastX;
+                long expectedY = lastY;
+                if(n == 0) {
+                    expectedX = 0;
+                    expectedY = 0;
+                } else if(predictor != null) {
+                    int v = vertexArray[i];
+                    double px = lastX * inverseScale;
+                    double py = lastY * inverseScale;
+                    expectedX = quantize((mapA[v] * px + mapB[v] * py + mapE[v]) * scale);
+                    expectedY = quantize((mapC[v] * px + mapD[v] * py + mapF[v]) * scale);
+                }
+                if(vertexBits > 0) {
+                    vertexBytes[n] = vertexArray[i];
+                }
+                long zx = zigzag(qx - expectedX);
+                long zy = zigzag(qy - expectedY);
+                int nx = zx < ESCAPE ? (int) zx : ESCAPE;
+                int ny = zy < ESCAPE ? (int) zy : ESCAPE;
+                out[pos++] = (byte) (nx << 4 | ny);
+                if(nx == ESCAPE) {
+                    pos = writeVarLong(out, pos, zx - ESCAPE);
+                }
+                if(ny == ESCAPE) {
+                    pos = writeVarLong(out, pos, zy - ESCAPE);
+                }
+                lastX = qx;
+                lastY = qy;
+                n++;
+            }
+            position = pos;
+            size = n;
+            previousX = lastX;
+            previousY = lastY;
+        }
+
+        /**
+         * Compresses and queues the points added since the last flush. The next block starts afresh, so every
+         * block decodes on its own.
+         */
+        void flush() throws InterruptedException {
+            if(size == 0) {
+                return;
+            }
+            int vertexLength = packedLength(size, vertexBits);
+            byte[] payload = new byte[vertexLength + position];
+            for(int i = 0; i < size && vertexBits > 0; i++) {
+                int bit = i * vertexBits;
+                payload[bit >>> 3] |= (byte) (vertexBytes[i] << (bit & 7));
+            }
+            System.arraycopy(raw, 0, payload, vertexLength, position);
+
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] block = new byte[BLOCK_HEADER_BYTES + payload.length + payload.length / 100 + 64];
+            int compressed = 0;
+            while(!deflater.finished()) {
+                if(BLOCK_HEADER_BYTES + compressed == block.length) {
+                    block = Arrays.copyOf(block, block.length * 2);
+                }
+                compressed += deflater.deflate(block, BLOCK_HEADER_BYTES + compressed,
+                        block.length - BLOCK_HEADER_BYTES - compressed);
+            }
+            ByteBuffer.wrap(block, 0, BLOCK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(size).putInt(payload.length).putInt(compressed);
+            pointsWritten.addAndGet(size);
+            size = 0;
+            position = 0;
+            enqueue(block.length == BLOCK_HEADER_BYTES + compressed ? block
+                    : Arrays.copyOf(block, BLOCK_HEADER_BYTES + compressed));
+        }
+
+        private void finish() throws InterruptedException {
+            try {
+                flush();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * The payload is nearly all single-byte symbols with hardly any repeated strings, so plain Huffman coding
+     * compresses it as well as LZ77 would, at a fraction of the cost.
+     */
+    private static Deflater newDeflater() {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+        return deflater;
+    }
+
+    /**
+     * Returns the fewest bits, 1, 2, 4 or 8, that hold any vertex index, so that a byte holds whole vertices.
+     */
+    static int vertexBits(int vertexCount) {
+        if(vertexCount == 0) {
+            return 0;
+        }
+        int bits = 1;
+        while(1 << bits < vertexCount) {
+            bits *= 2;
+        }
+        return bits;
+    }
+
+    static int packedLength(int points, int vertexBits) {
+        return (points * vertexBits + 7) >>> 3;
+    }
+
+    /**
+     * Rounds to the nearest integer like {@link Math#round(double)}, but cheaper. Readers must use it as well to
+     * repeat the predictions exactly.
+     */
+    static long quantize(double value) {
+        return (long) Math.floor(value + 0.5);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarLong(byte[] buffer, int position, long value) {
+        while((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+}
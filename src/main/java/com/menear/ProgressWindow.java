@@ -0,0 +1,63 @@
+package com.menear;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Small non-modal window that polls the progress of a background task and lets the user cancel it.
+ */
+class ProgressWindow {
+
+    private static final Duration POLL_INTERVAL = Duration.millis(200);
+
+    private final Stage stage = new Stage();
+    private final Label lblStatus = new Label();
+    private final ProgressBar progressBar = new ProgressBar(0.0);
+    private final Timeline poll;
+
+    ProgressWindow(String title, String status, DoubleSupplier progress, Runnable onCancel) {
+        lblStatus.setText(status);
+        progressBar.setPrefWidth(300.0);
+        Button btnCancel = new Button("Cancel");
+        btnCancel.setOnAction(event -> onCancel.run());
+
+        VBox vbProgress = new VBox(8.0, lblStatus, progressBar, btnCancel);
+        vbProgress.setAlignment(Pos.CENTER);
+        vbProgress.setPadding(new Insets(10.0));
+
+        stage.initOwner(Fractals.getMainStage());
+        stage.initModality(Modality.NONE);
+        stage.setTitle(title);
+        stage.setScene(new Scene(vbProgress));
+        stage.setOnCloseRequest(event -> onCancel.run());
+
+        poll = new Timeline(new KeyFrame(POLL_INTERVAL, event -> progressBar.setProgress(progress.getAsDouble())));
+        poll.setCycleCount(Timeline.INDEFINITE);
+    }
+
+    void show() {
+        stage.show();
+        poll.play();
+    }
+
+    void setStatus(String status) {
+        lblStatus.setText(status);
+    }
+
+    void close() {
+        poll.stop();
+        stage.close();
+    }
+}
@@ -0,0 +1,42 @@
+package com.menear;
+
+public enum RandomAlgorithm {
+
+    XOSHIRO256("xoshiro256**"),
+    SPLITMIX64("SplitMix64");
+
+    private final String displayName;
+
+    RandomAlgorithm(String displayName) {
+        this.displayName = displayName;
+    }
+
+    RandomSource create(long seed) {
+        switch(this) {
+            case SPLITMIX64:
+                return new SplitMix64Random(seed);
+            default:
+                return new Xoshiro256Random(seed);
+        }
+    }
+
+    RandomSource fromState(long[] state) {
+        switch(this) {
+            case SPLITMIX64:
+                if(state.length != 2) {
+                    throw new IllegalArgumentException("SplitMix64 state must have 2 words");
+                }
+                return new SplitMix64Random(state[0], state[1]);
+            default:
+                if(state.length != 4) {
+                    throw new IllegalArgumentException("xoshiro256** state must have 4 words");
+                }
+                return new Xoshiro256Random(state[0], state[1], state[2], state[3]);
+        }
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+}
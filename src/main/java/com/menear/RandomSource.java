@@ -0,0 +1,35 @@
+package com.menear;
+
+/**
+ * Fast, seedable, non-cryptographic random stream used by the chaos game walkers.
+ */
+interface RandomSource {
+
+    long nextLong();
+
+    /**
+     * Returns a value in [0, bound) using a multiply-shift reduction instead of a modulo. The bias is at most
+     * bound / 2^32, which is irrelevant for picking vertices.
+     */
+    default int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Returns a value in [0, 1) with 53 bits of precision.
+     */
+    default double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a new generator whose stream does not overlap with this one, advancing this generator past it.
+     */
+    RandomSource split();
+
+    /**
+     * Returns the complete generator state, from which {@link RandomAlgorithm#fromState(long[])} recreates an
+     * identical stream.
+     */
+    long[] getState();
+}
@@ -0,0 +1,61 @@
+package com.menear;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Releases points at a target rate measured against {@link System#nanoTime()}. Rather than sleeping once per point,
+ * the caller waits until about one display frame's worth of points is due and then computes them in one batch, so
+ * any rate from a few points per second to millions costs only a handful of wake-ups per frame. Points that fall
+ * behind, e.g. while the computer is busy, are caught up in the next batch, but never more than a fraction of a
+ * second's worth, so a stall does not turn into a burst.
+ */
+final class RatePacer {
+
+    private static final long BATCH_NANOS = 1_000_000_000L / 60;
+    private static final double MAX_CATCH_UP_SECONDS = 0.25;
+
+    private double pointsPerSecond;
+    private long startNanos;
+    private long released;
+
+    /**
+     * Sets the target rate, or 0 to stop pacing. Changing the rate starts counting afresh from now.
+     */
+    void setRate(double pointsPerSecond) {
+        if(pointsPerSecond != this.pointsPerSecond) {
+            this.pointsPerSecond = Math.max(0.0, pointsPerSecond);
+            startNanos = System.nanoTime();
+            released = 0;
+        }
+    }
+
+    /**
+     * Waits until points are due and returns how many, at most {@code maxPoints}. The caller is expected to
+     * compute exactly that many before asking again.
+     */
+    long acquire(long maxPoints) throws InterruptedException {
+        if(pointsPerSecond <= 0.0) {
+            throw new IllegalStateException("No rate set");
+        }
+        long batch = Math.max(1L, Math.min(maxPoints, (long) (pointsPerSecond * BATCH_NANOS / 1e9)));
+        long maxBurst = Math.max(batch, (long) (pointsPerSecond * MAX_CATCH_UP_SECONDS));
+        while(true) {
+            if(Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long now = System.nanoTime();
+            long due = (long) ((now - startNanos) * pointsPerSecond / 1e9) - released;
+            if(due > maxBurst) {
+                released += due - maxBurst;
+                due = maxBurst;
+            }
+            if(due >= batch) {
+                long granted = Math.min(due, maxPoints);
+                released += granted;
+                return granted;
+            }
+            long wakeAt = startNanos + (long) ((released + batch) * 1e9 / pointsPerSecond);
+            LockSupport.parkNanos(wakeAt - now);
+        }
+    }
+}
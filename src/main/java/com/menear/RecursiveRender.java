@@ -0,0 +1,433 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws the attractor of a rule set deterministically rather than by random walk. Every point the chaos game can
+ * reach after choosing vertices v1 ... vk lies in the image f_vk(...f_v1(B)) of a disc B that contains the whole
+ * attractor, so the maps are composed outermost first into a tree of such discs. Branches whose disc misses the
+ * image are pruned, and a branch whose disc has shrunk to a fraction of a pixel is plotted as its centre, weighted
+ * by the long-run probability of its vertex sequence under the selection rule. The result matches the density the
+ * chaos game converges to, without any sampling noise.
+ * <p>
+ * Large subtrees are evaluated in parallel. Masses are summed in fixed point, so the image does not depend on how
+ * the work was split. The number of leaves grows with the resolution to the power of the attractor's dimension,
+ * which is measured by counting the leaves of two coarse trees first. When the count would exceed the budget the
+ * leaves are made larger, which leaves gaps in the image but keeps the time bounded.
+ */
+final class RecursiveRender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecursiveRender.class);
+
+    /**
+     * Leaf budget of a full render, which takes about half a second on one core.
+     */
+    static final long DEFAULT_MAX_LEAVES = 1L << 23;
+
+    /**
+     * Leaf budget of a preview, which takes a few tens of milliseconds.
+     */
+    static final long PREVIEW_MAX_LEAVES = 1L << 18;
+
+    /**
+     * Counts are scaled to what a chaos game would plot at this many points per visible pixel.
+     */
+    static final long POINTS_PER_PIXEL = 100;
+
+    private static final double LEAF_RADIUS = 0.25;
+    private static final double PROBE_LEAF_RADIUS = 8.0;
+    private static final double FORK_RADIUS = 64.0;
+    private static final int MAX_DEPTH = 256;
+    private static final int BATCH_SIZE = 4096;
+    private static final double MASS_ONE = 0x1p40;
+
+    private final CompiledRuleSet ruleSet;
+    private final SelectionTable table;
+    private final int vertexCount;
+    private final int lag;
+    private final double[] stationary;
+    private final double centreX;
+    private final double centreY;
+    private final double radius;
+    private long maxLeaves = DEFAULT_MAX_LEAVES;
+
+    /**
+     * @throws IllegalArgumentException if a map that can be chosen does not contract, since the attractor cannot
+     *                                  be bounded then
+     */
+    RecursiveRender(CompiledRuleSet ruleSet) {
+        this.ruleSet = ruleSet;
+        table = ruleSet.getSelectionTable();
+        vertexCount = ruleSet.getVertexCount();
+        lag = table.getLag();
+        stationary = table.stationaryDistribution();
+
+        double[] a = ruleSet.getMapA();
+        double[] b = ruleSet.getMapB();
+        double[] c = ruleSet.getMapC();
+        double[] d = ruleSet.getMapD();
+        double[] e = ruleSet.getMapE();
+        double[] f = ruleSet.getMapF();
+        double sumX = 0.0;
+        double sumY = 0.0;
+        int used = 0;
+        for(int i = 0; i < vertexCount; i++) {
+            if(stationary[i] <= 0.0) {
+                continue;
+            }
+            if(!(norm(a[i], b[i], c[i], d[i]) < 1.0)) {
+                throw new IllegalArgumentException("Map " + (i + 1) + " does not contract, so its attractor cannot be"
+                        + " drawn recursively");
+            }
+            double[] fixed = CompiledRuleSet.fixedPoint(ruleSet.getMatrix(i));
+            sumX += fixed[0];
+            sumY += fixed[1];
+            used++;
+        }
+        if(used == 0) {
+            throw new IllegalArgumentException("No vertex can be chosen");
+        }
+        // Any disc around C with radius at least |f(C) - C| / (1 - s) is mapped into itself by a map f of norm s
+        centreX = sumX / used;
+        centreY = sumY / used;
+        double bound = 0.0;
+        for(int i = 0; i < vertexCount; i++) {
+            if(stationary[i] > 0.0) {
+                double dx = a[i] * centreX + b[i] * centreY + e[i] - centreX;
+                double dy = c[i] * centreX + d[i] * centreY + f[i] - centreY;
+                bound = Math.max(bound, Math.hypot(dx, dy) / (1.0 - norm(a[i], b[i], c[i], d[i])));
+            }
+        }
+        radius = bound;
+    }
+
+    /**
+     * Sets the largest number of leaves to evaluate, which bounds the time taken.
+     */
+    void setMaxLeaves(long maxLeaves) {
+        if(maxLeaves < 1) {
+            throw new IllegalArgumentException("At least one leaf is required");
+        }
+        this.maxLeaves = maxLeaves;
+    }
+
+    /**
+     * Draws the part of the attractor inside {@code viewport} into a {@code width} x {@code height} image.
+     */
+    Result render(int width, int height, Viewport viewport, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        double[] m = viewport.getMatrix();
+        double screenRadius = radius * norm(m[0], m[1], m[2], m[3]);
+        double x = m[0] * centreX + m[1] * centreY + m[4];
+        double y = m[2] * centreX + m[3] * centreY + m[5];
+        double leafRadius = leafRadius(m, width, height);
+
+        Accumulator accumulator = new Accumulator(width, height);
+        if(intersects(x, y, screenRadius, width, height)) {
+            if(screenRadius < leafRadius) {
+                Batch batch = new Batch(width, height, accumulator, leafRadius);
+                batch.plot(x, y, 1.0, 0);
+                batch.flush();
+            } else {
+                pool.invoke(new Branch(accumulator, leafRadius, m[0], m[1], m[2], m[3], m[4], m[5], 1.0,
+                        -1, -1, -1, 0));
+            }
+        }
+        Result result = accumulator.toResult();
+        LOG.debug("Rendered {} leaves of radius {} px in {} ms", accumulator.leaves, leafRadius,
+                (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+
+    /**
+     * Draws the attractor inside {@code viewport} into {@code histogram}, replacing what it held.
+     */
+    Result render(DensityHistogram histogram, Viewport viewport, ForkJoinPool pool) {
+        Result result = render(histogram.getWidth(), histogram.getHeight(), viewport, pool);
+        histogram.restore(result.getCounts(), result.getVertices(), result.getTotalPoints());
+        return result;
+    }
+
+    CompiledRuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    /**
+     * Returns the smallest leaf radius, no less than a quarter of a pixel, at which the visible tree has at most the
+     * budgeted number of leaves. The growth rate is taken from the leaf counts at two coarse radii.
+     */
+    private double leafRadius(double[] m, int width, int height) {
+        long fine = countLeaves(m, PROBE_LEAF_RADIUS, width, height);
+        long coarse = countLeaves(m, 2.0 * PROBE_LEAF_RADIUS, width, height);
+        if(fine <= 1) {
+            return LEAF_RADIUS;
+        }
+        double dimension = coarse > 0 ? Math.max(1.0, Math.log((double) fine / coarse) / Math.log(2.0)) : 2.0;
+        // fine * (probe / r)^dimension = budget
+        double r = PROBE_LEAF_RADIUS * Math.pow((double) fine / maxLeaves, 1.0 / dimension);
+        return Math.max(LEAF_RADIUS, r);
+    }
+
+    private long countLeaves(double[] m, double leafRadius, int width, int height) {
+        Batch batch = new Batch(width, height, null, leafRadius);
+        batch.limit = maxLeaves;
+        expand(batch, null, leafRadius, m[0], m[1], m[2], m[3], m[4], m[5], 1.0, -1, -1, -1, 0);
+        return batch.leaves;
+    }
+
+    /**
+     * Expands the children of one node, forking those that are still large and walking the rest in place.
+     */
+    private final class Branch extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Accumulator accumulator;
+        private final double leafRadius;
+        private final double a;
+        private final double b;
+        private final double c;
+        private final double d;
+        private final double e;
+        private final double f;
+        private final double weight;
+        private final int outer;
+        private final int previous;
+        private final int beforePrevious;
+        private final int depth;
+
+        Branch(Accumulator accumulator, double leafRadius, double a, double b, double c, double d, double e,
+               double f, double weight, int outer, int previous, int beforePrevious, int depth) {
+            this.accumulator = accumulator;
+            this.leafRadius = leafRadius;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.e = e;
+            this.f = f;
+            this.weight = weight;
+            this.outer = outer;
+            this.previous = previous;
+            this.beforePrevious = beforePrevious;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            Batch batch = new Batch(accumulator.width, accumulator.height, accumulator, leafRadius);
+            List<Branch> forks = new ArrayList<>();
+            expand(batch, forks, leafRadius, a, b, c, d, e, f, weight, outer, previous, beforePrevious, depth);
+            batch.flush();
+            invokeAll(forks);
+        }
+    }
+
+    /**
+     * Visits the children of the node whose composed map is (a, b, c, d, e, f). The path so far was reached with
+     * the given weight; {@code outer} is the vertex applied last and {@code previous}, {@code beforePrevious} the
+     * two innermost ones, or -1 where the path is shorter. Children with a radius of at least
+     * {@link #FORK_RADIUS} become tasks in {@code forks} if it is not null.
+     */
+    private void expand(Batch batch, List<Branch> forks, double leafRadius, double a, double b, double c, double d,
+                        double e, double f, double weight, int outer, int previous, int beforePrevious, int depth) {
+        double[] mapA = ruleSet.getMapA();
+        double[] mapB = ruleSet.getMapB();
+        double[] mapC = ruleSet.getMapC();
+        double[] mapD = ruleSet.getMapD();
+        double[] mapE = ruleSet.getMapE();
+        double[] mapF = ruleSet.getMapF();
+        int partner = lag == 1 ? previous : lag == 2 ? beforePrevious : -1;
+        int width = batch.width;
+        int height = batch.height;
+        for(int u = 0; u < vertexCount && batch.leaves <= batch.limit; u++) {
+            // u is chosen before the path so far; the vertex picked lag steps after it is the partner
+            double childWeight = partner < 0 ? weight * stationary[u]
+                    : weight * stationary[u] * table.probability(u, partner) / stationary[partner];
+            if(childWeight <= 0.0) {
+                continue;
+            }
+            double ca = a * mapA[u] + b * mapC[u];
+            double cb = a * mapB[u] + b * mapD[u];
+            double cc = c * mapA[u] + d * mapC[u];
+            double cd = c * mapB[u] + d * mapD[u];
+            double ce = a * mapE[u] + b * mapF[u] + e;
+            double cf = c * mapE[u] + d * mapF[u] + f;
+            double r = radius * norm(ca, cb, cc, cd);
+            double x = ca * centreX + cb * centreY + ce;
+            double y = cc * centreX + cd * centreY + cf;
+            if(!intersects(x, y, r, width, height)) {
+                continue;
+            }
+            int childOuter = outer < 0 ? u : outer;
+            if(r < leafRadius || depth + 1 >= MAX_DEPTH) {
+                batch.plot(x, y, childWeight, childOuter);
+            } else if(forks != null && r >= FORK_RADIUS) {
+                forks.add(new Branch(batch.accumulator, leafRadius, ca, cb, cc, cd, ce, cf, childWeight, childOuter,
+                        u, previous, depth + 1));
+            } else {
+                expand(batch, null, leafRadius, ca, cb, cc, cd, ce, cf, childWeight, childOuter, u, previous,
+                        depth + 1);
+            }
+        }
+    }
+
+    private static boolean intersects(double x, double y, double r, int width, int height) {
+        return x + r >= 0.0 && x - r < width && y + r >= 0.0 && y - r < height;
+    }
+
+    /**
+     * Returns the largest factor by which the linear map [a b; c d] stretches a vector.
+     */
+    static double norm(double a, double b, double c, double d) {
+        double sum = a * a + b * b + c * c + d * d;
+        double det = a * d - b * c;
+        return Math.sqrt(0.5 * (sum + Math.sqrt(Math.max(0.0, sum * sum - 4.0 * det * det))));
+    }
+
+    /**
+     * Collects leaves from one task and adds them to the shared image in batches. Leaves with a radius of two
+     * pixels or more are spread evenly over the square around them, so that a render over budget comes out blurred
+     * rather than full of gaps. Without an accumulator the leaves are only counted, up to {@link #limit}.
+     */
+    private static final class Batch {
+
+        private final int width;
+        private final int height;
+        private final Accumulator accumulator;
+        private final int spread;
+        private final int[] indices;
+        private final long[] masses;
+        private final byte[] vertices;
+        private int size;
+        private long leaves;
+        private long limit = Long.MAX_VALUE;
+
+        Batch(int width, int height, Accumulator accumulator, double leafRadius) {
+            this.width = width;
+            this.height = height;
+            this.accumulator = accumulator;
+            // The sub-attractor of a leaf is usually well inside its bounding disc
+            spread = (int) (0.5 * leafRadius);
+            int capacity = accumulator != null ? BATCH_SIZE : 0;
+            indices = new int[capacity];
+            masses = new long[capacity];
+            vertices = new byte[capacity];
+        }
+
+        void plot(double x, double y, double weight, int vertex) {
+            leaves++;
+            if(accumulator == null) {
+                return;
+            }
+            int px = (int) Math.floor(x);
+            int py = (int) Math.floor(y);
+            int side = 2 * spread + 1;
+            // Every leaf keeps at least one unit per pixel so that rare branches still light their pixels
+            long mass = Math.max(1L, Math.round(weight * MASS_ONE / (side * side)));
+            for(int sy = Math.max(0, py - spread); sy <= Math.min(height - 1, py + spread); sy++) {
+                for(int sx = Math.max(0, px - spread); sx <= Math.min(width - 1, px + spread); sx++) {
+                    indices[size] = sy * width + sx;
+                    masses[size] = mass;
+                    vertices[size] = (byte) vertex;
+                    if(++size == BATCH_SIZE) {
+                        flush();
+                    }
+                }
+            }
+        }
+
+        void flush() {
+            accumulator.add(indices, masses, vertices, size, leaves);
+            size = 0;
+            leaves = 0;
+        }
+    }
+
+    private static final class Accumulator {
+
+        private final int width;
+        private final int height;
+        private final long[] mass;
+        private final byte[] vertices;
+        private long leaves;
+
+        Accumulator(int width, int height) {
+            this.width = width;
+            this.height = height;
+            mass = new long[width * height];
+            vertices = new byte[width * height];
+        }
+
+        synchronized void add(int[] indices, long[] masses, byte[] batchVertices, int count, long batchLeaves) {
+            for(int i = 0; i < count; i++) {
+                int index = indices[i];
+                mass[index] += masses[i];
+                // The highest vertex wins, so that the result does not depend on the order of the batches
+                if(batchVertices[i] > vertices[index]) {
+                    vertices[index] = batchVertices[i];
+                }
+            }
+            leaves += batchLeaves;
+        }
+
+        synchronized Result toResult() {
+            double visible = 0.0;
+            for(long m : mass) {
+                visible += m;
+            }
+            int[] counts = new int[mass.length];
+            long total = 0;
+            if(visible > 0.0) {
+                double scale = (double) POINTS_PER_PIXEL * mass.length / visible;
+                for(int i = 0; i < mass.length; i++) {
+                    if(mass[i] != 0) {
+                        counts[i] = (int) Math.min(Integer.MAX_VALUE, Math.max(1L, Math.round(mass[i] * scale)));
+                        total += counts[i];
+                    }
+                }
+            }
+            return new Result(counts, vertices.clone(), total, leaves);
+        }
+    }
+
+    /**
+     * The image of one render: counts scaled to {@link #POINTS_PER_PIXEL}, and the vertex of each pixel.
+     */
+    static final class Result {
+
+        private final int[] counts;
+        private final byte[] vertices;
+        private final long totalPoints;
+        private final long leaves;
+
+        private Result(int[] counts, byte[] vertices, long totalPoints, long leaves) {
+            this.counts = counts;
+            this.vertices = vertices;
+            this.totalPoints = totalPoints;
+            this.leaves = leaves;
+        }
+
+        int[] getCounts() {
+            return counts;
+        }
+
+        byte[] getVertices() {
+            return vertices;
+        }
+
+        long getTotalPoints() {
+            return totalPoints;
+        }
+
+        long getLeaves() {
+            return leaves;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finished on-heap renders kept on disk as {@link Checkpoint} files, so that rendering the same configuration again
+ * is a lookup. Entries are named after a SHA-256 hash of everything that determines the counts apart from the
+ * iteration count, followed by that count. A render of more iterations than any entry holds continues from the
+ * largest one below it, which gives exactly the counts of an uninterrupted run.
+ * <p>
+ * The files' modification times record when they were last used, and the least recently used entries are deleted
+ * once the directory holds more than its budget. Several processes may share a directory.
+ */
+final class RenderCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderCache.class);
+
+    static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+    private static final int KEY_VERSION = 2;
+    private static final String EXTENSION = ".ckpt";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    RenderCache(Path directory, long maxBytes) throws IOException {
+        if(maxBytes < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Hashes the rule set, with its vertices, maps, weights and selection rule, together with the other parameters
+     * a render's counts depend on. The walker count matters because the seed is split between the walkers.
+     */
+    static String key(CompiledRuleSet ruleSet, int width, int height, long seed, RandomAlgorithm randomAlgorithm,
+                      int walkers, Viewport viewport) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(KEY_VERSION);
+            Checkpoint.writeString(out, RuleSet.fromCompiled(null, ruleSet, width, height).toJson());
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeLong(seed);
+            out.writeUTF(randomAlgorithm.name());
+            out.writeInt(walkers);
+            out.writeDouble(viewport.getScale());
+            out.writeDouble(viewport.getOriginX());
+            out.writeDouble(viewport.getOriginY());
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            StringBuilder hex = new StringBuilder();
+            for(byte b : MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray())) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Returns the entry for {@code key} with exactly {@code iterations} points, or else the one with the most
+     * points below that, or null if there is neither.
+     */
+    synchronized Checkpoint lookup(String key, long iterations) throws IOException {
+        List<Long> candidates = new ArrayList<>();
+        try(DirectoryStream<Path> entries = Files.newDirectoryStream(directory, key + "-*" + EXTENSION)) {
+            for(Path entry : entries) {
+                String name = entry.getFileName().toString();
+                try {
+                    long entryIterations = Long.parseLong(name.substring(key.length() + 1,
+                            name.length() - EXTENSION.length()));
+                    if(entryIterations <= iterations) {
+                        candidates.add(entryIterations);
+                    }
+                } catch(NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        candidates.sort(Comparator.reverseOrder());
+        for(long candidate : candidates) {
+            Path entry = entryFile(key, candidate);
+            try {
+                Checkpoint checkpoint = Checkpoint.read(entry);
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+                return checkpoint;
+            } catch(NoSuchFileException e) {
+                // Evicted by another process in the meantime
+            } catch(IOException e) {
+                LOG.warn("Discarding unreadable cache entry {}: {}", entry, e.getMessage());
+                Files.deleteIfExists(entry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Saves a finished on-heap render under {@code key}, then evicts the least recently used entries over budget.
+     */
+    synchronized void store(String key, Checkpoint checkpoint) throws IOException {
+        if(checkpoint.getCounts() == null) {
+            throw new IllegalArgumentException("Only renders with on-heap counts can be cached");
+        }
+        checkpoint.write(entryFile(key, checkpoint.getIterations()));
+        evict();
+    }
+
+    private Path entryFile(String key, long iterations) {
+        return directory.resolve(key + "-" + iterations + EXTENSION);
+    }
+
+    private void evict() throws IOException {
+        Map<Path, BasicFileAttributes> entries = new HashMap<>();
+        long total = 0;
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for(Path entry : stream) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    entries.put(entry, attributes);
+                    total += attributes.size();
+                } catch(NoSuchFileException e) {
+                    // Evicted by another process in the meantime
+                }
+            }
+        }
+        List<Path> oldestFirst = new ArrayList<>(entries.keySet());
+        oldestFirst.sort(Comparator.comparing(entry -> entries.get(entry).lastModifiedTime()));
+        for(Path entry : oldestFirst) {
+            if(total <= maxBytes) {
+                break;
+            }
+            Files.deleteIfExists(entry);
+            total -= entries.get(entry).size();
+            LOG.info("Evicted cache entry {}", entry.getFileName());
+        }
+    }
+}
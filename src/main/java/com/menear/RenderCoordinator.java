@@ -0,0 +1,295 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits a render across {@link RenderWorker} processes that connect over TCP, and merges the hit counts they
+ * stream back into one histogram as they arrive, so the partial result can be shown while the workers run.
+ * <p>
+ * The render is divided into walkers exactly like a local one, and every worker takes a contiguous range of them
+ * sized by its processor count. A distributed render with the same seed and walker count therefore produces the
+ * same counts as a local render with that many threads.
+ */
+class RenderCoordinator implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderCoordinator.class);
+
+    private static final int ACCEPT_POLL_MILLIS = 500;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final CompiledRuleSet ruleSet;
+    private final int width;
+    private final int height;
+    private final long iterations;
+    private final RandomAlgorithm randomAlgorithm;
+    private final long seed;
+    private final ServerSocket server;
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<Process> localWorkers = new ArrayList<>();
+
+    private Viewport viewport = Viewport.IDENTITY;
+    private int totalWalkers;
+
+    /**
+     * Starts listening for workers on {@code port}, or on any free port if it is 0.
+     *
+     * @param ruleSet the rule set in the pixel coordinates of the {@code width} x {@code height} output
+     */
+    RenderCoordinator(CompiledRuleSet ruleSet, int width, int height, long iterations,
+                      RandomAlgorithm randomAlgorithm, long seed, int port) throws IOException {
+        if(width < 1 || height < 1) {
+            throw new IllegalArgumentException("Output dimensions must be positive");
+        }
+        if(OffscreenRender.needsMappedHistogram(width, height)) {
+            throw new IllegalArgumentException(width + "x" + height + " is too large for a distributed render");
+        }
+        this.ruleSet = ruleSet;
+        this.width = width;
+        this.height = height;
+        this.iterations = iterations;
+        this.randomAlgorithm = randomAlgorithm;
+        this.seed = seed;
+        server = new ServerSocket(port);
+        server.setSoTimeout(ACCEPT_POLL_MILLIS);
+        LOG.info("Waiting for render workers on port {}", server.getLocalPort());
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    /**
+     * Fixes the number of walkers the render is split into. By default it is the workers' total processor count,
+     * which makes the result depend on which machines took part.
+     */
+    void setTotalWalkers(int totalWalkers) {
+        this.totalWalkers = totalWalkers;
+    }
+
+    /**
+     * Starts {@code count} workers as child processes of this JVM, with the same class path.
+     */
+    void spawnLocalWorkers(int count) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        for(int i = 0; i < count; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    RenderWorker.class.getName(), "--connect", "localhost:" + getPort());
+            builder.inheritIO();
+            localWorkers.add(builder.start());
+        }
+        LOG.info("Started {} local render worker(s)", count);
+    }
+
+    /**
+     * Waits for {@code workerCount} workers, hands out the walkers and merges the results into {@code target} until
+     * every worker is done. Interrupting the calling thread disconnects the workers, which makes them stop.
+     */
+    void run(int workerCount, DensityHistogram target, RenderStats stats) throws IOException, InterruptedException {
+        if(target.getWidth() != width || target.getHeight() != height) {
+            throw new IllegalArgumentException("Target histogram does not match the render size");
+        }
+        int[] processors = new int[workerCount];
+        List<DataInputStream> inputs = new ArrayList<>(workerCount);
+        List<DataOutputStream> outputs = new ArrayList<>(workerCount);
+        while(sockets.size() < workerCount) {
+            Socket socket = accept();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            try {
+                if(in.readInt() != DistributedJob.MAGIC) {
+                    throw new IOException("Unexpected handshake");
+                }
+                processors[sockets.size()] = Math.max(1, in.readInt());
+                socket.setSoTimeout(0);
+            } catch(IOException e) {
+                LOG.warn("Ignoring connection from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+                socket.close();
+                continue;
+            }
+            sockets.add(socket);
+            inputs.add(in);
+            outputs.add(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            LOG.info("Render worker {} connected from {} with {} processor(s)", sockets.size(),
+                    socket.getRemoteSocketAddress(), processors[sockets.size() - 1]);
+        }
+
+        int walkerCount = totalWalkers > 0 ? totalWalkers : Arrays.stream(processors).sum();
+        if(walkerCount < workerCount) {
+            throw new IllegalArgumentException("Cannot split " + walkerCount + " walker(s) across " + workerCount
+                    + " workers");
+        }
+        totalWalkers = walkerCount;
+        WalkerState[] walkers = WalkerState.initial(width / 2.0, height / 2.0, randomAlgorithm, seed, walkerCount);
+        int[] firstWalkers = splitWalkers(processors, walkerCount);
+        for(int i = 0; i < workerCount; i++) {
+            int from = firstWalkers[i];
+            int to = firstWalkers[i + 1];
+            new DistributedJob(ruleSet, width, height, iterations, seed, randomAlgorithm, viewport, from,
+                    walkerCount, Arrays.copyOfRange(walkers, from, to)).write(outputs.get(i));
+            outputs.get(i).flush();
+        }
+        LOG.info("Rendering {} points with {} walker(s) on {} worker(s)", iterations, walkerCount, workerCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "render-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Long> completion = new ExecutorCompletionService<>(executor);
+        stats.start();
+        try {
+            for(int i = 0; i < workerCount; i++) {
+                int worker = i;
+                completion.submit(() -> receive(worker + 1, inputs.get(worker), target, stats));
+            }
+            long lastProgress = System.nanoTime();
+            for(int finished = 0; finished < workerCount; ) {
+                Future<Long> result = completion.poll(ACCEPT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(result != null) {
+                    // Fails fast, leaving the other workers to be disconnected below
+                    result.get();
+                    finished++;
+                } else if(System.nanoTime() - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = System.nanoTime();
+                    LOG.info("{} / {} points", stats.getPointsComputed(), iterations);
+                }
+            }
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Render worker failed: " + cause.getMessage(), cause);
+        } finally {
+            stats.finish();
+            // Unblocks the receiving threads and tells any remaining workers to stop
+            closeSockets();
+            executor.shutdownNow();
+        }
+    }
+
+    private Socket accept() throws IOException, InterruptedException {
+        while(true) {
+            if(Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            for(Process process : localWorkers) {
+                if(!process.isAlive() && process.exitValue() != 0) {
+                    throw new IOException("Local render worker exited with status " + process.exitValue());
+                }
+            }
+            try {
+                Socket socket = server.accept();
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch(SocketTimeoutException e) {
+                // Poll again so that an interrupt is noticed
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first walker of every worker plus the total at the end, giving each worker at least
+     * one walker and the rest in proportion to its processors.
+     */
+    private static int[] splitWalkers(int[] processors, int walkerCount) {
+        long totalProcessors = Arrays.stream(processors).asLongStream().sum();
+        int spare = walkerCount - processors.length;
+        int[] first = new int[processors.length + 1];
+        long cumulative = 0;
+        for(int i = 0; i < processors.length; i++) {
+            cumulative += processors[i];
+            first[i + 1] = i + 1 + (int) (spare * cumulative / totalProcessors);
+        }
+        return first;
+    }
+
+    private long receive(int worker, DataInputStream in, DensityHistogram target, RenderStats stats)
+            throws IOException {
+        while(true) {
+            byte type = in.readByte();
+            switch(type) {
+                case DistributedJob.DELTA:
+                    HistogramDelta delta = HistogramDelta.read(in);
+                    target.addDelta(delta);
+                    stats.addPointsComputed(delta.getPoints());
+                    break;
+                case DistributedJob.DONE:
+                    long points = in.readLong();
+                    LOG.info("Render worker {} finished {} points", worker, points);
+                    return points;
+                case DistributedJob.ERROR:
+                    throw new IOException("Render worker " + worker + " failed: " + in.readUTF());
+                default:
+                    throw new IOException("Unexpected message " + type + " from render worker " + worker);
+            }
+        }
+    }
+
+    /**
+     * Describes the parameters needed to reproduce this render, e.g. for image metadata.
+     */
+    Map<String, String> describe() {
+        OffscreenRender equivalent = new OffscreenRender(ruleSet, width, height, iterations, randomAlgorithm, seed,
+                totalWalkers);
+        equivalent.setViewport(viewport);
+        return equivalent.describe();
+    }
+
+    private synchronized void closeSockets() {
+        for(Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch(IOException e) {
+                LOG.debug("Unable to close worker connection: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closeSockets();
+        try {
+            server.close();
+        } catch(IOException e) {
+            LOG.debug("Unable to close server socket: " + e.getMessage());
+        }
+        for(Process process : localWorkers) {
+            try {
+                if(!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            } catch(InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.menear;
+
+/**
+ * How the canvas draws a rule set: by the random chaos game, or by {@link RecursiveRender}, which needs no start
+ * point and produces the converged image at once.
+ */
+public enum RenderEngine {
+
+    CHAOS_GAME("Chaos game"),
+    RECURSIVE("Recursive (deterministic)");
+
+    private final String displayName;
+
+    RenderEngine(String displayName) {
+        this.displayName = displayName;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+}
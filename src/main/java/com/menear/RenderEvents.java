@@ -0,0 +1,137 @@
+package com.menear;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events of the render pipeline, all in the "Fractals" category. They cost next to nothing unless
+ * a recording is running, e.g. one started with {@code -XX:StartFlightRecording} or {@code BatchRender --jfr}.
+ */
+final class RenderEvents {
+
+    static final String CATEGORY = "Fractals";
+
+    private RenderEvents() {
+    }
+
+    @Name("com.menear.RenderRun")
+    @Label("Render Run")
+    @Category(CATEGORY)
+    @Description("A render from the start of its first round to the end of its last")
+    static final class RenderRun extends Event {
+
+        @Label("Kind")
+        String kind;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Walkers")
+        int walkers;
+
+        @Label("Iterations")
+        long iterations;
+
+        @Label("Points Computed")
+        long pointsComputed;
+
+        RenderRun(String kind, int width, int height, int walkers, long iterations) {
+            this.kind = kind;
+            this.width = width;
+            this.height = height;
+            this.walkers = walkers;
+            this.iterations = iterations;
+        }
+    }
+
+    @Name("com.menear.RoundCompleted")
+    @Label("Round Completed")
+    @Category(CATEGORY)
+    @Description("One round of batches computed by every unfinished walker")
+    static final class RoundCompleted extends Event {
+
+        @Label("Walkers")
+        int walkers;
+
+        @Label("Points")
+        long points;
+
+        @Label("Random Draws")
+        long randomDraws;
+    }
+
+    @Name("com.menear.HistogramMerged")
+    @Label("Histogram Merged")
+    @Category(CATEGORY)
+    @Description("Private walker buffers folded into a shared histogram")
+    static final class HistogramMerged extends Event {
+
+        @Label("Buffers")
+        int buffers;
+    }
+
+    @Name("com.menear.FrameBlitted")
+    @Label("Frame Blitted")
+    @Category(CATEGORY)
+    @Description("Changed pixels coloured and written to the canvas on one pulse")
+    static final class FrameBlitted extends Event {
+
+        @Label("Full Recolour")
+        boolean fullRecolor;
+
+        @Label("Pixels")
+        long pixels;
+
+        @Label("Backlog Points")
+        @Description("Points computed but not yet on screen")
+        long backlogPoints;
+    }
+
+    @Name("com.menear.ExportStripWritten")
+    @Label("Export Strip Written")
+    @Category(CATEGORY)
+    @Description("A strip of rows tone mapped and written to an image file")
+    static final class ExportStripWritten extends Event {
+
+        @Label("Format")
+        String format;
+
+        @Label("First Row")
+        int firstRow;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Row Size")
+        @DataAmount
+        long rowBytes;
+    }
+
+    @Name("com.menear.TileServed")
+    @Label("Tile Served")
+    @Category(CATEGORY)
+    @Description("A request to the tile server, from parsing to the last byte of the response")
+    static final class TileServed extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Status")
+        int status;
+
+        @Label("Source")
+        @Description("Whether the image came from the cache, a new render or a render shared with another request")
+        String source;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,154 @@
+package com.menear;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One off-screen render waiting in or run by a {@link RenderScheduler}, together with where its image goes.
+ */
+final class RenderJob {
+
+    enum Status {
+        QUEUED, RUNNING, FINISHED, FAILED, CANCELLED
+    }
+
+    /**
+     * Higher priorities first, then in order of submission.
+     */
+    static final Comparator<RenderJob> ORDER = Comparator.comparingInt(RenderJob::getPriority).reversed()
+            .thenComparingLong(job -> job.sequence);
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final long sequence = SEQUENCE.incrementAndGet();
+    private final String name;
+    private final OffscreenRender render;
+    private final ToneMapper toneMapper;
+    private final ExportFormat format;
+    private final Path output;
+    private final RenderStats stats = new RenderStats();
+
+    private volatile int priority;
+    private volatile Status status = Status.QUEUED;
+    private volatile String message = "";
+    private volatile double exportProgress;
+    private Thread thread;
+    private boolean cancelRequested;
+
+    RenderJob(String name, OffscreenRender render, ToneMapper toneMapper, ExportFormat format, Path output,
+              int priority) {
+        this.name = name;
+        this.render = render;
+        this.toneMapper = toneMapper;
+        this.format = format;
+        this.output = output;
+        this.priority = priority;
+    }
+
+    /**
+     * Renders and exports the image on the calling thread, with the walkers on {@code pool}.
+     */
+    void execute(ForkJoinPool pool) throws IOException, InterruptedException {
+        synchronized(this) {
+            if(cancelRequested) {
+                throw new InterruptedException();
+            }
+            thread = Thread.currentThread();
+        }
+        try {
+            run(pool);
+        } finally {
+            synchronized(this) {
+                thread = null;
+            }
+        }
+    }
+
+    /**
+     * Interrupts the job if it is executing, or makes it stop as soon as it starts.
+     */
+    synchronized void requestCancel() {
+        cancelRequested = true;
+        if(thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run(ForkJoinPool pool) throws IOException, InterruptedException {
+        render.setPool(pool);
+        Path histogramFile = OffscreenRender.needsMappedHistogram(render.getWidth(), render.getHeight())
+                ? Paths.get(output + ".hist") : null;
+        HitBuffer histogram = render.run(histogramFile, stats);
+        try {
+            Map<String, String> description = render.describe();
+            description.put("Tone", toneMapper.describe());
+            HistogramExporter.export(histogram, toneMapper, format, output, description,
+                    fraction -> exportProgress = fraction);
+        } finally {
+            if(histogram instanceof MappedHistogram) {
+                ((MappedHistogram) histogram).close();
+            }
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Path getOutput() {
+        return output;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Only the scheduler changes priorities, since queued jobs have to be re-sorted.
+     */
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    Status getStatus() {
+        return status;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    void setStatus(Status status, String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    boolean isDone() {
+        return status == Status.FINISHED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    /**
+     * Returns the rendering progress in [0, 1], with the export counting as the last tenth.
+     */
+    double getProgress() {
+        if(status == Status.FINISHED) {
+            return 1.0;
+        }
+        double rendered = Math.min(1.0, (double) stats.getPointsComputed() / Math.max(1, render.getIterations()));
+        return 0.9 * rendered + 0.1 * exportProgress;
+    }
+
+    RenderStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
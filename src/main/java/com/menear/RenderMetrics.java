@@ -0,0 +1,132 @@
+package com.menear;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and timers of the render pipeline. Everything is recorded once per round, merge, pulse or
+ * export strip rather than per point, so the registry is always on.
+ */
+final class RenderMetrics {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    static final Timer ROUNDS = new Timer();
+    static final Timer MERGES = new Timer();
+    static final Timer UI_FRAMES = new Timer();
+    static final Timer EXPORT_STRIPS = new Timer();
+
+    private static final LongAdder POINTS = new LongAdder();
+    private static final LongAdder RANDOM_DRAWS = new LongAdder();
+    private static final AtomicLong FIRST_ROUND_NANOS = new AtomicLong();
+    private static final AtomicLong LAST_ROUND_NANOS = new AtomicLong();
+    private static final AtomicLong FX_BACKLOG = new AtomicLong();
+    private static final LongAccumulator MAX_FX_BACKLOG = new LongAccumulator(Math::max, 0L);
+
+    private RenderMetrics() {
+    }
+
+    /**
+     * Records a round that started at {@code startNanos} and computed {@code points} points.
+     */
+    static void recordRound(long startNanos, long points, long randomDraws) {
+        long now = System.nanoTime();
+        ROUNDS.record(now - startNanos);
+        POINTS.add(points);
+        RANDOM_DRAWS.add(randomDraws);
+        FIRST_ROUND_NANOS.compareAndSet(0L, startNanos);
+        LAST_ROUND_NANOS.accumulateAndGet(now, Math::max);
+    }
+
+    /**
+     * Records how many points are computed but not yet drawn, i.e. queued for the FX thread.
+     */
+    static void recordFxBacklog(long points) {
+        FX_BACKLOG.set(points);
+        MAX_FX_BACKLOG.accumulate(points);
+    }
+
+    static void reset() {
+        ROUNDS.reset();
+        MERGES.reset();
+        UI_FRAMES.reset();
+        EXPORT_STRIPS.reset();
+        POINTS.reset();
+        RANDOM_DRAWS.reset();
+        FIRST_ROUND_NANOS.set(0L);
+        LAST_ROUND_NANOS.set(0L);
+        FX_BACKLOG.set(0L);
+        MAX_FX_BACKLOG.reset();
+    }
+
+    /**
+     * Returns the current values by name, with rates over the time from the first round to the last.
+     */
+    static Map<String, Object> snapshot() {
+        long points = POINTS.sum();
+        long draws = RANDOM_DRAWS.sum();
+        double seconds = (LAST_ROUND_NANOS.get() - FIRST_ROUND_NANOS.get()) / 1e9;
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("points", points);
+        snapshot.put("iterationsPerSecond", seconds > 0 ? Math.round(points / seconds) : 0L);
+        snapshot.put("randomDraws", draws);
+        snapshot.put("randomDrawsPerPoint", points > 0 ? (double) draws / points : 0.0);
+        snapshot.put("rounds", ROUNDS.describe());
+        snapshot.put("merges", MERGES.describe());
+        snapshot.put("uiFrames", UI_FRAMES.describe());
+        snapshot.put("exportStrips", EXPORT_STRIPS.describe());
+        snapshot.put("fxBacklogPoints", FX_BACKLOG.get());
+        snapshot.put("maxFxBacklogPoints", MAX_FX_BACKLOG.get());
+        return snapshot;
+    }
+
+    static void write(Path file) throws IOException {
+        try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            GSON.toJson(snapshot(), writer);
+        }
+    }
+
+    /**
+     * Counts events and their total and longest durations.
+     */
+    static final class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+
+        Map<String, Object> describe() {
+            long events = count.sum();
+            long total = totalNanos.sum();
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("count", events);
+            description.put("totalMillis", total / 1e6);
+            description.put("meanMillis", events > 0 ? total / 1e6 / events : 0.0);
+            description.put("maxMillis", maxNanos.get() / 1e6);
+            return description;
+        }
+    }
+}
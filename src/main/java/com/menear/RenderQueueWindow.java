@@ -0,0 +1,117 @@
+package com.menear;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.control.cell.ProgressBarTableCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+/**
+ * Non-modal window listing the jobs of the {@link RenderScheduler}, with controls to reprioritize and cancel them.
+ */
+class RenderQueueWindow {
+
+    private static final Duration POLL_INTERVAL = Duration.millis(500);
+
+    private final RenderScheduler scheduler;
+    private final Stage stage = new Stage();
+    private final ObservableList<RenderJob> jobs = FXCollections.observableArrayList();
+    private final TableView<RenderJob> tblJobs = new TableView<>(jobs);
+    private final Timeline poll;
+
+    private Button btnRaisePriority = new Button("Raise Priority");
+    private Button btnLowerPriority = new Button("Lower Priority");
+    private Button btnCancel = new Button("Cancel");
+    private Button btnCancelAll = new Button("Cancel All");
+    private Button btnClearDone = new Button("Clear Finished");
+    private Label lblConcurrentJobs = new Label("Concurrent jobs: ");
+    private Spinner<Integer> spnConcurrentJobs = new Spinner<>(1, 64, RenderScheduler.DEFAULT_CONCURRENT_JOBS);
+
+    RenderQueueWindow(RenderScheduler scheduler) {
+        this.scheduler = scheduler;
+
+        TableColumn<RenderJob, String> colName = new TableColumn<>("Job");
+        colName.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getName()));
+        colName.setPrefWidth(160.0);
+        TableColumn<RenderJob, Integer> colPriority = new TableColumn<>("Priority");
+        colPriority.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getPriority()));
+        TableColumn<RenderJob, String> colStatus = new TableColumn<>("Status");
+        colStatus.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getStatus().name()));
+        TableColumn<RenderJob, Double> colProgress = new TableColumn<>("Progress");
+        colProgress.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getProgress()));
+        colProgress.setCellFactory(ProgressBarTableCell.forTableColumn());
+        colProgress.setPrefWidth(120.0);
+        TableColumn<RenderJob, String> colMessage = new TableColumn<>("Message");
+        colMessage.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getMessage()));
+        colMessage.setPrefWidth(260.0);
+        tblJobs.getColumns().add(colName);
+        tblJobs.getColumns().add(colPriority);
+        tblJobs.getColumns().add(colStatus);
+        tblJobs.getColumns().add(colProgress);
+        tblJobs.getColumns().add(colMessage);
+        tblJobs.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        tblJobs.setPlaceholder(new Label("No render jobs. Use File > Parameter Sweep to add some."));
+
+        btnRaisePriority.setOnAction(event -> changePriority(1));
+        btnLowerPriority.setOnAction(event -> changePriority(-1));
+        btnCancel.setOnAction(event -> tblJobs.getSelectionModel().getSelectedItems().forEach(scheduler::cancel));
+        btnCancelAll.setOnAction(event -> scheduler.cancelAll());
+        btnClearDone.setOnAction(event -> {
+            scheduler.removeDone();
+            refreshJobs();
+        });
+        spnConcurrentJobs.setPrefWidth(70.0);
+        spnConcurrentJobs.valueProperty().addListener((observable, oldValue, newValue) ->
+                scheduler.setMaxConcurrentJobs(newValue));
+
+        HBox hbControls = new HBox(6.0, btnRaisePriority, btnLowerPriority, btnCancel, btnCancelAll, btnClearDone,
+                new Separator(Orientation.VERTICAL), lblConcurrentJobs, spnConcurrentJobs);
+        hbControls.setAlignment(Pos.CENTER);
+        VBox vbQueue = new VBox(8.0, tblJobs, hbControls);
+        vbQueue.setPadding(new Insets(10.0));
+
+        stage.initOwner(Fractals.getMainStage());
+        stage.initModality(Modality.NONE);
+        stage.setTitle("Render Queue");
+        stage.setScene(new Scene(vbQueue, 760.0, 420.0));
+
+        scheduler.addListener(job -> Platform.runLater(this::refreshJobs));
+        poll = new Timeline(new KeyFrame(POLL_INTERVAL, event -> tblJobs.refresh()));
+        poll.setCycleCount(Timeline.INDEFINITE);
+        stage.setOnShown(event -> poll.play());
+        stage.setOnHidden(event -> poll.stop());
+    }
+
+    void show() {
+        refreshJobs();
+        stage.show();
+        stage.toFront();
+    }
+
+    private void changePriority(int delta) {
+        for(RenderJob job : tblJobs.getSelectionModel().getSelectedItems()) {
+            scheduler.setPriority(job, job.getPriority() + delta);
+        }
+        tblJobs.refresh();
+    }
+
+    private void refreshJobs() {
+        RenderJob selected = tblJobs.getSelectionModel().getSelectedItem();
+        jobs.setAll(scheduler.getJobs());
+        if(selected != null) {
+            tblJobs.getSelectionModel().select(selected);
+        }
+    }
+}
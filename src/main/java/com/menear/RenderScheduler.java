@@ -0,0 +1,181 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs queued {@link RenderJob}s, highest priority first, with at most a fixed number running at once. The walkers
+ * of all running jobs share one fork-join pool with a thread per processor, so however many jobs run, the machine
+ * is never oversubscribed and the jobs take turns round by round.
+ * <p>
+ * Each running job is driven by a thread of its own, which mostly waits on the pool; queued jobs hold no thread.
+ */
+class RenderScheduler implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderScheduler.class);
+
+    static final int DEFAULT_CONCURRENT_JOBS = 2;
+
+    private final ForkJoinPool cpuPool;
+    private final ExecutorService jobThreads;
+    private final PriorityQueue<RenderJob> queue = new PriorityQueue<>(RenderJob.ORDER);
+    private final List<RenderJob> jobs = new ArrayList<>();
+    private final List<Consumer<RenderJob>> listeners = new CopyOnWriteArrayList<>();
+
+    private int maxConcurrentJobs;
+    private int running;
+
+    RenderScheduler(int threads, int maxConcurrentJobs) {
+        if(threads < 1 || maxConcurrentJobs < 1) {
+            throw new IllegalArgumentException("Thread and job limits must be positive");
+        }
+        this.maxConcurrentJobs = maxConcurrentJobs;
+        cpuPool = new ForkJoinPool(threads);
+        AtomicInteger threadNumber = new AtomicInteger();
+        jobThreads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "render-job-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the pool the walkers of all jobs run on. Interactive renders can use it too, so that they share the
+     * processors fairly with queued jobs.
+     */
+    ForkJoinPool getCpuPool() {
+        return cpuPool;
+    }
+
+    synchronized void submit(RenderJob job) {
+        jobs.add(job);
+        queue.add(job);
+        notifyListeners(job);
+        dispatch();
+    }
+
+    /**
+     * Removes a queued job, or interrupts a running one, which stops it after its current round.
+     */
+    synchronized void cancel(RenderJob job) {
+        if(queue.remove(job)) {
+            job.setStatus(RenderJob.Status.CANCELLED, "Cancelled before it started");
+            notifyListeners(job);
+            notifyAll();
+        } else if(job.getStatus() == RenderJob.Status.RUNNING) {
+            job.requestCancel();
+        }
+    }
+
+    synchronized void cancelAll() {
+        for(RenderJob job : new ArrayList<>(jobs)) {
+            cancel(job);
+        }
+    }
+
+    /**
+     * Changes the priority of a job. Only matters while it is queued.
+     */
+    synchronized void setPriority(RenderJob job, int priority) {
+        boolean queued = queue.remove(job);
+        job.setPriority(priority);
+        if(queued) {
+            queue.add(job);
+        }
+        notifyListeners(job);
+    }
+
+    synchronized void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        this.maxConcurrentJobs = Math.max(1, maxConcurrentJobs);
+        dispatch();
+    }
+
+    synchronized int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    synchronized List<RenderJob> getJobs() {
+        return new ArrayList<>(jobs);
+    }
+
+    /**
+     * Forgets finished, failed and cancelled jobs.
+     */
+    synchronized void removeDone() {
+        jobs.removeIf(RenderJob::isDone);
+    }
+
+    /**
+     * Calls {@code listener} on some thread whenever a job is added or changes status.
+     */
+    void addListener(Consumer<RenderJob> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Blocks until no job is queued or running.
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        while(!queue.isEmpty() || running > 0) {
+            wait();
+        }
+    }
+
+    private void dispatch() {
+        while(running < maxConcurrentJobs && !queue.isEmpty()) {
+            RenderJob job = queue.poll();
+            running++;
+            job.setStatus(RenderJob.Status.RUNNING, "");
+            notifyListeners(job);
+            jobThreads.execute(() -> execute(job));
+        }
+    }
+
+    private void execute(RenderJob job) {
+        LOG.info("Starting render job {}", job.getName());
+        try {
+            // Drops an interrupt meant for the job this thread ran before
+            Thread.interrupted();
+            job.execute(cpuPool);
+            job.setStatus(RenderJob.Status.FINISHED, "Saved " + job.getOutput());
+            LOG.info("Finished render job {} in {} ms", job.getName(),
+                    job.getStats().getElapsedNanos() / 1_000_000L);
+        } catch(InterruptedException e) {
+            job.setStatus(RenderJob.Status.CANCELLED, "Cancelled");
+            LOG.warn("Render job {} cancelled", job.getName());
+        } catch(Exception e) {
+            job.setStatus(RenderJob.Status.FAILED, String.valueOf(e.getMessage()));
+            LOG.error("Render job " + job.getName() + " failed!", e);
+        } finally {
+            synchronized(this) {
+                running--;
+                notifyListeners(job);
+                dispatch();
+                notifyAll();
+            }
+        }
+    }
+
+    private void notifyListeners(RenderJob job) {
+        for(Consumer<RenderJob> listener : listeners) {
+            listener.accept(job);
+        }
+    }
+
+    @Override
+    public void close() {
+        cancelAll();
+        jobThreads.shutdownNow();
+        cpuPool.shutdownNow();
+    }
+}
@@ -0,0 +1,52 @@
+package com.menear;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress counters shared between the render threads and whatever displays them. Walkers report computed
+ * points once per batch so the cost is negligible.
+ */
+class RenderStats {
+
+    private final LongAdder pointsComputed = new LongAdder();
+    private volatile long startNanos;
+    private volatile long finishNanos;
+    private volatile boolean running;
+
+    void start() {
+        pointsComputed.reset();
+        startNanos = System.nanoTime();
+        running = true;
+    }
+
+    void finish() {
+        finishNanos = System.nanoTime();
+        running = false;
+    }
+
+    void reset() {
+        pointsComputed.reset();
+        startNanos = 0;
+        finishNanos = 0;
+        running = false;
+    }
+
+    void addPointsComputed(long points) {
+        pointsComputed.add(points);
+    }
+
+    long getPointsComputed() {
+        return pointsComputed.sum();
+    }
+
+    long getElapsedNanos() {
+        if(startNanos == 0) {
+            return 0;
+        }
+        return (running ? System.nanoTime() : finishNanos) - startNanos;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,158 @@
+package com.menear;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command-line entry point of a render worker: connects to a {@link RenderCoordinator}, renders the walkers it is
+ * given and streams the hit counts back as compressed deltas until its share is done.
+ */
+public class RenderWorker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderWorker.class);
+
+    private static final int ROUND_SIZE = 1 << 18;
+    private static final long SEND_INTERVAL_NANOS = 250_000_000L;
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: RenderWorker --connect <host:port> [options]",
+            "  --wait <s>             keep trying to reach the coordinator this long (default 30)");
+
+    public static void main(String[] args) {
+        Map<String, String> options;
+        String host;
+        int port;
+        long waitSeconds;
+        try {
+            options = BatchRender.parseArguments(args, Set.of("connect", "wait"), Set.of("help"));
+            if(options.containsKey("help")) {
+                System.out.println(USAGE);
+                return;
+            }
+            String address = BatchRender.required(options, "connect");
+            int colon = address.lastIndexOf(':');
+            if(colon < 0) {
+                throw new IllegalArgumentException("Expected host:port but got: " + address);
+            }
+            host = address.substring(0, colon);
+            port = Integer.parseInt(address.substring(colon + 1));
+            waitSeconds = BatchRender.longOption(options, "wait", 30L);
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try(Socket socket = connect(host, port, waitSeconds)) {
+            work(socket);
+        } catch(SocketException e) {
+            // The coordinator finished early, failed or was stopped
+            LOG.warn("Lost connection to the coordinator: " + e.getMessage());
+            System.exit(1);
+        } catch(IOException e) {
+            LOG.error("Render worker failed!", e);
+            System.exit(1);
+        } catch(InterruptedException e) {
+            LOG.warn("Interrupted!");
+            System.exit(1);
+        }
+    }
+
+    private static Socket connect(String host, int port, long waitSeconds) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + waitSeconds * 1_000_000_000L;
+        while(true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port));
+                return socket;
+            } catch(ConnectException e) {
+                socket.close();
+                if(System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Runs one job received over {@code socket}. Errors in the job itself are reported to the coordinator; a
+     * closed connection means the coordinator gave up and ends the job.
+     */
+    static void work(Socket socket) throws IOException, InterruptedException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        out.writeInt(DistributedJob.MAGIC);
+        out.writeInt(Runtime.getRuntime().availableProcessors());
+        out.flush();
+
+        DistributedJob job = DistributedJob.read(in);
+        WalkerState[] walkers = job.getWalkers();
+        LOG.info("Rendering walkers {} to {} of {} ({} points in total)", job.getFirstWalker(),
+                job.getFirstWalker() + walkers.length - 1, job.getTotalWalkers(), job.getIterations());
+
+        RenderStats stats = new RenderStats();
+        DensityHistogram pending = new DensityHistogram(job.getWidth(), job.getHeight());
+        RenderEvents.RenderRun event = new RenderEvents.RenderRun("worker", job.getWidth(), job.getHeight(),
+                walkers.length, job.getIterations());
+        event.begin();
+        stats.start();
+        try(ParallelChaosGame game = new ParallelChaosGame(job.getRuleSet(), job.getRandomAlgorithm(), walkers,
+                job.getFirstWalker(), job.getTotalWalkers(), job.getIterations(), job.getWidth(), job.getHeight(),
+                stats)) {
+            if(!job.getViewport().isIdentity()) {
+                game.setOutputMap(OrbitPrefix.forViewport(job.getRuleSet(), job.getViewport(), job.getWidth(),
+                        job.getHeight()));
+            }
+            long lastSend = System.nanoTime();
+            while(!game.isFinished()) {
+                game.runRound(ROUND_SIZE);
+                game.mergeInto(pending);
+                if(System.nanoTime() - lastSend >= SEND_INTERVAL_NANOS) {
+                    sendDelta(out, pending);
+                    lastSend = System.nanoTime();
+                }
+            }
+            sendDelta(out, pending);
+        } catch(RuntimeException e) {
+            LOG.error("Render job failed!", e);
+            out.writeByte(DistributedJob.ERROR);
+            out.writeUTF(String.valueOf(e.getMessage()));
+            out.flush();
+            return;
+        } finally {
+            stats.finish();
+            event.pointsComputed = stats.getPointsComputed();
+            event.commit();
+        }
+        out.writeByte(DistributedJob.DONE);
+        out.writeLong(stats.getPointsComputed());
+        out.flush();
+        LOG.info("Computed {} points in {} ms", stats.getPointsComputed(), stats.getElapsedNanos() / 1_000_000L);
+    }
+
+    private static void sendDelta(DataOutputStream out, DensityHistogram pending) throws IOException {
+        HistogramDelta delta = pending.drainDelta();
+        if(delta.getPoints() == 0) {
+            return;
+        }
+        out.writeByte(DistributedJob.DELTA);
+        delta.write(out);
+        out.flush();
+    }
+}
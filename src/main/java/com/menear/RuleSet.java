@@ -0,0 +1,190 @@
+package com.menear;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The JSON rule set file format. Every vertex has an affine map that is applied when it is chosen; a map is
+ * either given as a contraction towards its vertex ({@code ratio}, {@code rotation} in degrees and
+ * {@code translate}) or as a raw {@code matrix} [a, b, c, d, e, f] mapping (x, y) to (ax + by + e, cx + dy + f).
+ * Coordinates are expressed in the {@code bounds} rectangle [minX, minY, maxX, maxY], which defaults to the
+ * medium canvas.
+ */
+class RuleSet {
+
+    static final double DEFAULT_RATIO = 0.5;
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final double[] DEFAULT_BOUNDS = {0.0, 0.0, 800.0, 600.0};
+
+    private String name;
+    private double[] bounds;
+    private double[][] vertices;
+    private List<VertexMap> maps;
+    private double[] probabilities;
+    private VertexSelectionRule selectionRule;
+    private double[][] transitions;
+
+    static class VertexMap {
+        private Double ratio;
+        private Double rotation;
+        private double[] translate;
+        private double[] matrix;
+
+        VertexMap() {
+        }
+
+        VertexMap(double[] matrix) {
+            this.matrix = matrix;
+        }
+    }
+
+    static RuleSet read(Path path) throws IOException {
+        try(Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            RuleSet ruleSet = GSON.fromJson(reader, RuleSet.class);
+            if(ruleSet == null) {
+                throw new IOException("Rule set file is empty: " + path);
+            }
+            return ruleSet;
+        } catch(JsonParseException e) {
+            throw new IOException("Invalid rule set file " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    void write(Path path) throws IOException {
+        try(Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+    }
+
+    static RuleSet fromJson(String json) throws IOException {
+        try {
+            RuleSet ruleSet = GSON.fromJson(json, RuleSet.class);
+            if(ruleSet == null) {
+                throw new IOException("Rule set is empty");
+            }
+            return ruleSet;
+        } catch(JsonParseException e) {
+            throw new IOException("Invalid rule set: " + e.getMessage(), e);
+        }
+    }
+
+    String toJson() {
+        return GSON.toJson(this);
+    }
+
+    /**
+     * Builds a midpoint rule set from vertices given in the default bounds.
+     */
+    static RuleSet fromVertices(double[][] vertices) {
+        RuleSet ruleSet = new RuleSet();
+        ruleSet.vertices = vertices;
+        return ruleSet;
+    }
+
+    /**
+     * Builds a rule set in canvas coordinates from a compiled one, e.g. for exporting the current shape.
+     */
+    static RuleSet fromCompiled(String name, CompiledRuleSet compiled, double width, double height) {
+        RuleSet ruleSet = new RuleSet();
+        ruleSet.name = name;
+        ruleSet.bounds = new double[] {0.0, 0.0, width, height};
+        int n = compiled.getVertexCount();
+        ruleSet.vertices = new double[n][];
+        ruleSet.maps = new ArrayList<>(n);
+        for(int i = 0; i < n; i++) {
+            ruleSet.vertices[i] = new double[] {compiled.getVertexX(i), compiled.getVertexY(i)};
+            ruleSet.maps.add(new VertexMap(compiled.getMatrix(i)));
+        }
+        ruleSet.probabilities = compiled.getProbabilities();
+        ruleSet.selectionRule = compiled.getSelectionRule();
+        ruleSet.transitions = compiled.getTransitions();
+        return ruleSet;
+    }
+
+    /**
+     * Compiles the rule set into the flat representation used by the engine, in the coordinate space given by
+     * mapping {@link #getBounds()} onto a {@code width} x {@code height} pixel raster.
+     */
+    CompiledRuleSet compile(double width, double height) {
+        int n = vertices != null ? vertices.length : (maps != null ? maps.size() : 0);
+        if(n < 2) {
+            throw new IllegalArgumentException("A rule set needs at least two vertices");
+        }
+        if(maps != null && maps.size() != n) {
+            throw new IllegalArgumentException("Expected " + n + " maps but found " + maps.size());
+        }
+        if(probabilities != null && probabilities.length != n) {
+            throw new IllegalArgumentException("Expected " + n + " probabilities but found " + probabilities.length);
+        }
+
+        double[] vertexX = new double[n];
+        double[] vertexY = new double[n];
+        double[][] matrices = new double[n][];
+        for(int i = 0; i < n; i++) {
+            VertexMap map = maps != null ? maps.get(i) : null;
+            if(vertices != null) {
+                if(vertices[i] == null || vertices[i].length != 2) {
+                    throw new IllegalArgumentException("Vertex " + i + " must have exactly two coordinates");
+                }
+                vertexX[i] = vertices[i][0];
+                vertexY[i] = vertices[i][1];
+            }
+            if(map != null && map.matrix != null) {
+                if(map.matrix.length != 6) {
+                    throw new IllegalArgumentException("Matrix of map " + i + " must have six entries");
+                }
+                matrices[i] = map.matrix.clone();
+                if(vertices == null) {
+                    double[] fixedPoint = CompiledRuleSet.fixedPoint(matrices[i]);
+                    vertexX[i] = fixedPoint[0];
+                    vertexY[i] = fixedPoint[1];
+                }
+            } else if(vertices == null) {
+                throw new IllegalArgumentException("Map " + i + " needs a matrix when no vertices are given");
+            } else {
+                double ratio = map != null && map.ratio != null ? map.ratio : DEFAULT_RATIO;
+                double rotation = map != null && map.rotation != null ? Math.toRadians(map.rotation) : 0.0;
+                double[] translate = map != null && map.translate != null ? map.translate : new double[2];
+                if(translate.length != 2) {
+                    throw new IllegalArgumentException("Translation of map " + i + " must have two entries");
+                }
+                matrices[i] = CompiledRuleSet.contraction(vertexX[i], vertexY[i], ratio, rotation,
+                        translate[0], translate[1]);
+            }
+        }
+
+        double[] weights = probabilities != null ? probabilities.clone() : null;
+        VertexSelectionRule rule = selectionRule != null ? selectionRule : VertexSelectionRule.NO_RESTRICTION;
+        CompiledRuleSet compiled = new CompiledRuleSet(vertexX, vertexY, matrices, weights, rule, transitions);
+
+        double[] b = getBounds();
+        double scaleX = width / (b[2] - b[0]);
+        double scaleY = height / (b[3] - b[1]);
+        return compiled.transformed(scaleX, scaleY, -b[0] * scaleX, -b[1] * scaleY);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    double[] getBounds() {
+        if(bounds == null) {
+            return DEFAULT_BOUNDS.clone();
+        }
+        if(bounds.length != 4 || bounds[2] <= bounds[0] || bounds[3] <= bounds[1]) {
+            throw new IllegalArgumentException("Bounds must be [minX, minY, maxX, maxY]");
+        }
+        return bounds.clone();
+    }
+}
@@ -19,6 +19,18 @@ class SelectedShape {
         return coordinates;
     }
 
+    double[][] snapshotCoordinates() {
+        double[] xs = new double[coordinates.size()];
+        double[] ys = new double[coordinates.size()];
+        int i = 0;
+        for(double[] coord : coordinates) {
+            xs[i] = coord[0];
+            ys[i] = coord[1];
+            i++;
+        }
+        return new double[][] { xs, ys };
+    }
+
     Color getColor() {
         return color;
     }
@@ -0,0 +1,245 @@
+package com.menear;
+
+import java.util.Arrays;
+
+/**
+ * A vertex selection rule compiled into one alias table per state, so that picking the next vertex always costs
+ * a single random draw regardless of how restrictive the rule is.
+ * <p>
+ * The state is the vertex chosen {@link #getLag()} steps back. Lag 0 means every pick is independent and a
+ * single row is used; otherwise row {@code v} holds the distribution after vertex {@code v} and an extra final
+ * row is used until the walker has enough history.
+ */
+final class SelectionTable {
+
+    private static final int MAX_STATIONARY_ITERATIONS = 100_000;
+    private static final double STATIONARY_TOLERANCE = 1e-13;
+
+    private final int vertexCount;
+    private final int lag;
+    private final double[] probability;
+    private final int[] alias;
+    private final double[] distribution;
+
+    private SelectionTable(int vertexCount, int lag, double[][] rows) {
+        this.vertexCount = vertexCount;
+        this.lag = lag;
+        this.probability = new double[rows.length * vertexCount];
+        this.alias = new int[rows.length * vertexCount];
+        this.distribution = new double[rows.length * vertexCount];
+        for(int row = 0; row < rows.length; row++) {
+            buildAliasRow(rows[row], row * vertexCount);
+        }
+    }
+
+    static SelectionTable compile(VertexSelectionRule rule, int vertexCount) {
+        double[] weights = new double[vertexCount];
+        Arrays.fill(weights, 1.0);
+        return compile(rule, weights, null);
+    }
+
+    /**
+     * Compiles {@code rule} over the given weights. Every vertex must leave at least one successor with a positive
+     * weight, except under the built-in rules with one or two vertices, which can exclude every vertex; there a
+     * vertex without a successor falls back to the unrestricted weights so that the walkers do not stall.
+     *
+     * @param weights     relative selection weight of each vertex
+     * @param transitions for {@link VertexSelectionRule#CUSTOM_TRANSITIONS}, the relative weight of moving from
+     *                    the row vertex to the column vertex; ignored for other rules
+     */
+    static SelectionTable compile(VertexSelectionRule rule, double[] weights, double[][] transitions) {
+        int n = weights.length;
+        if(n < 1) {
+            throw new IllegalArgumentException("At least one vertex is required");
+        }
+        for(double weight : weights) {
+            checkWeight(weight);
+        }
+
+        if(rule == VertexSelectionRule.NO_RESTRICTION) {
+            return new SelectionTable(n, 0, new double[][] { weights.clone() });
+        }
+        if(rule == VertexSelectionRule.CUSTOM_TRANSITIONS && (transitions == null || transitions.length != n)) {
+            throw new IllegalArgumentException("A " + n + "x" + n + " transition matrix is required");
+        }
+        if(rule == VertexSelectionRule.CUSTOM_TRANSITIONS) {
+            for(double[] row : transitions) {
+                if(row == null || row.length != n) {
+                    throw new IllegalArgumentException("A " + n + "x" + n + " transition matrix is required");
+                }
+            }
+        }
+
+        int lag = rule == VertexSelectionRule.DIFFERENT_THAN_TWO_BACK ? 2 : 1;
+        double[][] rows = new double[n + 1][];
+        for(int state = 0; state < n; state++) {
+            double[] row = new double[n];
+            boolean any = false;
+            for(int next = 0; next < n; next++) {
+                double weight = rule == VertexSelectionRule.CUSTOM_TRANSITIONS
+                        ? transitions[state][next]
+                        : (isAllowed(rule, n, state, next) ? weights[next] : 0.0);
+                checkWeight(weight);
+                row[next] = weight;
+                any |= weight > 0.0;
+            }
+            if(!any && (rule == VertexSelectionRule.CUSTOM_TRANSITIONS || n > 2)) {
+                throw new IllegalArgumentException("Vertex " + state + " has no allowed successor under " + rule);
+            }
+            rows[state] = any ? row : weights.clone();
+        }
+        rows[n] = weights.clone();
+        return new SelectionTable(n, lag, rows);
+    }
+
+    private static void checkWeight(double weight) {
+        if(!(weight >= 0.0 && weight < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Selection weights must be finite and non-negative");
+        }
+    }
+
+    private static boolean isAllowed(VertexSelectionRule rule, int n, int state, int next) {
+        switch(rule) {
+            case DIFFERENT_THAN_PREVIOUS:
+            case DIFFERENT_THAN_TWO_BACK:
+                return next != state;
+            case NOT_NEIGHBOR_OF_PREVIOUS:
+                return next != (state + 1) % n && next != (state + n - 1) % n;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Picks the next vertex for the given row with one uniform draw: the integer part selects the column and
+     * the fractional part decides between the column and its alias.
+     */
+    int next(RandomSource random, int row) {
+        return pick(random.nextDouble(), row);
+    }
+
+    /**
+     * Picks a vertex for the given row from a uniform value in [0, 1), as {@link #next} does.
+     */
+    int pick(double uniform, int row) {
+        double u = uniform * vertexCount;
+        int column = (int) u;
+        int index = row * vertexCount + column;
+        return (u - column) < probability[index] ? column : alias[index];
+    }
+
+    /**
+     * Returns the row to use given the vertex chosen {@link #getLag()} steps back, or -1 if there is none yet.
+     */
+    int rowFor(int laggedVertex) {
+        if(lag == 0) {
+            return 0;
+        }
+        return laggedVertex < 0 ? vertexCount : laggedVertex;
+    }
+
+    /**
+     * Returns the probability that {@link #pick} returns {@code vertex} for the given row.
+     */
+    double probability(int row, int vertex) {
+        return distribution[row * vertexCount + vertex];
+    }
+
+    /**
+     * Returns how often each vertex is picked in the long run. For lag 0 this is the single row; otherwise it is the
+     * stationary distribution of the chain over the rows of the vertices, found by power iteration. The iteration
+     * runs on the lazy chain (P + I) / 2, which has the same stationary distribution but cannot oscillate.
+     */
+    double[] stationaryDistribution() {
+        double[] current = new double[vertexCount];
+        if(lag == 0) {
+            System.arraycopy(distribution, 0, current, 0, vertexCount);
+            return current;
+        }
+        Arrays.fill(current, 1.0 / vertexCount);
+        double[] next = new double[vertexCount];
+        for(int iteration = 0; iteration < MAX_STATIONARY_ITERATIONS; iteration++) {
+            for(int v = 0; v < vertexCount; v++) {
+                next[v] = 0.5 * current[v];
+            }
+            for(int from = 0; from < vertexCount; from++) {
+                double share = 0.5 * current[from];
+                int offset = from * vertexCount;
+                for(int to = 0; to < vertexCount; to++) {
+                    next[to] += share * distribution[offset + to];
+                }
+            }
+            double change = 0.0;
+            for(int v = 0; v < vertexCount; v++) {
+                change += Math.abs(next[v] - current[v]);
+            }
+            double[] swap = current;
+            current = next;
+            next = swap;
+            if(change < STATIONARY_TOLERANCE) {
+                break;
+            }
+        }
+        return current;
+    }
+
+    int getVertexCount() {
+        return vertexCount;
+    }
+
+    int getLag() {
+        return lag;
+    }
+
+    private void buildAliasRow(double[] weights, int offset) {
+        int n = weights.length;
+        double total = 0.0;
+        for(double weight : weights) {
+            total += weight;
+        }
+        if(total <= 0.0) {
+            throw new IllegalArgumentException("At least one vertex must have a positive selection weight");
+        }
+
+        for(int i = 0; i < n; i++) {
+            distribution[offset + i] = weights[i] / total;
+        }
+
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for(int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if(scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while(smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[offset + less] = scaled[less];
+            alias[offset + less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if(scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        while(largeCount > 0) {
+            int index = large[--largeCount];
+            probability[offset + index] = 1.0;
+            alias[offset + index] = index;
+        }
+        while(smallCount > 0) {
+            int index = small[--smallCount];
+            probability[offset + index] = 1.0;
+            alias[offset + index] = index;
+        }
+    }
+}
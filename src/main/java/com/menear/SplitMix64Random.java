@@ -0,0 +1,51 @@
+package com.menear;
+
+/**
+ * SplitMix64, the generator behind {@link java.util.SplittableRandom}. Splitting derives a new seed and gamma
+ * from this stream, which gives statistically independent streams without a jump table.
+ */
+class SplitMix64Random implements RandomSource {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long seed;
+    private final long gamma;
+
+    SplitMix64Random(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    SplitMix64Random(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    @Override
+    public long nextLong() {
+        return mix64(seed += gamma);
+    }
+
+    @Override
+    public RandomSource split() {
+        return new SplitMix64Random(nextLong(), mixGamma(seed += gamma));
+    }
+
+    @Override
+    public long[] getState() {
+        return new long[] {seed, gamma};
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
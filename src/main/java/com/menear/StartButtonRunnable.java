@@ -1,87 +1,168 @@
 package com.menear;
 
 import javafx.application.Platform;
-import javafx.beans.property.SimpleIntegerProperty;
-import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.paint.Color;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 class StartButtonRunnable implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(StartButtonRunnable.class);
 
-    private static final double SIZE = 2.0;
-    private static final Color COLOR = Color.LIMEGREEN;
+    static final Path AUTOSAVE_FILE = Paths.get(System.getProperty("user.home"), ".fractals", "autosave.ckpt");
 
-    private SelectedShape selectedShape;
-    private GraphicsContext context;
-    private double[] currentLocation;
-    private SimpleIntegerProperty counterVal;
+    private static final int MIN_ROUND_SIZE = 1 << 16;
+    private static final long CHECKPOINT_INTERVAL_NANOS = 60_000_000_000L;
 
-    public StartButtonRunnable(GraphicsContext context, SelectedShape selectedShape, double[] startingLocation,
-                               SimpleIntegerProperty counterVal) {
-        this.context = context;
-        this.selectedShape = selectedShape;
-        currentLocation = new double[] { startingLocation[0], startingLocation[1] };
-        this.counterVal = counterVal;
+    private DensityHistogram histogram;
+    private RenderStats stats;
+
+    private final CompiledRuleSet ruleSet;
+    private final double startX;
+    private final double startY;
+    private final long iterations;
+    private final long seed;
+    private final RandomAlgorithm randomAlgorithm;
+    private final WalkerState[] walkers;
+    private final boolean resumed;
+    private final boolean untilConverged;
+    private Viewport viewport;
+
+    public StartButtonRunnable(DensityHistogram histogram, RenderStats stats, CompiledRuleSet ruleSet,
+                               double[] startingLocation) {
+        this.histogram = histogram;
+        this.stats = stats;
+        this.ruleSet = ruleSet;
+        startX = startingLocation[0];
+        startY = startingLocation[1];
+        untilConverged = Fractals.getControlPanel().isUntilConverged();
+        // The start point itself counts as the first iteration
+        iterations = untilConverged ? ConvergenceMonitor.iterationLimit(histogram.getWidth(), histogram.getHeight())
+                : Fractals.getControlPanel().getIterations() - 1;
+        seed = Fractals.getControlPanel().getSeed();
+        randomAlgorithm = Fractals.getControlPanel().getRandomAlgorithm();
+        walkers = WalkerState.initial(startX, startY, randomAlgorithm, seed,
+                Fractals.getControlPanel().getWorkerCount());
+        resumed = false;
+        viewport = Viewport.IDENTITY;
+    }
+
+    /**
+     * Continues the run saved in {@code checkpoint}, whose counts must already be restored into
+     * {@code histogram}. The iteration target is raised to the control panel's value if that is higher.
+     */
+    public StartButtonRunnable(DensityHistogram histogram, RenderStats stats, Checkpoint checkpoint) {
+        this.histogram = histogram;
+        this.stats = stats;
+        this.ruleSet = checkpoint.getRuleSet();
+        startX = Double.NaN;
+        startY = Double.NaN;
+        untilConverged = Fractals.getControlPanel().isUntilConverged();
+        long target = untilConverged ? ConvergenceMonitor.iterationLimit(histogram.getWidth(), histogram.getHeight())
+                : Fractals.getControlPanel().getIterations() - 1;
+        iterations = Math.max(target, checkpoint.getIterations());
+        seed = checkpoint.getSeed();
+        randomAlgorithm = checkpoint.getRandomAlgorithm();
+        walkers = checkpoint.getWalkers();
+        resumed = true;
+        viewport = checkpoint.getViewport();
     }
 
     @Override
     public void run() {
-        SecureRandom secRandom;
-        try {
-            secRandom = SecureRandom.getInstanceStrong();
-        } catch(NoSuchAlgorithmException e) {
-            LOG.warn("Unable to get strong random number generator algorithm!");
-            secRandom = new SecureRandom();
+        LOG.info("{} points with {} worker(s), {} seed {}...", resumed ? "Resuming" : "Drawing", walkers.length,
+                randomAlgorithm.getDisplayName(), seed);
+        if(!resumed) {
+            histogram.addPoints(new double[] { startX }, new double[] { startY }, 1);
         }
 
-        LOG.info("Drawing points...");
-        drawPoint(currentLocation, 1);
-
-        try {
-            List<double[]> coordinatesList = new ArrayList<>(selectedShape.getCoordinates());
-            double[] previousCoord = null;
-
-            int i = 2;
-            while(i <= Fractals.getControlPanel().getIterations() && !Thread.interrupted()) {
-                Thread.sleep(Fractals.getControlPanel().getDelay());
-                double[] coord = coordinatesList.get(secRandom.nextInt(coordinatesList.size()));
-
-                switch(Fractals.getControlPanel().getVertexSelectionRule()) {
-                    case NO_RESTRICTION:
-                        break;
-                    case DIFFERENT_THAN_PREVIOUS:
-                        while(coord == previousCoord) {
-                            coord = coordinatesList.get(secRandom.nextInt(coordinatesList.size()));
+        RenderEvents.RenderRun event = new RenderEvents.RenderRun("interactive", histogram.getWidth(),
+                histogram.getHeight(), walkers.length, iterations);
+        event.begin();
+        int roundSize = Math.max(MIN_ROUND_SIZE, histogram.getWidth() * histogram.getHeight());
+        // Shares the processors with any queued render jobs
+        try(ParallelChaosGame game = new ParallelChaosGame(ruleSet, randomAlgorithm, walkers, iterations,
+                histogram.getWidth(), histogram.getHeight(), stats, Fractals.getRenderScheduler().getCpuPool())) {
+            stats.start();
+            game.setOutputMap(outputMapFor(viewport));
+            long lastCheckpoint = System.nanoTime();
+            RatePacer pacer = new RatePacer();
+            ConvergenceMonitor monitor = untilConverged ? new ConvergenceMonitor(histogram) : null;
+            try {
+                while(true) {
+                    Viewport requested = Fractals.getFractalCanvas().getViewport();
+                    if(!requested.equals(viewport)) {
+                        // The walkers are already on the attractor, so the new view starts without a transient
+                        viewport = requested;
+                        game.setOutputMap(outputMapFor(viewport));
+                        game.restartIterations();
+                        histogram.clear();
+                        if(monitor != null) {
+                            monitor = new ConvergenceMonitor(histogram);
                         }
+                        stats.start();
+                        LOG.info("Viewport changed to " + viewport);
+                    }
+                    if(game.isFinished()) {
+                        break;
+                    }
+                    double pointsPerSecond = Fractals.getControlPanel().getPointsPerSecond();
+                    pacer.setRate(pointsPerSecond);
+                    if(pointsPerSecond > 0.0) {
+                        game.runPoints(pacer.acquire((long) roundSize * game.getWorkerCount()));
+                    } else {
+                        game.runRound(roundSize);
+                    }
+                    game.mergeInto(histogram);
+                    if(monitor != null && monitor.update()) {
+                        break;
+                    }
+                    // With an interrupt pending the file channel would refuse to write; the finally block saves
+                    if(System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL_NANOS
+                            && !Thread.currentThread().isInterrupted()) {
+                        saveCheckpoint(game);
+                        lastCheckpoint = System.nanoTime();
+                    }
                 }
-
-                currentLocation = new double[]{
-                        (currentLocation[0] + coord[0]) * 0.5, (currentLocation[1] + coord[1]) * 0.5
-                };
-                drawPoint(currentLocation, i++);
-                previousCoord = coord;
+            } finally {
+                // An interrupted round still finishes and the next one throws before starting, so every round
+                // that moved the walkers has been merged
+                saveCheckpoint(game);
             }
         } catch(InterruptedException e) {
             LOG.warn("Interrupted!");
             return;
         } finally {
+            stats.finish();
+            event.pointsComputed = stats.getPointsComputed();
+            event.commit();
             LOG.info("Finished drawing points.");
-            Platform.runLater(() -> Fractals.getControlPanel().actionButtonReset());
+            Viewport rendered = viewport;
+            Platform.runLater(() -> Fractals.getFractalCanvas().drawPointsFinished(rendered));
         }
     }
 
-    private void drawPoint(double[] point, int iteration) {
-        Platform.runLater(() -> {
-            context.setFill(COLOR);
-            context.fillOval(point[0] - (SIZE / 2.0), point[1] - (SIZE / 2.0), SIZE, SIZE);
-            counterVal.set(iteration);
-        });
+    private OrbitPrefix outputMapFor(Viewport view) {
+        if(view.isIdentity()) {
+            return null;
+        }
+        return OrbitPrefix.forViewport(ruleSet, view, histogram.getWidth(), histogram.getHeight());
+    }
+
+    private void saveCheckpoint(ParallelChaosGame game) {
+        Checkpoint checkpoint = Checkpoint.capture(game, ruleSet, seed, randomAlgorithm, viewport, histogram,
+                null);
+        Fractals.getFractalCanvas().setLastCheckpoint(checkpoint);
+        try {
+            Files.createDirectories(AUTOSAVE_FILE.getParent());
+            checkpoint.write(AUTOSAVE_FILE);
+            LOG.debug("Saved checkpoint to " + AUTOSAVE_FILE);
+        } catch(IOException e) {
+            LOG.warn("Unable to save checkpoint to " + AUTOSAVE_FILE + ": " + e.getMessage());
+        }
     }
 }
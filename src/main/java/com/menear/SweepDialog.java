@@ -0,0 +1,163 @@
+package com.menear;
+
+import javafx.scene.control.*;
+import javafx.scene.layout.GridPane;
+import javafx.stage.DirectoryChooser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Optional;
+
+/**
+ * Queues one off-screen render per variant of the current shape, e.g. over a range of contraction ratios.
+ */
+class SweepDialog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SweepDialog.class);
+
+    private ComboBox<String> cmbParameter = new ComboBox<>();
+    private TextField txtFrom = new TextField("0.3");
+    private TextField txtTo = new TextField("0.7");
+    private TextField txtSteps = new TextField("9");
+    private TextField txtWidth = new TextField();
+    private TextField txtHeight = new TextField();
+    private TextField txtIterations = new TextField("50000000");
+    private TextField txtSeed = new TextField();
+    private TextField txtPriority = new TextField("0");
+
+    private DirectoryChooser dcOutput = new DirectoryChooser();
+
+    private final RenderQueueWindow queueWindow;
+
+    SweepDialog(RenderQueueWindow queueWindow) {
+        this.queueWindow = queueWindow;
+        for(ParameterSweep.Parameter parameter : ParameterSweep.Parameter.values()) {
+            cmbParameter.getItems().add(parameter.getDisplayName());
+        }
+        cmbParameter.getSelectionModel().select(0);
+        cmbParameter.setOnAction(event -> {
+            if(getParameter() == ParameterSweep.Parameter.VERTICES) {
+                txtFrom.setText("3");
+                txtTo.setText("8");
+                txtSteps.setText("6");
+            } else {
+                txtFrom.setText("0.3");
+                txtTo.setText("0.7");
+                txtSteps.setText("9");
+            }
+        });
+        dcOutput.setTitle("Choose Folder for Sweep Images...");
+    }
+
+    void show() {
+        FractalCanvas fractalCanvas = Fractals.getFractalCanvas();
+        ControlPanel controlPanel = Fractals.getControlPanel();
+
+        CompiledRuleSet ruleSet;
+        try {
+            ruleSet = fractalCanvas.getCurrentRuleSet();
+        } catch(IllegalArgumentException e) {
+            if(getParameter() != ParameterSweep.Parameter.VERTICES) {
+                showError("Unable to sweep the current rule set: " + e.getMessage());
+                return;
+            }
+            ruleSet = null;
+        }
+
+        if(txtWidth.getText().isEmpty()) {
+            txtWidth.setText(String.valueOf((int) fractalCanvas.getCanvasWidth()));
+            txtHeight.setText(String.valueOf((int) fractalCanvas.getCanvasHeight()));
+        }
+        txtSeed.setText(String.valueOf(controlPanel.getSeed()));
+
+        GridPane grid = new GridPane();
+        grid.setHgap(8.0);
+        grid.setVgap(6.0);
+        grid.addRow(0, new Label("Parameter:"), cmbParameter);
+        grid.addRow(1, new Label("From:"), txtFrom);
+        grid.addRow(2, new Label("To:"), txtTo);
+        grid.addRow(3, new Label("Steps:"), txtSteps);
+        grid.addRow(4, new Label("Width (px):"), txtWidth);
+        grid.addRow(5, new Label("Height (px):"), txtHeight);
+        grid.addRow(6, new Label("Iterations:"), txtIterations);
+        grid.addRow(7, new Label("Seed:"), txtSeed);
+        grid.addRow(8, new Label("Priority:"), txtPriority);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.initOwner(Fractals.getMainStage());
+        dialog.setTitle("Parameter Sweep");
+        dialog.setHeaderText("Queue a render of the current shape for every value of a parameter.");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        Optional<ButtonType> response = dialog.showAndWait();
+        if(!response.isPresent() || response.get() != ButtonType.OK) {
+            return;
+        }
+
+        ParameterSweep sweep;
+        int width;
+        int height;
+        long iterations;
+        long seed;
+        int priority;
+        try {
+            width = Integer.parseInt(txtWidth.getText().trim());
+            height = Integer.parseInt(txtHeight.getText().trim());
+            iterations = Long.parseLong(txtIterations.getText().trim());
+            seed = Long.parseLong(txtSeed.getText().trim());
+            priority = Integer.parseInt(txtPriority.getText().trim());
+            if(width < 1 || height < 1 || iterations < 1) {
+                throw new IllegalArgumentException("Values must be positive");
+            }
+            sweep = new ParameterSweep(getParameter(), Double.parseDouble(txtFrom.getText().trim()),
+                    Double.parseDouble(txtTo.getText().trim()), Integer.parseInt(txtSteps.getText().trim()));
+        } catch(IllegalArgumentException e) {
+            showError("Invalid sweep settings: " + e.getMessage());
+            return;
+        }
+        if(ruleSet == null) {
+            ruleSet = CompiledRuleSet.regularPolygon(3, fractalCanvas.getCanvasWidth(),
+                    fractalCanvas.getCanvasHeight(), RuleSet.DEFAULT_RATIO, controlPanel.getVertexSelectionRule());
+        }
+
+        File directory = dcOutput.showDialog(Fractals.getMainStage());
+        if(directory == null) {
+            LOG.info("No output folder specified for parameter sweep!");
+            return;
+        }
+        dcOutput.setInitialDirectory(directory);
+
+        CompiledRuleSet scaled = ruleSet.transformed(width / fractalCanvas.getCanvasWidth(),
+                height / fractalCanvas.getCanvasHeight(), 0.0, 0.0);
+        RenderScheduler scheduler = Fractals.getRenderScheduler();
+        ToneMapper toneMapper = fractalCanvas.getToneMapper();
+        try {
+            for(int step = 0; step < sweep.size(); step++) {
+                OffscreenRender render = new OffscreenRender(sweep.apply(scaled, step, width, height), width,
+                        height, iterations, controlPanel.getRandomAlgorithm(), seed, controlPanel.getWorkerCount());
+                String label = sweep.label(step);
+                scheduler.submit(new RenderJob(label, render, toneMapper, ExportFormat.PNG,
+                        new File(directory, "sweep-" + label + ".png").toPath(), priority));
+            }
+        } catch(IllegalArgumentException e) {
+            showError("Unable to build the sweep: " + e.getMessage());
+            return;
+        }
+        LOG.info("Queued {} sweep render(s) over {}", sweep.size(), sweep.getParameter().getDisplayName());
+        queueWindow.show();
+    }
+
+    private ParameterSweep.Parameter getParameter() {
+        return ParameterSweep.Parameter.values()[Math.max(0, cmbParameter.getSelectionModel().getSelectedIndex())];
+    }
+
+    private void showError(String message) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        alert.showAndWait();
+    }
+}
@@ -0,0 +1,678 @@
+package com.menear;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Command-line entry point of an HTTP server that renders rule sets as map tiles and whole images on demand, on the
+ * JDK's built-in server. Tiles are drawn by {@link RecursiveRender}, so the same tile always looks the same, or by a
+ * seeded chaos game for rule sets it cannot draw.
+ * <p>
+ * Renders run on one pool of a fixed number of threads, and requests beyond a bounded backlog are turned away with
+ * 503. Concurrent requests for the same image share one render, and finished images are kept in memory, least
+ * recently used first out. Every request is timed, and the latencies are served as JSON from {@code /metrics}.
+ */
+public class TileServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TileServer.class);
+
+    static final int DEFAULT_PORT = 8080;
+    static final int TILE_SIZE = 256;
+    static final int MAX_ZOOM = 40;
+
+    private static final long DEFAULT_CACHE_MEGABYTES = 256;
+    private static final int QUEUED_RENDERS_PER_THREAD = 16;
+    private static final long CHAOS_GAME_SEED = 0L;
+
+    private static final Pattern TILE = Pattern.compile("/tiles/([^/]+)/(\\d+)/(\\d+)/(\\d+)\\.png");
+    private static final Pattern IMAGE = Pattern.compile("/image/([^/]+)\\.png");
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: TileServer --rules <file.json | directory> [options]",
+            "  --port <n>             port to listen on (default " + DEFAULT_PORT + ")",
+            "  --bind <address>       address to listen on (default 127.0.0.1, i.e. this machine only)",
+            "  --threads <n>          render threads (default all processors)",
+            "  --cache-size <MB>      memory for finished tiles and images (default " + DEFAULT_CACHE_MEGABYTES + ")",
+            "  --tone <name>          LINEAR, LOG, GAMMA or EQUALIZED (default LOG)",
+            "  --gamma <g>            exponent of the GAMMA tone curve (default 2.2)",
+            "  --palette <name>       LIME, GRAYSCALE, FIRE, ICE, SPECTRAL or BY_VERTEX (default LIME)");
+
+    private final Map<String, Layer> layers = new TreeMap<>();
+    private final ToneMapper toneMapper;
+    private final ForkJoinPool pool;
+    private final int maxPendingRenders;
+    private final AtomicInteger pendingRenders = new AtomicInteger();
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final ImageCache cache;
+    private final long startNanos = System.nanoTime();
+
+    private final Map<String, Latencies> latencies = new LinkedHashMap<>();
+    private final Latencies renderTimes = new Latencies();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private HttpServer server;
+    private ExecutorService httpExecutor;
+
+    /**
+     * @param ruleSets the rule sets to serve, by the name used in URLs
+     */
+    TileServer(Map<String, RuleSet> ruleSets, ToneMapper toneMapper, int threads, long cacheBytes) {
+        if(ruleSets.isEmpty()) {
+            throw new IllegalArgumentException("No rule sets to serve");
+        }
+        for(Map.Entry<String, RuleSet> entry : ruleSets.entrySet()) {
+            try {
+                layers.put(entry.getKey(), new Layer(entry.getValue()));
+            } catch(IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid rule set " + entry.getKey() + ": " + e.getMessage(), e);
+            }
+        }
+        this.toneMapper = toneMapper;
+        pool = new ForkJoinPool(threads);
+        maxPendingRenders = threads * QUEUED_RENDERS_PER_THREAD;
+        cache = new ImageCache(cacheBytes);
+        for(String source : new String[] {"cache", "render", "shared", "other"}) {
+            latencies.put(source, new Latencies());
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        TileServer tileServer;
+        InetSocketAddress address;
+        try {
+            Map<String, String> options = BatchRender.parseArguments(args, Set.of("rules", "port", "bind", "threads",
+                    "cache-size", "tone", "gamma", "palette"), Set.of("help"));
+            if(options.containsKey("help")) {
+                System.out.println(USAGE);
+                return;
+            }
+            ToneMapper toneMapper = new ToneMapper(
+                    ToneCurve.valueOf(options.getOrDefault("tone", ToneCurve.LOG.name()).toUpperCase(Locale.ROOT)),
+                    BatchRender.doubleOption(options, "gamma", ToneMapper.DEFAULT_GAMMA),
+                    Palette.valueOf(options.getOrDefault("palette", Palette.LIME.name()).toUpperCase(Locale.ROOT)));
+            long megabytes = BatchRender.longOption(options, "cache-size", DEFAULT_CACHE_MEGABYTES);
+            tileServer = new TileServer(loadRuleSets(Paths.get(BatchRender.required(options, "rules"))), toneMapper,
+                    Math.max(1, BatchRender.intOption(options, "threads",
+                            Runtime.getRuntime().availableProcessors())),
+                    Math.min(megabytes, Long.MAX_VALUE >> 20) << 20);
+            address = new InetSocketAddress(options.getOrDefault("bind", "127.0.0.1"),
+                    BatchRender.intOption(options, "port", DEFAULT_PORT));
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        } catch(IOException e) {
+            LOG.error("Unable to load rule sets!", e);
+            System.exit(1);
+            return;
+        }
+
+        try {
+            tileServer.start(address);
+        } catch(IOException e) {
+            LOG.error("Unable to start the tile server!", e);
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(tileServer::stop, "tile-server-shutdown"));
+    }
+
+    /**
+     * Reads one rule set, named after its file, or every {@code .json} file in a directory.
+     */
+    static Map<String, RuleSet> loadRuleSets(Path path) throws IOException {
+        Map<String, RuleSet> ruleSets = new TreeMap<>();
+        if(Files.isDirectory(path)) {
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.json")) {
+                for(Path file : files) {
+                    ruleSets.put(layerName(file), RuleSet.read(file));
+                }
+            }
+        } else {
+            ruleSets.put(layerName(path), RuleSet.read(path));
+        }
+        return ruleSets;
+    }
+
+    private static String layerName(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".json") ? name.substring(0, name.length() - ".json".length()) : name;
+    }
+
+    void start(InetSocketAddress address) throws IOException {
+        // Enough handlers to fill the render backlog and still answer from the cache while it is full
+        httpExecutor = Executors.newFixedThreadPool(maxPendingRenders + pool.getParallelism(), runnable -> {
+            Thread thread = new Thread(runnable, "tile-server-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(address, 0);
+        server.setExecutor(httpExecutor);
+        server.createContext("/", this::handle);
+        server.start();
+        LOG.info("Serving {} rule set(s) at http://{}:{}/ with {} render thread(s)", layers.size(),
+                address.getHostString(), getPort(), pool.getParallelism());
+    }
+
+    void stop() {
+        if(server != null) {
+            server.stop(0);
+            httpExecutor.shutdownNow();
+        }
+        pool.shutdownNow();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        RenderEvents.TileServed event = new RenderEvents.TileServed();
+        event.begin();
+        Response response;
+        try {
+            if(!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                response = Response.error(405, "Only GET is supported");
+            } else {
+                response = route(exchange.getRequestURI());
+            }
+        } catch(IllegalArgumentException e) {
+            response = Response.error(400, e.getMessage());
+        } catch(RuntimeException e) {
+            LOG.error("Failed to serve " + exchange.getRequestURI(), e);
+            failed.increment();
+            response = Response.error(500, "Internal error");
+        }
+
+        try {
+            long elapsed = System.nanoTime() - start;
+            exchange.getResponseHeaders().set("Content-Type", response.contentType);
+            exchange.getResponseHeaders().set("Server-Timing", String.format(Locale.ROOT,
+                    "%s;dur=%.3f", response.source, elapsed / 1e6));
+            if(response.status == 200 && response.cacheable) {
+                exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+            } else if(response.status == 503) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            }
+            exchange.sendResponseHeaders(response.status, response.body.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(response.body);
+            }
+        } finally {
+            exchange.close();
+            long elapsed = System.nanoTime() - start;
+            latencies.get(response.source).record(elapsed);
+            LOG.debug("{} {} {} in {} ms", response.status, exchange.getRequestURI(), response.source,
+                    elapsed / 1_000_000);
+            event.path = exchange.getRequestURI().getPath();
+            event.status = response.status;
+            event.source = response.source;
+            event.bytes = response.body.length;
+            event.commit();
+        }
+    }
+
+    private Response route(URI uri) {
+        String path = uri.getPath();
+        if("/".equals(path)) {
+            Map<String, Object> index = new LinkedHashMap<>();
+            index.put("ruleSets", new ArrayList<>(layers.keySet()));
+            index.put("tileSize", TILE_SIZE);
+            index.put("maxZoom", MAX_ZOOM);
+            index.put("tiles", "/tiles/{ruleSet}/{z}/{x}/{y}.png");
+            index.put("images", "/image/{ruleSet}.png?width=800&height=600&zoom=1&center=x,y");
+            return Response.json(index);
+        }
+        if("/metrics".equals(path)) {
+            return Response.json(metrics());
+        }
+
+        Matcher tile = TILE.matcher(path);
+        if(tile.matches()) {
+            Layer layer = layer(tile.group(1));
+            if(layer == null) {
+                return Response.error(404, "Unknown rule set " + tile.group(1));
+            }
+            int zoom = parseInt(tile.group(2), "zoom");
+            if(zoom > MAX_ZOOM) {
+                return Response.error(404, "Zoom levels go up to " + MAX_ZOOM);
+            }
+            long x = tile.group(3).length() <= 15 ? Long.parseLong(tile.group(3)) : Long.MAX_VALUE;
+            long y = tile.group(4).length() <= 15 ? Long.parseLong(tile.group(4)) : Long.MAX_VALUE;
+            if(x >= 1L << zoom || y >= 1L << zoom) {
+                return Response.error(404, "No tile " + tile.group(3) + "," + tile.group(4) + " at zoom " + zoom);
+            }
+            return serve(path, () -> layer.renderTile(zoom, x, y));
+        }
+
+        Matcher image = IMAGE.matcher(path);
+        if(image.matches()) {
+            Layer layer = layer(image.group(1));
+            if(layer == null) {
+                return Response.error(404, "Unknown rule set " + image.group(1));
+            }
+            Map<String, String> query = parseQuery(uri.getRawQuery());
+            int width = parseInt(query.getOrDefault("width", "800"), "width");
+            int height = parseInt(query.getOrDefault("height", "600"), "height");
+            if(width < 1 || height < 1 || OffscreenRender.needsMappedHistogram(width, height)) {
+                throw new IllegalArgumentException("Images must have between 1 and "
+                        + OffscreenRender.HEAP_PIXEL_LIMIT + " pixels");
+            }
+            double zoom = parseDouble(query.getOrDefault("zoom", "1"), "zoom");
+            double[] center = query.containsKey("center") ? BatchRender.parsePoint(query.get("center"))
+                    : new double[] { width / 2.0, height / 2.0 };
+            Viewport viewport = Viewport.centredOn(center[0], center[1], zoom, width, height);
+            // Equivalent requests share a key however their parameters were written
+            String key = String.format(Locale.ROOT, "%s?%dx%d@%s,%s,%s", path, width, height, zoom, center[0],
+                    center[1]);
+            return serve(key, () -> layer.renderImage(width, height, viewport));
+        }
+        return Response.error(404, "Not found");
+    }
+
+    private Layer layer(String name) {
+        return layers.get(name);
+    }
+
+    /**
+     * Answers from the cache, from a render another request already started, or from a new render.
+     */
+    private Response serve(String key, Render render) {
+        byte[] png = cache.get(key);
+        if(png != null) {
+            return Response.png(png, "cache");
+        }
+        CompletableFuture<byte[]> created = new CompletableFuture<>();
+        CompletableFuture<byte[]> future = inFlight.putIfAbsent(key, created);
+        String source = "shared";
+        if(future == null) {
+            future = created;
+            source = "render";
+            png = cache.get(key);
+            if(png != null) {
+                // Finished between the first look at the cache and registering this render
+                inFlight.remove(key, created);
+                created.complete(png);
+                return Response.png(png, "cache");
+            }
+            startRender(key, render, created);
+        }
+
+        try {
+            return Response.png(future.get(), source);
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RejectedExecutionException) {
+                rejected.increment();
+                return Response.error(503, cause.getMessage());
+            }
+            if(cause instanceof IllegalArgumentException) {
+                return Response.error(400, cause.getMessage());
+            }
+            LOG.error("Failed to render " + key, cause);
+            failed.increment();
+            return Response.error(500, "Render failed");
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.error(503, "Server is stopping");
+        }
+    }
+
+    private void startRender(String key, Render render, CompletableFuture<byte[]> result) {
+        if(pendingRenders.incrementAndGet() > maxPendingRenders) {
+            pendingRenders.decrementAndGet();
+            inFlight.remove(key, result);
+            result.completeExceptionally(new RejectedExecutionException("Too many renders waiting, try again later"));
+            return;
+        }
+        try {
+            pool.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    byte[] png = encode(render.run());
+                    renderTimes.record(System.nanoTime() - start);
+                    cache.put(key, png);
+                    result.complete(png);
+                } catch(Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(key, result);
+                    pendingRenders.decrementAndGet();
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            // The pool has been shut down
+            pendingRenders.decrementAndGet();
+            inFlight.remove(key, result);
+            result.completeExceptionally(e);
+        }
+    }
+
+    private byte[] encode(HitBuffer histogram) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            HistogramExporter.write(histogram, toneMapper, ExportFormat.PNG, bytes, Map.of());
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Server is stopping");
+        }
+        return bytes.toByteArray();
+    }
+
+    private Map<String, Object> metrics() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long requests = 0;
+        Map<String, Object> bySource = new LinkedHashMap<>();
+        for(Map.Entry<String, Latencies> entry : latencies.entrySet()) {
+            requests += entry.getValue().getCount();
+            bySource.put(entry.getKey(), entry.getValue().describe());
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("uptimeSeconds", seconds);
+        metrics.put("requests", requests);
+        metrics.put("requestsPerSecond", seconds > 0 ? requests / seconds : 0.0);
+        metrics.put("latency", bySource);
+        metrics.put("renders", renderTimes.describe());
+        metrics.put("rendersPending", pendingRenders.get());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("failed", failed.sum());
+        metrics.put("cache", cache.describe());
+        return metrics;
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " is not a valid number: " + value);
+        }
+    }
+
+    private static double parseDouble(String value, String name) {
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            if(!(parsed > 0.0) || Double.isInfinite(parsed)) {
+                throw new IllegalArgumentException("Parameter " + name + " must be positive");
+            }
+            return parsed;
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " is not a valid number: " + value);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if(query == null) {
+            return parameters;
+        }
+        for(String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if(equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private interface Render {
+        HitBuffer run();
+    }
+
+    /**
+     * One served rule set. Zoom level 0 is a single tile holding the rule set's bounds, centred and scaled to fit
+     * without distortion; each level halves the tiles of the one before.
+     */
+    private final class Layer {
+
+        private final RuleSet ruleSet;
+        private final CompiledRuleSet world;
+        private final RecursiveRender recursive;
+        private final double originX;
+        private final double originY;
+
+        Layer(RuleSet ruleSet) {
+            this.ruleSet = ruleSet;
+            double[] bounds = ruleSet.getBounds();
+            double aspect = (bounds[2] - bounds[0]) / (bounds[3] - bounds[1]);
+            double worldWidth = aspect >= 1.0 ? TILE_SIZE : TILE_SIZE * aspect;
+            double worldHeight = aspect >= 1.0 ? TILE_SIZE / aspect : TILE_SIZE;
+            world = ruleSet.compile(worldWidth, worldHeight);
+            recursive = recursiveRender(world);
+            originX = (worldWidth - TILE_SIZE) / 2.0;
+            originY = (worldHeight - TILE_SIZE) / 2.0;
+        }
+
+        HitBuffer renderTile(int zoom, long x, long y) {
+            double scale = Math.scalb(1.0, zoom);
+            double side = TILE_SIZE / scale;
+            Viewport viewport = new Viewport(scale, originX + x * side, originY + y * side);
+            return render(world, recursive, TILE_SIZE, TILE_SIZE, viewport, 1);
+        }
+
+        /**
+         * Renders what {@code BatchRender} would for the same size, zoom and centre.
+         */
+        HitBuffer renderImage(int width, int height, Viewport viewport) {
+            CompiledRuleSet compiled = ruleSet.compile(width, height);
+            return render(compiled, recursiveRender(compiled), width, height, viewport, pool.getParallelism());
+        }
+
+        private HitBuffer render(CompiledRuleSet compiled, RecursiveRender renderer, int width, int height,
+                                 Viewport viewport, int walkers) {
+            if(renderer != null) {
+                DensityHistogram histogram = new DensityHistogram(width, height);
+                renderer.render(histogram, viewport, pool);
+                return histogram;
+            }
+            OffscreenRender render = new OffscreenRender(compiled, width, height,
+                    RecursiveRender.POINTS_PER_PIXEL * width * height, RandomAlgorithm.XOSHIRO256, CHAOS_GAME_SEED,
+                    walkers);
+            render.setViewport(viewport);
+            render.setPool(pool);
+            try {
+                return render.run(null, new RenderStats());
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Server is stopping");
+            }
+        }
+    }
+
+    /**
+     * Returns a recursive renderer for {@code ruleSet}, or null if the chaos game has to draw it.
+     */
+    private static RecursiveRender recursiveRender(CompiledRuleSet ruleSet) {
+        try {
+            return new RecursiveRender(ruleSet);
+        } catch(IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static final class Response {
+
+        final int status;
+        final String contentType;
+        final byte[] body;
+        final String source;
+        final boolean cacheable;
+
+        private Response(int status, String contentType, byte[] body, String source, boolean cacheable) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.source = source;
+            this.cacheable = cacheable;
+        }
+
+        static Response png(byte[] png, String source) {
+            return new Response(200, "image/png", png, source, true);
+        }
+
+        static Response json(Object value) {
+            return new Response(200, "application/json", GSON.toJson(value).getBytes(StandardCharsets.UTF_8),
+                    "other", false);
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, "text/plain; charset=utf-8", message.getBytes(StandardCharsets.UTF_8),
+                    "other", false);
+        }
+    }
+
+    /**
+     * Encoded images by request, within a budget of bytes, evicting the least recently used first.
+     */
+    private static final class ImageCache {
+
+        private final long maxBytes;
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+        private long evictions;
+
+        ImageCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized byte[] get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, byte[] image) {
+            if(image.length > maxBytes) {
+                return;
+            }
+            byte[] previous = entries.put(key, image);
+            bytes += image.length - (previous != null ? previous.length : 0);
+            Iterator<byte[]> oldest = entries.values().iterator();
+            while(bytes > maxBytes) {
+                bytes -= oldest.next().length;
+                oldest.remove();
+                evictions++;
+            }
+        }
+
+        synchronized Map<String, Object> describe() {
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("entries", entries.size());
+            description.put("bytes", bytes);
+            description.put("maxBytes", maxBytes);
+            description.put("evictions", evictions);
+            return description;
+        }
+    }
+
+    /**
+     * A latency histogram with four buckets per doubling of microseconds, so percentiles are within 19%.
+     */
+    private static final class Latencies {
+
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+        void record(long nanos) {
+            buckets.incrementAndGet(bucket(Math.max(1L, nanos / 1000L)));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        private static int bucket(long micros) {
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int fraction = (int) ((micros << SUB_BUCKET_BITS) >>> exponent) & ((1 << SUB_BUCKET_BITS) - 1);
+            return (exponent << SUB_BUCKET_BITS) + fraction;
+        }
+
+        /**
+         * Returns the upper end of {@code bucket} in milliseconds.
+         */
+        private static double upperMillis(int bucket) {
+            int exponent = bucket >> SUB_BUCKET_BITS;
+            int fraction = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+            return Math.scalb(1.0 + (fraction + 1.0) / (1 << SUB_BUCKET_BITS), exponent) / 1000.0;
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        Map<String, Object> describe() {
+            long events = count.sum();
+            long total = totalNanos.sum();
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("count", events);
+            description.put("meanMillis", events > 0 ? total / 1e6 / events : 0.0);
+            description.put("p50Millis", percentile(events, 0.50));
+            description.put("p90Millis", percentile(events, 0.90));
+            description.put("p99Millis", percentile(events, 0.99));
+            description.put("maxMillis", maxNanos.get() / 1e6);
+            return description;
+        }
+
+        private double percentile(long events, double fraction) {
+            long rank = (long) Math.ceil(fraction * events);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS && rank > 0; i++) {
+                seen += buckets.get(i);
+                if(seen >= rank) {
+                    return Math.min(upperMillis(i), maxNanos.get() / 1e6);
+                }
+            }
+            return 0.0;
+        }
+    }
+}
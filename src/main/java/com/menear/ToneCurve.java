@@ -0,0 +1,23 @@
+package com.menear;
+
+/**
+ * How hit counts are turned into brightness, given the largest count in the image.
+ */
+public enum ToneCurve {
+
+    LINEAR("Linear"),
+    LOG("Logarithmic"),
+    GAMMA("Gamma"),
+    EQUALIZED("Histogram Equalized");
+
+    private final String displayName;
+
+    ToneCurve(String displayName) {
+        this.displayName = displayName;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.menear;
+
+import java.util.stream.IntStream;
+
+/**
+ * Turns hit counts into ARGB colours through a tone curve and a palette. Kept free of JavaFX so the same mapping
+ * is used on screen and in headless exports.
+ * <p>
+ * The curve depends on the image as a whole, so colouring happens in two steps: {@link #prepare} builds a
+ * {@link Lut} from the image's {@link CountStatistics}, which then maps every pixel with table lookups. Changing
+ * the curve or palette only needs a new lookup table, not a new render.
+ */
+class ToneMapper {
+
+    static final int DEFAULT_BACKGROUND_ARGB = 0xFF0F0F0F;
+    static final double DEFAULT_GAMMA = 2.2;
+
+    private static final int DIRECT_LIMIT = 1 << 16;
+    private static final int MAX_LEVEL = Palette.LEVELS - 1;
+
+    private final ToneCurve curve;
+    private final double gamma;
+    private final Palette palette;
+    private final int backgroundArgb;
+    private final int[] paletteLut;
+
+    ToneMapper() {
+        this(ToneCurve.LOG, DEFAULT_GAMMA, Palette.LIME);
+    }
+
+    ToneMapper(ToneCurve curve, double gamma, Palette palette) {
+        this(curve, gamma, palette, DEFAULT_BACKGROUND_ARGB);
+    }
+
+    ToneMapper(ToneCurve curve, double gamma, Palette palette, int backgroundArgb) {
+        if(!(gamma > 0.0)) {
+            throw new IllegalArgumentException("Gamma must be positive");
+        }
+        this.curve = curve;
+        this.gamma = gamma;
+        this.palette = palette;
+        this.backgroundArgb = backgroundArgb;
+        this.paletteLut = palette.buildLut();
+    }
+
+    Lut prepare(CountStatistics statistics) {
+        return new Lut(statistics);
+    }
+
+    ToneCurve getCurve() {
+        return curve;
+    }
+
+    double getGamma() {
+        return gamma;
+    }
+
+    Palette getPalette() {
+        return palette;
+    }
+
+    /**
+     * Describes the mapping, e.g. for image metadata.
+     */
+    String describe() {
+        String description = curve.getDisplayName() + ", " + palette.getDisplayName();
+        return curve == ToneCurve.GAMMA ? description + ", gamma " + gamma : description;
+    }
+
+    /**
+     * Maps {@code rows} rows of {@code width} pixels in parallel, one row per task.
+     *
+     * @param vertices the last vertex of each pixel, or null if unknown
+     */
+    static void mapRows(Lut lut, int[] counts, byte[] vertices, int[] argb, int offset, int width, int rows,
+                        int stride) {
+        IntStream.range(0, rows).parallel().forEach(row ->
+                lut.map(counts, vertices, argb, offset + row * stride, width));
+    }
+
+    /**
+     * Brightness levels of the vertex colours, built once since they do not depend on the image.
+     */
+    private static final class VertexColors {
+
+        private static final int[][] LUTS = new int[256][];
+
+        static {
+            for(int vertex = 0; vertex < LUTS.length; vertex++) {
+                int rgb = Palette.vertexColor(vertex);
+                int[] lut = new int[Palette.LEVELS];
+                for(int level = 0; level < Palette.LEVELS; level++) {
+                    double brightness = 0.2 + 0.8 * level / MAX_LEVEL;
+                    lut[level] = 0xFF000000 | scale(rgb >> 16, brightness) << 16 | scale(rgb >> 8, brightness) << 8
+                            | scale(rgb, brightness);
+                }
+                LUTS[vertex] = lut;
+            }
+        }
+
+        private static int scale(int channel, double brightness) {
+            return (int) Math.round((channel & 0xFF) * brightness);
+        }
+    }
+
+    /**
+     * The tone curve bound to one image. Counts up to {@value #DIRECT_LIMIT} are looked up directly; the rare
+     * larger ones are evaluated on the fly.
+     */
+    final class Lut {
+
+        private final int maxCount;
+        private final double logMax;
+        private final long[] cumulative;
+        private final double litPixels;
+        private final int[] levels;
+
+        private Lut(CountStatistics statistics) {
+            maxCount = Math.max(1, statistics.getMaxCount());
+            logMax = Math.log1p(maxCount);
+            cumulative = curve == ToneCurve.EQUALIZED ? statistics.cumulativeBuckets() : null;
+            litPixels = Math.max(1, statistics.getLitPixels());
+
+            levels = new int[Math.min(maxCount, DIRECT_LIMIT) + 1];
+            for(int count = 1; count < levels.length; count++) {
+                levels[count] = toLevel(intensity(count));
+            }
+        }
+
+        /**
+         * Returns the brightness of {@code count} in [0, 1].
+         */
+        double intensity(int count) {
+            if(count <= 0) {
+                return 0.0;
+            }
+            switch(curve) {
+                case LINEAR:
+                    return Math.min(1.0, (double) count / maxCount);
+                case GAMMA:
+                    return Math.pow(Math.min(1.0, (double) count / maxCount), 1.0 / gamma);
+                case EQUALIZED:
+                    return cumulative[CountStatistics.bucket(count)] / litPixels;
+                default:
+                    return Math.min(1.0, Math.log1p(count) / logMax);
+            }
+        }
+
+        int level(int count) {
+            return count < levels.length ? levels[count] : toLevel(intensity(count));
+        }
+
+        int toArgb(int count) {
+            return count > 0 ? paletteLut[level(count)] : backgroundArgb;
+        }
+
+        int toArgb(int count, int vertex) {
+            if(count <= 0) {
+                return backgroundArgb;
+            }
+            return palette == Palette.BY_VERTEX ? VertexColors.LUTS[vertex & 0xFF][level(count)]
+                    : paletteLut[level(count)];
+        }
+
+        /**
+         * Returns the brightness of {@code count} as a 16-bit grey level.
+         */
+        int toGray16(int count) {
+            return (int) Math.round(intensity(count) * 0xFFFF);
+        }
+
+        /**
+         * @param vertices the last vertex of each pixel, or null to use the palette even for {@link Palette#BY_VERTEX}
+         */
+        void map(int[] counts, byte[] vertices, int[] argb, int offset, int length) {
+            int[] lut = paletteLut;
+            int[] direct = levels;
+            int background = backgroundArgb;
+            boolean byVertex = palette == Palette.BY_VERTEX && vertices != null;
+            for(int i = offset, end = offset + length; i < end; i++) {
+                int count = counts[i];
+                if(count <= 0) {
+                    argb[i] = background;
+                    continue;
+                }
+                int level = count < direct.length ? direct[count] : toLevel(intensity(count));
+                argb[i] = byVertex ? VertexColors.LUTS[vertices[i] & 0xFF][level] : lut[level];
+            }
+        }
+
+        private int toLevel(double intensity) {
+            return Math.max(0, Math.min(MAX_LEVEL, (int) (intensity * MAX_LEVEL + 0.5)));
+        }
+    }
+}
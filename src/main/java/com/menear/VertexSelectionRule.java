@@ -3,6 +3,9 @@ package com.menear;
 public enum VertexSelectionRule {
 
     NO_RESTRICTION,
-    DIFFERENT_THAN_PREVIOUS;
+    DIFFERENT_THAN_PREVIOUS,
+    NOT_NEIGHBOR_OF_PREVIOUS,
+    DIFFERENT_THAN_TWO_BACK,
+    CUSTOM_TRANSITIONS;
 
 }
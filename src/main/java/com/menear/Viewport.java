@@ -0,0 +1,113 @@
+package com.menear;
+
+/**
+ * Maps world coordinates, which are the canvas pixels of the full view, onto the screen:
+ * screen = (world - origin) * scale. Instances are immutable; every zoom or pan returns a new one.
+ */
+final class Viewport {
+
+    static final Viewport IDENTITY = new Viewport(1.0, 0.0, 0.0);
+
+    private static final double MIN_SCALE = 0.05;
+    private static final double MAX_SCALE = 1e12;
+
+    private final double scale;
+    private final double originX;
+    private final double originY;
+
+    Viewport(double scale, double originX, double originY) {
+        if(!(scale > 0.0) || Double.isInfinite(scale) || Double.isNaN(originX) || Double.isNaN(originY)) {
+            throw new IllegalArgumentException("Invalid viewport");
+        }
+        this.scale = scale;
+        this.originX = originX;
+        this.originY = originY;
+    }
+
+    /**
+     * Returns a viewport of {@code width} x {@code height} pixels centred on the given world point.
+     */
+    static Viewport centredOn(double worldX, double worldY, double scale, int width, int height) {
+        return new Viewport(scale, worldX - width / (2.0 * scale), worldY - height / (2.0 * scale));
+    }
+
+    /**
+     * Zooms by {@code factor} while keeping the world point under the given screen position in place.
+     */
+    Viewport zoomAt(double screenX, double screenY, double factor) {
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        double worldX = toWorldX(screenX);
+        double worldY = toWorldY(screenY);
+        return new Viewport(newScale, worldX - screenX / newScale, worldY - screenY / newScale);
+    }
+
+    /**
+     * Moves the view so that the content follows a drag of {@code dx}, {@code dy} screen pixels.
+     */
+    Viewport panBy(double dx, double dy) {
+        return new Viewport(scale, originX - dx / scale, originY - dy / scale);
+    }
+
+    double toScreenX(double worldX) {
+        return (worldX - originX) * scale;
+    }
+
+    double toScreenY(double worldY) {
+        return (worldY - originY) * scale;
+    }
+
+    double toWorldX(double screenX) {
+        return screenX / scale + originX;
+    }
+
+    double toWorldY(double screenY) {
+        return screenY / scale + originY;
+    }
+
+    /**
+     * Returns the world-to-screen map as an affine matrix [a, b, c, d, e, f].
+     */
+    double[] getMatrix() {
+        return new double[] {scale, 0.0, 0.0, scale, -scale * originX, -scale * originY};
+    }
+
+    boolean isIdentity() {
+        return scale == 1.0 && originX == 0.0 && originY == 0.0;
+    }
+
+    double getScale() {
+        return scale;
+    }
+
+    double getOriginX() {
+        return originX;
+    }
+
+    double getOriginY() {
+        return originY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof Viewport)) {
+            return false;
+        }
+        Viewport other = (Viewport) o;
+        return scale == other.scale && originX == other.originX && originY == other.originY;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(scale);
+        result = 31 * result + Double.hashCode(originX);
+        return 31 * result + Double.hashCode(originY);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.4gx at (%.6g, %.6g)", scale, originX, originY);
+    }
+}
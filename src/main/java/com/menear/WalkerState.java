@@ -0,0 +1,111 @@
+package com.menear;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Snapshot of one chaos game walker: its position, selection history, progress and random generator state.
+ */
+final class WalkerState {
+
+    private final double x;
+    private final double y;
+    private final int previousVertex;
+    private final int secondPreviousVertex;
+    private final long pointsDone;
+    private final long[] randomState;
+
+    WalkerState(double x, double y, int previousVertex, int secondPreviousVertex, long pointsDone,
+                long[] randomState) {
+        this.x = x;
+        this.y = y;
+        this.previousVertex = previousVertex;
+        this.secondPreviousVertex = secondPreviousVertex;
+        this.pointsDone = pointsDone;
+        this.randomState = randomState.clone();
+    }
+
+    /**
+     * Creates the states of {@code workers} fresh walkers at the given start point, each with its own stream split
+     * off a generator seeded with {@code seed}.
+     */
+    static WalkerState[] initial(double startX, double startY, RandomAlgorithm algorithm, long seed, int workers) {
+        if(workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        RandomSource random = algorithm.create(seed);
+        WalkerState[] walkers = new WalkerState[workers];
+        for(int i = 0; i < workers; i++) {
+            walkers[i] = new WalkerState(startX, startY, -1, -1, 0, random.split().getState());
+        }
+        return walkers;
+    }
+
+    /**
+     * Returns how many of {@code iterations} points walker {@code index} of {@code workers} is responsible for.
+     */
+    static long share(long iterations, int workers, int index) {
+        return iterations / workers + (index < iterations % workers ? 1 : 0);
+    }
+
+    /**
+     * Returns this walker with its progress set to {@code pointsDone}, e.g. to carry it over into a new render.
+     */
+    WalkerState withPointsDone(long pointsDone) {
+        return new WalkerState(x, y, previousVertex, secondPreviousVertex, pointsDone, randomState);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeDouble(x);
+        out.writeDouble(y);
+        out.writeInt(previousVertex);
+        out.writeInt(secondPreviousVertex);
+        out.writeLong(pointsDone);
+        out.writeInt(randomState.length);
+        for(long word : randomState) {
+            out.writeLong(word);
+        }
+    }
+
+    static WalkerState read(DataInput in) throws IOException {
+        double x = in.readDouble();
+        double y = in.readDouble();
+        int previousVertex = in.readInt();
+        int secondPreviousVertex = in.readInt();
+        long pointsDone = in.readLong();
+        int stateLength = in.readInt();
+        if(stateLength < 1 || stateLength > 16) {
+            throw new IOException("Invalid generator state length " + stateLength);
+        }
+        long[] state = new long[stateLength];
+        for(int j = 0; j < stateLength; j++) {
+            state[j] = in.readLong();
+        }
+        return new WalkerState(x, y, previousVertex, secondPreviousVertex, pointsDone, state);
+    }
+
+    double getX() {
+        return x;
+    }
+
+    double getY() {
+        return y;
+    }
+
+    int getPreviousVertex() {
+        return previousVertex;
+    }
+
+    int getSecondPreviousVertex() {
+        return secondPreviousVertex;
+    }
+
+    long getPointsDone() {
+        return pointsDone;
+    }
+
+    long[] getRandomState() {
+        return randomState.clone();
+    }
+}
@@ -0,0 +1,89 @@
+package com.menear;
+
+/**
+ * xoshiro256** by Blackman and Vigna. {@link #split()} uses the 2^128 jump so that parallel walkers get
+ * streams that are guaranteed not to overlap.
+ */
+class Xoshiro256Random implements RandomSource {
+
+    private static final long[] JUMP = {
+            0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL, 0xa9582618e03fc9aaL, 0x39abdc4529b1661cL
+    };
+
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+
+    Xoshiro256Random(long seed) {
+        SplitMix64Random seeder = new SplitMix64Random(seed);
+        s0 = seeder.nextLong();
+        s1 = seeder.nextLong();
+        s2 = seeder.nextLong();
+        s3 = seeder.nextLong();
+    }
+
+    Xoshiro256Random(long s0, long s1, long s2, long s3) {
+        this.s0 = s0;
+        this.s1 = s1;
+        this.s2 = s2;
+        this.s3 = s3;
+    }
+
+    @Override
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    @Override
+    public RandomSource split() {
+        Xoshiro256Random stream = new Xoshiro256Random(s0, s1, s2, s3);
+        jump();
+        return stream;
+    }
+
+    @Override
+    public long[] getState() {
+        return new long[] {s0, s1, s2, s3};
+    }
+
+    /**
+     * Replaces the state, e.g. with one advanced outside this object by {@link ChaosGameEngine.Lanes}.
+     */
+    void setState(long s0, long s1, long s2, long s3) {
+        this.s0 = s0;
+        this.s1 = s1;
+        this.s2 = s2;
+        this.s3 = s3;
+    }
+
+    void jump() {
+        long j0 = 0;
+        long j1 = 0;
+        long j2 = 0;
+        long j3 = 0;
+        for(long jump : JUMP) {
+            for(int b = 0; b < 64; b++) {
+                if((jump & (1L << b)) != 0) {
+                    j0 ^= s0;
+                    j1 ^= s1;
+                    j2 ^= s2;
+                    j3 ^= s3;
+                }
+                nextLong();
+            }
+        }
+        s0 = j0;
+        s1 = j1;
+        s2 = j2;
+        s3 = j3;
+    }
+}
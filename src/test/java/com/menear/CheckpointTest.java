@@ -0,0 +1,54 @@
+package com.menear;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Interrupts as soon as the first walker of a round reports its points, while the others are still running.
+     */
+    @Test
+    public void interruptedRenderCheckpointsOnlyMergedRounds() throws Exception {
+        for(long delayMillis : new long[] {0, 50, 200}) {
+            Path file = folder.getRoot().toPath().resolve("run-" + delayMillis + ".ckpt");
+            CompiledRuleSet ruleSet = CompiledRuleSet.regularPolygon(3, 1000, 1000, RuleSet.DEFAULT_RATIO,
+                    VertexSelectionRule.NO_RESTRICTION);
+            OffscreenRender render = new OffscreenRender(ruleSet, 1000, 1000, 100_000_000_000L,
+                    RandomAlgorithm.XOSHIRO256, 42L, 4);
+            render.setCheckpointFile(file, 3600);
+
+            RenderStats stats = new RenderStats();
+            AtomicReference<Throwable> thrown = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    render.run(null, stats);
+                } catch(Throwable e) {
+                    thrown.set(e);
+                }
+            });
+            thread.start();
+            while(stats.getPointsComputed() == 0 && thread.isAlive()) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(delayMillis);
+            thread.interrupt();
+            thread.join();
+
+            assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof InterruptedException);
+            Checkpoint checkpoint = Checkpoint.read(file);
+            assertTrue(checkpoint.getPointsDone() > 0);
+            assertEquals(checkpoint.getPointsDone(), checkpoint.getTotalPoints());
+        }
+    }
+}
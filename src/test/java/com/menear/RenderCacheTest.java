@@ -0,0 +1,45 @@
+package com.menear;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class RenderCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Colouring by vertex depends on more than the counts, so a cache hit must bring back the vertices too.
+     */
+    @Test
+    public void cacheHitMatchesOriginalByVertex() throws Exception {
+        RenderCache cache = new RenderCache(folder.newFolder("cache").toPath(), RenderCache.DEFAULT_MAX_BYTES);
+        ToneMapper toneMapper = new ToneMapper(ToneCurve.LOG, ToneMapper.DEFAULT_GAMMA, Palette.BY_VERTEX);
+
+        Path original = folder.getRoot().toPath().resolve("original.png");
+        Path cached = folder.getRoot().toPath().resolve("cached.png");
+        for(Path output : new Path[] {original, cached}) {
+            CompiledRuleSet ruleSet = CompiledRuleSet.regularPolygon(3, 200, 200, RuleSet.DEFAULT_RATIO,
+                    VertexSelectionRule.NO_RESTRICTION);
+            OffscreenRender render = new OffscreenRender(ruleSet, 200, 200, 1_000_000L, RandomAlgorithm.XOSHIRO256,
+                    42L, 2);
+            render.setCache(cache);
+            HitBuffer histogram = render.run(null, new RenderStats());
+            HistogramExporter.export(histogram, toneMapper, ExportFormat.PNG, output, Collections.emptyMap(),
+                    progress -> { });
+        }
+
+        String key = RenderCache.key(CompiledRuleSet.regularPolygon(3, 200, 200, RuleSet.DEFAULT_RATIO,
+                VertexSelectionRule.NO_RESTRICTION), 200, 200, 42L, RandomAlgorithm.XOSHIRO256, 2, Viewport.IDENTITY);
+        assertNotNull(cache.lookup(key, 1_000_000L));
+        assertArrayEquals(Files.readAllBytes(original), Files.readAllBytes(cached));
+    }
+}